@@ -0,0 +1,125 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * One line of a tailed log file, read in place from the file's mapping.  Characters are the file's bytes taken
+ * as ISO-8859-1, which is exact for ASCII logs; a UTF-8 multi-byte character shows up as several chars.
+ *
+ * LogTail reuses a single LogLine for every line it delivers, and the mapping underneath is only good until the
+ * next line, so rules must call toString() on anything they want to keep.
+ */
+public class LogLine implements CharSequence {
+  protected ByteBuffer _buffer = null;
+  protected int _start = 0;
+  protected int _length = 0;
+  protected Path _file = null;
+  protected long _offset = 0;
+
+  protected LogLine wrap(Path file, long offset, ByteBuffer buffer, int start, int length) {
+    _file = file;
+    _offset = offset;
+    _buffer = buffer;
+    _start = start;
+    _length = length;
+    return this;
+  }
+
+  /**
+   * File the line came from.
+   */
+  public Path getFile() {
+    return _file;
+  }
+
+  /**
+   * Byte offset of the start of the line in its file.
+   */
+  public long getOffset() {
+    return _offset;
+  }
+
+  @Override
+  public int length() {
+    return _length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= _length)
+      throw new IndexOutOfBoundsException("No char " + index + " in a line of " + _length);
+    return (char) (_buffer.get(_start + index) & 0xFF);
+  }
+
+  /**
+   * A view over part of this line.  The view shares the mapping, so it's no longer lived than the line.
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > _length || start > end)
+      throw new IndexOutOfBoundsException("No chars " + start + " to " + end + " in a line of " + _length);
+    return new LogLine().wrap(_file, _offset + start, _buffer, _start + start, end - start);
+  }
+
+  public boolean startsWith(CharSequence prefix) {
+    return regionMatches(0, prefix);
+  }
+
+  /**
+   * Whether <text> occurs anywhere in the line.  Naive search, which is fine for the short needles rules use.
+   */
+  public boolean contains(CharSequence text) {
+    for (int i = 0; i + text.length() <= _length; i++)
+      if (regionMatches(i, text))
+        return true;
+    return false;
+  }
+
+  public boolean regionMatches(int offset, CharSequence text) {
+    if (offset < 0 || offset + text.length() > _length)
+      return false;
+    for (int i = 0; i < text.length(); i++)
+      if ((char) (_buffer.get(_start + offset + i) & 0xFF) != text.charAt(i))
+        return false;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    char[] chars = new char[_length];
+    for (int i = 0; i < _length; i++)
+      chars[i] = (char) (_buffer.get(_start + i) & 0xFF);
+    return new String(chars);
+  }
+}
@@ -0,0 +1,252 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Tails the log files in a directory into a channel, one LogLine per line.  Each call to tail() reads whatever was
+ * appended to the file since the last call and hands its complete lines to the rule system in place, without
+ * copying them into Strings.  A trailing partial line waits for the rest of it.
+ *
+ * Appends smaller than MAP_THRESHOLD, the usual case for a log written a line at a time, are read into one
+ * reused direct buffer.  Only bigger ranges, as when catching up on startup, are memory-mapped: a mapping is
+ * only released when its buffer is collected, so mapping every small append would pile up live mappings until
+ * the process ran out of them.
+ *
+ * How far each file has been read is kept in a checkpoint file, rewritten by tail() at most once per checkpoint
+ * interval and by checkpoint() on demand, so a restarted tail picks up where the last one left off.  The
+ * checkpoint is written after the lines have been delivered, so after a crash the lines since the last
+ * checkpoint are delivered again: at-least-once, not exactly.  Call checkpoint() on a clean shutdown.
+ *
+ * A file that's shorter than its checkpointed offset has been truncated or rotated, and is read again from the top.
+ *
+ * @author corwyn
+ */
+public class LogTail {
+  protected static final long MAX_MAP_SIZE = 64 * 1024 * 1024;
+  protected static final int MAP_THRESHOLD = 1024 * 1024;
+
+  protected Path _directory = null;
+  protected PathMatcher _matcher = null;
+  protected Path _checkpointPath = null;
+  protected Map<Path, Long> _offsets = new HashMap<Path, Long>();
+  protected LogLine _line = new LogLine();
+  protected ByteBuffer _readBuffer = null;
+  protected long _checkpointIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+  protected long _lastCheckpoint = System.nanoTime();
+  protected boolean _dirty = false;
+
+  /**
+   * Tail the files in <directory> whose names match <glob> (as in FileSystem.getPathMatcher("glob:...")),
+   * checkpointing to <checkpointPath>, or not at all if that's null.
+   */
+  public LogTail(Path directory, String glob, Path checkpointPath) throws IOException {
+    assertNotNull(directory);
+    assertNotNull(glob);
+    _directory = directory;
+    _matcher = directory.getFileSystem().getPathMatcher("glob:" + glob);
+    _checkpointPath = checkpointPath;
+    if (checkpointPath != null && Files.exists(checkpointPath))
+      _readCheckpoint();
+  }
+
+  /**
+   * Let tail() rewrite the checkpoint at most once every <millis>.  0 checkpoints after every tail() that read
+   * anything.
+   */
+  public LogTail checkpointInterval(long millis) {
+    assertTrue(millis >= 0);
+    _checkpointIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    return this;
+  }
+
+  public Path getDirectory() {
+    return _directory;
+  }
+
+  /**
+   * Whether <file>, relative to the directory, is one of ours.
+   */
+  public boolean matches(Path file) {
+    return file.getFileName() != null && _matcher.matches(file.getFileName());
+  }
+
+  /**
+   * Offset of the first byte not yet delivered from <file>, relative to the directory.
+   */
+  public long getOffset(Path file) {
+    Long offset = _offsets.get(file);
+    return offset == null ? 0 : offset;
+  }
+
+  /**
+   * Tail every matching file in the directory, as on startup.  Returns the number of lines delivered.
+   */
+  public long tailAll(CARuleSystem<?> ruleSystem, String channelName) throws IOException {
+    long lines = 0;
+    DirectoryStream<Path> files = Files.newDirectoryStream(_directory);
+    try {
+      for (Path file : files)
+        if (Files.isRegularFile(file) && matches(file.getFileName()))
+          lines = lines + tail(ruleSystem, channelName, file.getFileName());
+    } finally {
+      files.close();
+    }
+    return lines;
+  }
+
+  /**
+   * Deliver the lines appended to <file>, relative to the directory, since it was last tailed, executing the
+   * rule system's activations after each.  Returns the number of lines delivered.
+   */
+  public long tail(CARuleSystem<?> ruleSystem, String channelName, Path file) throws IOException {
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int channelIndex = context.getIndex(channelName);
+    assertTrue(channelIndex >= 0, "Rule system has no channel " + channelName);
+
+    Path path = _directory.resolve(file);
+    if (!Files.isRegularFile(path))
+      return 0;
+
+    long lines = 0;
+    long offset = getOffset(file);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < offset)
+        offset = 0;
+
+      while (offset < size) {
+        long mapSize = Math.min(size - offset, MAX_MAP_SIZE);
+        ByteBuffer buffer = mapSize < MAP_THRESHOLD ? _read(channel, offset, (int) mapSize)
+                : channel.map(FileChannel.MapMode.READ_ONLY, offset, mapSize);
+        int start = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+          if (buffer.get(i) != '\n')
+            continue;
+          int end = (i > start && buffer.get(i - 1) == '\r') ? i - 1 : i;
+          context.returnValue(channelIndex, _line.wrap(file, offset + start, buffer, start, end - start));
+          ruleSystem.executeActivations();
+          lines = lines + 1;
+          start = i + 1;
+        }
+
+        //  A line longer than a whole mapping goes out in mapping-sized pieces rather than never...
+        if (start == 0 && mapSize == MAX_MAP_SIZE) {
+          context.returnValue(channelIndex, _line.wrap(file, offset, buffer, 0, (int) mapSize));
+          ruleSystem.executeActivations();
+          lines = lines + 1;
+          start = (int) mapSize;
+        }
+        if (start == 0)
+          break;
+        offset = offset + start;
+      }
+    } finally {
+      channel.close();
+    }
+
+    if (offset != getOffset(file)) {
+      _offsets.put(file, offset);
+      _dirty = true;
+      if (System.nanoTime() - _lastCheckpoint >= _checkpointIntervalNanos)
+        checkpoint();
+    }
+    return lines;
+  }
+
+  /**
+   * Write the offsets out if they've moved since the last checkpoint, replacing the checkpoint file in one move
+   * so that a crash leaves the old or the new.
+   */
+  public void checkpoint() throws IOException {
+    if (_checkpointPath == null || !_dirty)
+      return;
+
+    Path temp = _checkpointPath.resolveSibling(_checkpointPath.getFileName() + ".tmp");
+    DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp));
+    try {
+      out.writeInt(_offsets.size());
+      for (Map.Entry<Path, Long> offset : _offsets.entrySet()) {
+        out.writeUTF(offset.getKey().toString());
+        out.writeLong(offset.getValue());
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(temp, _checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    _lastCheckpoint = System.nanoTime();
+    _dirty = false;
+  }
+
+  /**
+   * Read <length> bytes from <offset> into the reused buffer, which is flipped ready to scan.
+   */
+  protected ByteBuffer _read(FileChannel channel, long offset, int length) throws IOException {
+    if (_readBuffer == null)
+      _readBuffer = ByteBuffer.allocateDirect(MAP_THRESHOLD);
+    _readBuffer.clear();
+    _readBuffer.limit(length);
+    while (_readBuffer.hasRemaining())
+      if (channel.read(_readBuffer, offset + _readBuffer.position()) < 0)
+        break;
+    _readBuffer.flip();
+    return _readBuffer;
+  }
+
+  protected void _readCheckpoint() throws IOException {
+    DataInputStream in = new DataInputStream(Files.newInputStream(_checkpointPath));
+    try {
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Path file = _directory.getFileSystem().getPath(in.readUTF());
+        _offsets.put(file, in.readLong());
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.pachinko.IEventSource;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * A JDK7 WatchService as an IEventSource, for driving any rule system thru an EventSourceDriver.  A thread blocked
+ * in take() emits each event to the one channel.
+ *
+ * When the rules fall behind and the sink runs out of credit, the thread stops taking keys, and the WatchService
+ * goes on collecting events for them itself, down to an OVERFLOW if it has to.  That's the WatchService's own way
+ * of saying events were lost, and rules should treat it as "rescan".
+ */
+public class WatchServiceEventSource implements IEventSource<WatchEvent>, Runnable {
+  protected String _channelName = null;
+  protected WatchService _watcher = null;
+  protected ISink<WatchEvent> _sink = null;
+  protected volatile Thread _thread = null;
+  protected volatile boolean _done = false;
+
+  public WatchServiceEventSource(String channelName, WatchService watcher) {
+    assertNotNull(channelName);
+    assertNotNull(watcher);
+    _channelName = channelName;
+    _watcher = watcher;
+  }
+
+  @Override
+  public String[] getChannelNames() {
+    return new String[] { _channelName };
+  }
+
+  @Override
+  public void open(ISink<WatchEvent> sink) {
+    _sink = sink;
+    _done = false;
+    _thread = new Thread(this, "pachinko-watcher-" + _channelName);
+    _thread.setDaemon(true);
+    _thread.start();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!_done) {
+        WatchKey wkey = _watcher.take();
+        for (WatchEvent<?> event : wkey.pollEvents())
+          if (!_sink.emit(0, event))
+            return;
+        //  A key that won't reset is for a directory that's gone; keep taking the others...
+        wkey.reset();
+      }
+    } catch (InterruptedException e) {
+      //  closed
+    } catch (ClosedWatchServiceException e) {
+      //  nothing more will come
+    } finally {
+      _sink.complete();
+    }
+  }
+
+  /**
+   * Stops the watching thread.  The WatchService itself is left open; it belongs to whoever created it.
+   */
+  @Override
+  public void close() {
+    _done = true;
+    Thread thread = _thread;
+    if (thread != null)
+      thread.interrupt();
+  }
+}
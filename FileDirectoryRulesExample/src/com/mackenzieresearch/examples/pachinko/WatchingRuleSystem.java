@@ -33,14 +33,48 @@ package com.mackenzieresearch.examples.pachinko;
 import com.mackenzieresearch.pachinko.CARuleSystem;
 import com.mackenzieresearch.pachinko.ICARule;
 import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * CARuleSystem fed by JDK7 WatchServices.  Each WatchService gets a thread blocked in take(), and they all feed a
+ * single queue drained by the engine thread, which parks on the queue whenever nothing has changed.  So an idle
+ * watcher costs no CPU, and the rule system itself is only ever touched by the engine thread.
+ *
+ * Directories can be watched recursively, following subdirectories as they're created.  With a quiet period set,
+ * repeats of the same (channel, kind, path) are merged into one event, delivered once that path has been quiet
+ * for the period, so a file being written in a burst of ENTRY_MODIFYs costs one rule cycle rather than thousands.
+ *
+ * Tail sources deliver the lines appended to log files, as LogLines, instead of the WatchEvents themselves.
+ *
+ * Event sources should be added before start().
+ */
 public class WatchingRuleSystem extends CARuleSystem<WatchEvent> implements Runnable {
   protected Map<String, WatchService> _eventSources = new HashMap<String, WatchService>();
+  protected Map<WatchKey, WatchedDirectory> _directories = new ConcurrentHashMap<WatchKey, WatchedDirectory>();
+  protected BlockingQueue<ChannelEvent> _queue = new LinkedBlockingQueue<ChannelEvent>();
+  protected Map<String, LogTail> _tails = new HashMap<String, LogTail>();
+  protected boolean _tailsResumed = false;
+  protected LinkedHashMap<ChannelEvent, ChannelEvent> _pending = new LinkedHashMap<ChannelEvent, ChannelEvent>();
+  protected long _quietNanos = 0;
+  protected List<Thread> _watchers = new ArrayList<Thread>();
+  protected volatile Thread _engine = null;
   protected volatile boolean _done = false;
 
   public WatchingRuleSystem(ICARule<WatchEvent>... rules) {
@@ -54,40 +88,441 @@ public class WatchingRuleSystem extends CARuleSystem<WatchEvent> implements Runn
   }
 
   public WatchingRuleSystem addEventSource(String channelName, String filePath, WatchEvent.Kind<?>... eventKinds) throws IOException {
+    return addEventSource(channelName, filePath, false, eventKinds);
+  }
+
+  /**
+   * Watch <filePath> and, if <recursive>, every directory beneath it including those created later.  Events are
+   * delivered with their path relative to <filePath>, so events in <filePath> itself look just as they would from
+   * a plain WatchService.
+   */
+  public WatchingRuleSystem addEventSource(String channelName, String filePath, boolean recursive, WatchEvent.Kind<?>... eventKinds) throws IOException {
     WatchService watcher = FileSystems.getDefault().newWatchService();
-    Path path = FileSystems.getDefault().getPath(filePath);
-    path.register(watcher, eventKinds);
+    Path root = FileSystems.getDefault().getPath(filePath);
+    WatchedTree tree = new WatchedTree(channelName, watcher, root, recursive, eventKinds);
+    if (recursive)
+      tree.registerAll(root);
+    else
+      tree.register(root);
     addEventSource(channelName, watcher);
     return this;
   }
 
-  public void poll() {
-    for (String channelName : _eventSources.keySet()) {
-      WatchKey wkey = _eventSources.get(channelName).poll();
-      if (wkey != null) {
-        for (WatchEvent<?> event : wkey.pollEvents()) {
-          _alphaMemory.returnValue(channelName, event);
-        }
+  /**
+   * Tail the files in <directoryPath> whose names match <glob>, delivering each line appended to them as a LogLine
+   * on <channelName>.  Offsets are checkpointed to <checkpointPath>, if not null, at most once a second and when
+   * the engine stops, and on starting each file is caught up from its checkpoint.  See LogTail.
+   */
+  public WatchingRuleSystem addTailSource(String channelName, String directoryPath, String glob, String checkpointPath) throws IOException {
+    WatchService watcher = FileSystems.getDefault().newWatchService();
+    Path directory = FileSystems.getDefault().getPath(directoryPath);
+    Path checkpoint = checkpointPath == null ? null : FileSystems.getDefault().getPath(checkpointPath);
+    new WatchedTree(channelName, watcher, directory, false, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY).register(directory);
+    _tails.put(channelName, new LogTail(directory, glob, checkpoint));
+    _eventSources.put(channelName, watcher);
+    defineVariable((IMonad) new Variable<CharSequence>(channelName, null));
+    return this;
+  }
 
-        if (!wkey.reset())
-          break;
-      }
+  /**
+   * Merge repeated events for the same channel, kind and path until the path has been quiet for <quietMillis>.
+   * Zero, the default, delivers every event as it arrives.
+   */
+  public WatchingRuleSystem setQuietPeriod(long quietMillis) {
+    _quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+    return this;
+  }
+
+  /**
+   * Single pass without threads: collect whatever the WatchServices have ready, expire any timers that have come
+   * due, then deliver everything queued that is due.  Never blocks.
+   */
+  public void poll() {
+    _resumeTails();
+    for (Map.Entry<String, WatchService> source : _eventSources.entrySet()) {
+      WatchKey wkey = source.getValue().poll();
+      if (wkey != null)
+        _enqueue(source.getKey(), wkey);
     }
 
-    executeActivations();
+    ChannelEvent queued;
+    advanceTimers();
+    while ((queued = _queue.poll()) != null)
+      _accept(queued);
+    _flushPending(System.nanoTime());
   }
 
+  /**
+   * Engine loop: starts a watcher thread per event source, then delivers events as they arrive until stop(),
+   * expiring timers as they come due.
+   */
   public void run() {
-    while (!_done)
-      poll();
-    _done = false;
+    _engine = Thread.currentThread();
+    _startWatchers();
+    _resumeTails();
+    try {
+      while (!_done) {
+        //  Park until something arrives, until the next merged event has been quiet long enough, or until the
+        //  next timer could be due...
+        ChannelEvent queued;
+        long due = Math.min(_nextDue(), _nextTimerDue());
+        if (due == Long.MAX_VALUE)
+          queued = _queue.take();
+        else
+          queued = _queue.poll(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+        advanceTimers();
+        while (!_done && queued != null) {
+          if (queued != STOP)
+            _accept(queued);
+          queued = _queue.poll();
+        }
+        _flushPending(System.nanoTime());
+      }
+    } catch (InterruptedException e) {
+      //  Interrupted from outside; treat it as a stop
+    } finally {
+      _stopWatchers();
+      _checkpointTails();
+      _engine = null;
+      _done = false;
+    }
   }
 
   public void start() {
-    new Thread(this).start();
+    Thread engine = new Thread(this, "pachinko-watching-engine");
+    engine.setDaemon(true);
+    engine.start();
   }
 
+  /**
+   * Stops the engine and its watchers, waiting for them unless called from a rule on the engine thread itself.
+   * The engine is woken with a marker event rather than an interrupt, since an interrupt would close any file
+   * channel a tail source had open.
+   */
   public void stop() {
     _done = true;
+    _queue.add(STOP);
+    Thread engine = _engine;
+    if (engine != null && engine != Thread.currentThread()) {
+      try {
+        engine.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  protected static final ChannelEvent STOP = new ChannelEvent("", new PathEvent(StandardWatchEventKinds.OVERFLOW, 0, null));
+
+  protected void _accept(ChannelEvent queued) {
+    if (_quietNanos <= 0) {
+      _deliver(queued);
+      return;
+    }
+
+    ChannelEvent pending = _pending.get(queued);
+    if (pending == null)
+      _pending.put(queued, queued);
+    else
+      pending.merge(queued);
+  }
+
+  protected void _flushPending(long now) {
+    Iterator<ChannelEvent> pending = _pending.keySet().iterator();
+    while (pending.hasNext()) {
+      ChannelEvent event = pending.next();
+      if (now - event.lastSeen >= _quietNanos) {
+        pending.remove();
+        _deliver(event);
+      }
+    }
+  }
+
+  protected long _nextDue() {
+    long due = Long.MAX_VALUE;
+    for (ChannelEvent event : _pending.keySet())
+      due = Math.min(due, event.lastSeen + _quietNanos);
+    return due;
+  }
+
+  /**
+   * When, on System.nanoTime(), the engine should wake for the next timer.  Timers are taken to run on the wall
+   * clock in milliseconds, as they do unless setClock() says otherwise.
+   */
+  protected long _nextTimerDue() {
+    if (_timerService == null || _timerService.getPendingCount() == 0)
+      return Long.MAX_VALUE;
+    long wait = _timerService.getNextWakeup() - _timerService.getClock().now();
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, wait));
+  }
+
+  protected void _deliver(ChannelEvent queued) {
+    LogTail tail = _tails.get(queued.channelName);
+    if (tail != null) {
+      _tail(tail, queued);
+      return;
+    }
+
+    _alphaMemory.returnValue(queued.channelName, queued.getEvent());
+    //  Run activations per event so that rules see every event, not just the last one per channel...
+    executeActivations();
+  }
+
+  protected void _tail(LogTail tail, ChannelEvent queued) {
+    Object file = queued.event.context();
+    try {
+      //  After an overflow we can't know which files changed, so look at them all...
+      if (queued.event.kind() == StandardWatchEventKinds.OVERFLOW)
+        tail.tailAll(this, queued.channelName);
+      else if (file instanceof Path && tail.matches((Path) file))
+        tail.tail(this, queued.channelName, (Path) file);
+    } catch (NoSuchFileException e) {
+      //  Gone before we got to it
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't tail " + file + " in " + tail.getDirectory(), e);
+    }
+  }
+
+  protected void _resumeTails() {
+    if (_tailsResumed)
+      return;
+    _tailsResumed = true;
+    for (Map.Entry<String, LogTail> tail : _tails.entrySet())
+      try {
+        tail.getValue().tailAll(this, tail.getKey());
+      } catch (IOException e) {
+        throw new IllegalStateException("Can't tail " + tail.getValue().getDirectory(), e);
+      }
+  }
+
+  protected void _checkpointTails() {
+    for (LogTail tail : _tails.values())
+      try {
+        tail.checkpoint();
+      } catch (IOException e) {
+        //  The next start re-delivers from the previous checkpoint, which at-least-once allows
+      }
+  }
+
+  protected void _enqueue(String channelName, WatchKey wkey) {
+    WatchedDirectory directory = _directories.get(wkey);
+    for (WatchEvent<?> event : wkey.pollEvents()) {
+      if (directory == null)
+        _queue.add(new ChannelEvent(channelName, event));
+      else
+        directory.enqueue(event);
+    }
+
+    //  A key that won't reset has been cancelled or its directory is gone; the other sources carry on regardless...
+    if (!wkey.reset())
+      _directories.remove(wkey);
+  }
+
+  protected void _startWatchers() {
+    for (final Map.Entry<String, WatchService> source : _eventSources.entrySet()) {
+      Thread watcher = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (!_done)
+              _enqueue(source.getKey(), source.getValue().take());
+          } catch (InterruptedException e) {
+            //  stopped
+          } catch (ClosedWatchServiceException e) {
+            //  nothing more will come from this source
+          }
+        }
+      }, "pachinko-watcher-" + source.getKey());
+      watcher.setDaemon(true);
+      _watchers.add(watcher);
+      watcher.start();
+    }
+  }
+
+  protected void _stopWatchers() {
+    for (Thread watcher : _watchers)
+      watcher.interrupt();
+    for (Thread watcher : _watchers)
+      try {
+        watcher.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    _watchers.clear();
+  }
+
+  /**
+   * One directory tree registered with one WatchService.
+   */
+  protected class WatchedTree {
+    protected String _channelName = null;
+    protected WatchService _watcher = null;
+    protected Path _root = null;
+    protected boolean _recursive = false;
+    protected Set<WatchEvent.Kind<?>> _eventKinds = null;
+    protected WatchEvent.Kind<?>[] _registeredKinds = null;
+
+    public WatchedTree(String channelName, WatchService watcher, Path root, boolean recursive, WatchEvent.Kind<?>... eventKinds) {
+      _channelName = channelName;
+      _watcher = watcher;
+      _root = root;
+      _recursive = recursive;
+      _eventKinds = new HashSet<WatchEvent.Kind<?>>(Arrays.asList(eventKinds));
+
+      //  Following new subdirectories needs their creation events, whether or not the rules asked for them...
+      Set<WatchEvent.Kind<?>> registered = new HashSet<WatchEvent.Kind<?>>(_eventKinds);
+      if (recursive)
+        registered.add(StandardWatchEventKinds.ENTRY_CREATE);
+      _registeredKinds = registered.toArray(new WatchEvent.Kind<?>[registered.size()]);
+    }
+
+    public void register(Path directory) throws IOException {
+      _directories.put(directory.register(_watcher, _registeredKinds), new WatchedDirectory(this, directory));
+    }
+
+    public void registerAll(Path directory) throws IOException {
+      registerAll(directory, false);
+    }
+
+    /**
+     * Register <directory> and every directory under it.  With <announce> set, also report an ENTRY_CREATE for
+     * everything found under it, if the rules asked for creations: it was created before its directory was
+     * registered, so it will never have an event of its own.  Something created just as its directory is
+     * registered may be reported twice.
+     */
+    public void registerAll(final Path directory, boolean announce) throws IOException {
+      final boolean announceCreations = announce && _eventKinds.contains(StandardWatchEventKinds.ENTRY_CREATE);
+      Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+          register(dir);
+          if (announceCreations && !dir.equals(directory))
+            _announceCreation(dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (announceCreations)
+            _announceCreation(file);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+
+    protected void _announceCreation(Path path) {
+      _queue.add(new ChannelEvent(_channelName, new PathEvent(StandardWatchEventKinds.ENTRY_CREATE, 1, _root.relativize(path))));
+    }
+  }
+
+  protected class WatchedDirectory {
+    protected WatchedTree _tree = null;
+    protected Path _directory = null;
+
+    public WatchedDirectory(WatchedTree tree, Path directory) {
+      _tree = tree;
+      _directory = directory;
+    }
+
+    public void enqueue(WatchEvent<?> event) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        _queue.add(new ChannelEvent(_tree._channelName, event));
+        return;
+      }
+
+      Path path = _directory.resolve((Path) event.context());
+      if (_tree._eventKinds.contains(event.kind()))
+        _queue.add(new ChannelEvent(_tree._channelName, new PathEvent(event.kind(), event.count(), _tree._root.relativize(path))));
+
+      if (_tree._recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+              && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        try {
+          //  Anything created in it before we got here has no event of its own, so walk it all and announce it...
+          _tree.registerAll(path, true);
+        } catch (IOException e) {
+          //  Already gone again; nothing to follow
+        }
+      }
+    }
+  }
+
+  /**
+   * WatchEvent whose context is relative to the watched root, and whose count covers every event merged into it.
+   */
+  public static class PathEvent implements WatchEvent<Path> {
+    protected WatchEvent.Kind<Path> _kind = null;
+    protected int _count = 0;
+    protected Path _context = null;
+
+    public PathEvent(WatchEvent.Kind<?> kind, int count, Path context) {
+      _kind = (WatchEvent.Kind<Path>) kind;
+      _count = count;
+      _context = context;
+    }
+
+    @Override
+    public WatchEvent.Kind<Path> kind() {
+      return _kind;
+    }
+
+    @Override
+    public int count() {
+      return _count;
+    }
+
+    @Override
+    public Path context() {
+      return _context;
+    }
+
+    @Override
+    public String toString() {
+      return _kind + ":" + _context + "(" + _count + ")";
+    }
+  }
+
+  /**
+   * An event on its way to a channel.  Equal, for coalescing, when channel, kind and context match.
+   */
+  protected static class ChannelEvent {
+    public final String channelName;
+    public final WatchEvent<?> event;
+    public long lastSeen = 0;
+    public int count = 0;
+
+    public ChannelEvent(String channelName, WatchEvent<?> event) {
+      this.channelName = channelName;
+      this.event = event;
+      this.lastSeen = System.nanoTime();
+      this.count = event.count();
+    }
+
+    public void merge(ChannelEvent later) {
+      lastSeen = later.lastSeen;
+      count = count + later.count;
+    }
+
+    public WatchEvent<?> getEvent() {
+      if (count == event.count())
+        return event;
+      return new PathEvent(event.kind(), count, event.context() instanceof Path ? (Path) event.context() : null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ChannelEvent))
+        return false;
+      ChannelEvent other = (ChannelEvent) o;
+      return channelName.equals(other.channelName) && event.kind() == other.event.kind()
+              && (event.context() == null ? other.event.context() == null : event.context().equals(other.event.context()));
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = (channelName.hashCode() * 31) + event.kind().hashCode();
+      return (hash * 31) + (event.context() == null ? 0 : event.context().hashCode());
+    }
   }
 }
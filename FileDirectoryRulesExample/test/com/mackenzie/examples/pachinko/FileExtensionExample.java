@@ -30,8 +30,14 @@
 
 package com.mackenzie.examples.pachinko;
 
+import com.mackenzieresearch.examples.pachinko.LogLine;
+import com.mackenzieresearch.examples.pachinko.LogTail;
+import com.mackenzieresearch.examples.pachinko.WatchServiceEventSource;
 import com.mackenzieresearch.examples.pachinko.WatchingRuleSystem;
+import com.mackenzieresearch.pachinko.CARuleSystem;
 import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.EventSourceDriver;
+import com.mackenzieresearch.pachinko.ICARule;
 import com.mackenzieresearch.pachinko.Variable;
 import com.mackenzieresearch.roux.kernel.IMonad;
 import com.mackenzieresearch.roux.kernel.IMonadex;
@@ -42,6 +48,8 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static util.RuntimeAssertion.assertNotNull;
 import static util.RuntimeAssertion.assertTrue;
@@ -148,4 +156,235 @@ public class FileExtensionExample {
     assertNotNull(result);
     assertTrue("test.log".equals(result));
   }
+
+  //------------------------------------------------------------------------------------------------------------
+  //
+  //  Two directories watched at once, each by its own WatchService.  The engine should sit parked while
+  //  nothing changes, and losing one of the directories mustn't stop events from the other.
+  //
+  @Test
+  public void MultipleDirectoryMonitoringTest() throws IOException, InterruptedException {
+    Path logDir = Files.createTempDirectory("logs");
+    Path dataDir = Files.createTempDirectory("data");
+    WatchingRuleSystem ruleSystem = new WatchingRuleSystem(new FileExtRule("logfile", ".log"), new FileExtRule("datafile", ".csv"))
+            .addEventSource("logfile", logDir.toString(), StandardWatchEventKinds.ENTRY_CREATE)
+            .addEventSource("datafile", dataDir.toString(), StandardWatchEventKinds.ENTRY_CREATE);
+    ruleSystem.start();
+
+    Files.createFile(logDir.resolve("first.log"));
+    assertTrue("first.log".equals(_awaitResult(ruleSystem, "first.log")));
+
+    //  Nothing is changing, so the engine should be parked on its queue rather than spinning...
+    Thread.sleep(100);
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+      if (thread.getName().equals("pachinko-watching-engine"))
+        assertTrue(thread.getState() == Thread.State.WAITING);
+
+    //  The log directory going away invalidates its key, but the data directory is still watched...
+    Files.delete(logDir.resolve("first.log"));
+    Files.delete(logDir);
+    Files.createFile(dataDir.resolve("second.csv"));
+    assertTrue("second.csv".equals(_awaitResult(ruleSystem, "second.csv")));
+
+    ruleSystem.stop();
+    Files.delete(dataDir.resolve("second.csv"));
+    Files.delete(dataDir);
+  }
+
+  /**
+   * Records every event delivered on its channel, on the engine thread.
+   */
+  public class RecordingRule extends DefaultCARule<WatchEvent> {
+    List<WatchEvent> _events = new CopyOnWriteArrayList<WatchEvent>();
+    int _event = -1;
+
+    public RecordingRule(String channelName) {
+      super();
+      _event = addVariable(new Variable<WatchEvent>(channelName, null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      _events.add((WatchEvent) context.bindValue(_event));
+    }
+
+    public int deliveries(WatchEvent.Kind<?> kind, String path) {
+      int deliveries = 0;
+      for (WatchEvent event : _events)
+        if (event.kind() == kind && event.context().toString().equals(path))
+          deliveries = deliveries + 1;
+      return deliveries;
+    }
+  }
+
+  //------------------------------------------------------------------------------------------------------------
+  //
+  //  A recursively watched tree picks up directories created after it started, and a burst of writes to one
+  //  file within the quiet period reaches the rules as a single merged ENTRY_MODIFY.
+  //
+  @Test
+  public void RecursiveCoalescingMonitoringTest() throws IOException, InterruptedException {
+    Path root = Files.createTempDirectory("tree");
+    RecordingRule rule = new RecordingRule("tree");
+    WatchingRuleSystem ruleSystem = new WatchingRuleSystem(rule)
+            .addEventSource("tree", root.toString(), true, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY)
+            .setQuietPeriod(200);
+    ruleSystem.start();
+
+    //  No pause for the new directories to be registered: what's created in them first is announced by the walk...
+    Path nested = Files.createDirectories(root.resolve("a").resolve("b"));
+    Path file = nested.resolve("x.log");
+    for (int i = 0; i < 50; i++) {
+      Files.write(file, ("line " + i + "\n").getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      Thread.sleep(2);
+    }
+
+    String relative = root.relativize(file).toString();
+    long startTime = System.currentTimeMillis();
+    while ((System.currentTimeMillis() - startTime) < 10000 && rule.deliveries(StandardWatchEventKinds.ENTRY_MODIFY, relative) == 0)
+      Thread.sleep(10);
+    Thread.sleep(400);
+    ruleSystem.stop();
+
+    assertTrue(rule.deliveries(StandardWatchEventKinds.ENTRY_CREATE, "a") == 1);
+    assertTrue(rule.deliveries(StandardWatchEventKinds.ENTRY_CREATE, root.relativize(nested).toString()) == 1);
+    assertTrue(rule.deliveries(StandardWatchEventKinds.ENTRY_CREATE, relative) == 1);
+    assertTrue(rule.deliveries(StandardWatchEventKinds.ENTRY_MODIFY, relative) == 1);
+
+    Files.delete(file);
+    Files.delete(nested);
+    Files.delete(nested.getParent());
+    Files.delete(root);
+  }
+
+  /**
+   * Counts the lines on its channel that mention ERROR, keeping copies of them.  Looks at each LogLine in place,
+   * so only the lines it keeps become Strings.
+   */
+  public class ErrorLineRule extends DefaultCARule<CharSequence> {
+    List<String> _errors = new CopyOnWriteArrayList<String>();
+    int _lines = 0;
+    int _line = -1;
+
+    public ErrorLineRule(String channelName) {
+      super();
+      _line = addVariable(new Variable<CharSequence>(channelName, null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      _lines = _lines + 1;
+      return ((LogLine) context.bindValue(_line)).contains("ERROR");
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      _errors.add(context.bindValue(_line).toString());
+    }
+  }
+
+  //------------------------------------------------------------------------------------------------------------
+  //
+  //  Lines appended to a log reach the rules as they're completed, a partial line waits for its end, and a
+  //  second tail over the same checkpoint carries on where the first left off.
+  //
+  @Test
+  public void LogTailTest() throws IOException {
+    Path logDir = Files.createTempDirectory("tail");
+    Path checkpoint = logDir.resolve("tail.checkpoint");
+    Path log = logDir.resolve("app.log");
+    try {
+      Files.write(logDir.resolve("ignored.txt"), "ERROR not a log\n".getBytes());
+      Files.write(log, "INFO starting\nERROR disk full\r\nINFO sta".getBytes());
+
+      ErrorLineRule rule = new ErrorLineRule("lines");
+      CARuleSystem<CharSequence> ruleSystem = new CARuleSystem<CharSequence>(rule);
+      LogTail tail = new LogTail(logDir, "*.log", checkpoint);
+      assertTrue(tail.tailAll(ruleSystem, "lines") == 2);
+      assertTrue(rule._lines == 2 && rule._errors.size() == 1 && "ERROR disk full".equals(rule._errors.get(0)));
+      assertTrue(tail.getOffset(log.getFileName()) == "INFO starting\nERROR disk full\r\n".length());
+
+      Files.write(log, "rted\nERROR again\n".getBytes(), StandardOpenOption.APPEND);
+      assertTrue(tail.tail(ruleSystem, "lines", log.getFileName()) == 2);
+      assertTrue(rule._errors.size() == 2 && "ERROR again".equals(rule._errors.get(1)));
+
+      //  Checkpoints are rate limited, so nothing is on disk yet until a clean shutdown writes it...
+      assertTrue(!Files.exists(checkpoint));
+      tail.checkpoint();
+
+      //  ...and a restart resumes from the checkpoint rather than the top of the file...
+      Files.write(log, "ERROR after restart\n".getBytes(), StandardOpenOption.APPEND);
+      ErrorLineRule restarted = new ErrorLineRule("lines");
+      CARuleSystem<CharSequence> restartedSystem = new CARuleSystem<CharSequence>(restarted);
+      LogTail resumed = new LogTail(logDir, "*.log", checkpoint).checkpointInterval(0);
+      assertTrue(resumed.tailAll(restartedSystem, "lines") == 1);
+      assertTrue(restarted._errors.size() == 1 && "ERROR after restart".equals(restarted._errors.get(0)));
+
+      //  ...and a rotated file starts over...
+      Files.write(log, "ERROR rotated\n".getBytes());
+      assertTrue(resumed.tailAll(restartedSystem, "lines") == 1);
+      assertTrue("ERROR rotated".equals(restarted._errors.get(1)));
+
+      //  Tailing thru a WatchingRuleSystem catches up on start, then follows the file as it grows...
+      ErrorLineRule watched = new ErrorLineRule("lines");
+      //  (WatchingRuleSystem is typed for WatchEvents; a tail channel carries LogLines instead.)
+      WatchingRuleSystem watching = new WatchingRuleSystem((ICARule) watched)
+              .addTailSource("lines", logDir.toString(), "*.log", checkpoint.toString());
+      Files.write(log, "ERROR while down\n".getBytes(), StandardOpenOption.APPEND);
+      watching.start();
+      Files.write(log, "ERROR while up\n".getBytes(), StandardOpenOption.APPEND);
+      long startTime = System.currentTimeMillis();
+      while ((System.currentTimeMillis() - startTime) < 10000 && watched._errors.size() < 2)
+        Thread.yield();
+      watching.stop();
+      assertTrue(watched._errors.size() == 2 && "ERROR while up".equals(watched._errors.get(1)));
+
+      //  ...and checkpoints when it stops:
+      assertTrue(new LogTail(logDir, "*.log", checkpoint).getOffset(log.getFileName()) == Files.size(log));
+    } finally {
+      for (Path file : new Path[] { log, logDir.resolve("ignored.txt"), checkpoint, checkpoint.resolveSibling("tail.checkpoint.tmp"), logDir })
+        Files.deleteIfExists(file);
+    }
+  }
+
+  //------------------------------------------------------------------------------------------------------------
+  //
+  //  The same file-extension rule driven thru the generic event-source SPI rather than WatchingRuleSystem.
+  //
+  @Test
+  public void WatchServiceEventSourceTest() throws IOException, InterruptedException {
+    Path logDir = Files.createTempDirectory("source");
+    WatchService watcher = FileSystems.getDefault().newWatchService();
+    logDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+    CARuleSystem<WatchEvent> ruleSystem = new CARuleSystem<WatchEvent>(new FileExtRule("logfile", ".log"));
+    EventSourceDriver<WatchEvent> driver = new EventSourceDriver<WatchEvent>(ruleSystem, 64)
+            .addSource(new WatchServiceEventSource("logfile", watcher));
+    driver.start();
+
+    Files.createFile(logDir.resolve("driven.log"));
+    long startTime = System.currentTimeMillis();
+    while ((System.currentTimeMillis() - startTime) < 10000 && ruleSystem.freeVariables().bindValue("RESULT") == null)
+      Thread.sleep(10);
+    driver.stop();
+    watcher.close();
+    assertTrue("driven.log".equals(ruleSystem.freeVariables().bindValue("RESULT")));
+
+    Files.delete(logDir.resolve("driven.log"));
+    Files.delete(logDir);
+  }
+
+  protected String _awaitResult(WatchingRuleSystem ruleSystem, String expected) throws InterruptedException {
+    long startTime = System.currentTimeMillis();
+    while ((System.currentTimeMillis() - startTime) < 60000) {
+      if (expected.equals(ruleSystem.freeVariables().bindValue("RESULT")))
+        break;
+      Thread.sleep(10);
+    }
+    return (String) ruleSystem.freeVariables().bindValue("RESULT");
+  }
 }
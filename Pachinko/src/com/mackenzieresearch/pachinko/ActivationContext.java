@@ -36,10 +36,13 @@ import com.mackenzieresearch.roux.kernel.*;
 import java.util.ArrayList;
 import java.util.List;
 
+import static util.RuntimeAssertion.assertTrue;
+
 public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>> {
   protected R _rule = null;
   protected int _variableRefCount = 0;
   protected int _pkVariableCount = 0;
+  protected boolean _queued = false;
   protected List<MeasureVariable> _vars = new ArrayList<MeasureVariable>();
 
 
@@ -56,6 +59,43 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
     return _variableRefCount <= 0;
   }
 
+  /**
+   * How many more variables must be seen before this context can first activate.
+   */
+  public int getVariableRefCount() {
+    return _variableRefCount;
+  }
+
+  /**
+   * Put back activation state saved by a RuleSystemSnapshot: the ref count and, for each variable in the order
+   * of getMeasureVariables(), whether it has been seen.
+   */
+  public void restoreActivationState(int variableRefCount, boolean[] activated) {
+    assertTrue(activated.length == _vars.size());
+    _variableRefCount = variableRefCount;
+    for (int i = 0; i < activated.length; i++)
+      _vars.get(i)._activated = activated[i];
+  }
+
+  public boolean isQueued() {
+    return _queued;
+  }
+
+  /**
+   * Mark this context as sitting on the activation queue.  Returns false if it already is, in which case
+   * it must not be queued again: the pending evaluation will see every change made in the meantime.
+   */
+  public boolean enqueue() {
+    if (_queued)
+      return false;
+    _queued = true;
+    return true;
+  }
+
+  public void dequeue() {
+    _queued = false;
+  }
+
   @Override
   public void setMonad(IMonad<P> monad) {
     //  First update the PK's to point to the new monad...
@@ -67,9 +107,13 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
     _setMonad(monad);
   }
 
+  /**
+   * Bind <monad> for the rule to read and write without its changes ever activating the rule, or counting toward
+   * activating it.
+   */
   public void defineOptionalVariableBinding(IMonad<P> monad) {
     if (_addMonad(monad)) {
-      MeasureVariable pkvar = new MeasureVariable(monad);
+      MeasureVariable pkvar = new MeasureVariable(monad, true);
       _vars.add(pkvar);
     }
   }
@@ -123,6 +167,14 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
     }
   }
 
+  public List<PKVariable> getKeyedPKVariables() {
+    List<PKVariable> keyed = new ArrayList<PKVariable>();
+    for (MeasureVariable var : _vars)
+      if (var instanceof PKVariable && var.isKeyed())
+        keyed.add((PKVariable) var);
+    return keyed;
+  }
+
   public void resetKeyFieldRefCount() {
     _variableRefCount = _monadList.size();
     for (MeasureVariable var : _vars)
@@ -137,6 +189,22 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
     }
   }
 
+  /**
+   * Compiled-dispatch counterpart of changed().  Records the change and reports whether this context
+   * should now be queued, instead of notifying the activator thru the listener chain.
+   */
+  public boolean activate(int index) {
+    if (isActivatable()) {
+      _recordChange(index);
+      return enqueue();
+    } else
+      return false;
+  }
+
+  public List<MeasureVariable> getMeasureVariables() {
+    return _vars;
+  }
+
   public class PKVariable<M extends IMonad<?>> extends MeasureVariable<M> {
 
     public PKVariable(M monad) {
@@ -147,21 +215,19 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
       super(monad, activationValue);
     }
 
+    /**
+     * Activate this PKVariable without checking its activation value.  Used by the PKActivationIndex,
+     * which has already selected this PKVariable by looking up the monad's current value.
+     */
+    public void activate(M ref, IMonadex<? extends IReadOnlyMonad> context) {
+      if (trigger())
+        _notifyChanged(ref, context);
+    }
+
     @Override
-    public void changed(M ref, IMonadex<? extends IReadOnlyMonad> context) {
-      //  Only consider activating if we are not already activated...
+    public boolean trigger() {
+      //  Only count down toward activation if we are not already activated...
       if (!_activated) {
-
-        //  If this PKVariable has an activation value associated with it, verify
-        //  that the current value of the variable satisfies the activation value...
-        if (_useActivationValue) {
-          Object value = ref.bindValue(context);
-          if (_activationValue == null && !(value == null))
-            return;
-          else if (!value.equals(_activationValue))
-            return;
-        }
-
         //  Don't activate again until the ActivationContext decides all criteria have been met:
         _activated = true;
 
@@ -169,25 +235,34 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
         _variableRefCount = _variableRefCount - 1;
       }
 
-      if (_activated) {
-        //  Share the good news with whoever is listening.  (Likely only the ActivationContext)...
-        for (IListener listener : _changeListeners)
-          listener.changed(ref, context);
-      }
+      //  Any change to a PKVariable is worth telling the ActivationContext about...
+      return true;
     }
   }
 
   public class MeasureVariable<M extends IMonad<?>> implements IListener<M>, IListenable {
     protected M _monad = null;
+    protected int _index = -1;
     protected boolean _activated = false;
     protected List<IListener> _changeListeners = new ArrayList<IListener>();
     protected List<IListener> _reversionListeners = new ArrayList<IListener>();
     protected Object _activationValue = null;
     protected boolean _useActivationValue = false;
+    protected boolean _optional = false;
 
     public MeasureVariable(M monad) {
+      this(monad, false);
+    }
+
+    /**
+     * An optional variable doesn't listen to its monad at all, so its changes can't count toward activation.
+     */
+    public MeasureVariable(M monad, boolean optional) {
       _monad = monad;
-      monad.addChangeListener(this);
+      _index = ActivationContext.this.getIndex(monad.getName());
+      _optional = optional;
+      if (!optional)
+        monad.addChangeListener(this);
     }
 
     public MeasureVariable(M monad, Object activationValue) {
@@ -196,32 +271,66 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
       _useActivationValue = true;
     }
 
+    public M getMonad() {
+      return _monad;
+    }
+
+    /**
+     * The offset of this variable's monad within the ActivationContext.
+     */
+    public int getIndex() {
+      return _index;
+    }
+
+    public ActivationContext<P, R> getActivationContext() {
+      return ActivationContext.this;
+    }
+
+    public boolean isKeyed() {
+      return _useActivationValue;
+    }
+
+    /**
+     * Optional variables never activate anything.
+     */
+    public boolean isOptional() {
+      return _optional;
+    }
+
+    public Object getActivationValue() {
+      return _activationValue;
+    }
+
+    public boolean matches(Object value) {
+      if (_activationValue == null)
+        return value == null;
+      else
+        return _activationValue.equals(value);
+    }
+
     public boolean setMonad(M monad) {
       if (_monad.getName().equals(monad.getName())) {
         _monad = monad;
-        monad.addChangeListener(this);
+        if (!_optional)
+          monad.addChangeListener(this);
         return true;
       } else
         return false;
     }
 
+    public boolean isActivated() {
+      return _activated;
+    }
+
     public void deactivate() {
       _activated = false;
     }
 
-    @Override
-    public void changed(M ref, IMonadex<? extends IReadOnlyMonad> context) {
-
-      //  If this variable has an activation value associated with it, verify
-      //  that the current value of the variable satisfies the activation value...
-      if (_useActivationValue) {
-        Object value = ref.bindValue(context);
-        if (_activationValue == null && !(value == null))
-          return;
-        else if (!value.equals(_activationValue))
-          return;
-      }
-
+    /**
+     * Count this variable toward activation of its ActivationContext, without regard to its activation
+     * value.  Returns true if the ActivationContext should be told about the change.
+     */
+    public boolean trigger() {
       //  Only consider activating if we are not already activated...
       if (!_activated) {
         //  Don't activate again until the ActivationContext decides all criteria have been met:
@@ -229,18 +338,36 @@ public class ActivationContext<P, R extends IBehavior> extends Monadex<IMonad<P>
 
         //  Let the ActivationContext know it is one variable closer to activating:
         _variableRefCount = _variableRefCount - 1;
-
-        //  Share the good news with whoever is listening.  (Likely only the ActivationContext)...
-        for (IListener listener : _changeListeners)
-          listener.changed(ref, context);
-        return;
+        return true;
       }
 
       //  If there no PKVariables, then any change to a MeasureVariable should trigger
       //  an activation.  If there are PKVariables, then it's for them to decide...
-      if (_pkVariableCount <= 0)
-        for (IListener listener : _changeListeners)
-          listener.changed(ref, context);
+      return _pkVariableCount <= 0;
+    }
+
+    /**
+     * Decide whether a change to the monad should be passed on to the ActivationContext.
+     */
+    public boolean signal(M ref, IMonadex<? extends IReadOnlyMonad> context) {
+      //  If this variable has an activation value associated with it, verify
+      //  that the current value of the variable satisfies the activation value...
+      if (_useActivationValue && !matches(ref.bindValue(context)))
+        return false;
+
+      return trigger();
+    }
+
+    @Override
+    public void changed(M ref, IMonadex<? extends IReadOnlyMonad> context) {
+      if (signal(ref, context))
+        _notifyChanged(ref, context);
+    }
+
+    protected void _notifyChanged(M ref, IMonadex<? extends IReadOnlyMonad> context) {
+      //  Share the good news with whoever is listening.  (Likely only the ActivationContext)...
+      for (IListener listener : _changeListeners)
+        listener.changed(ref, context);
     }
 
     @Override
@@ -0,0 +1,110 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IBehavior;
+import com.mackenzieresearch.roux.kernel.IListener;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Compiled activation dispatch for a single alpha monad.  Replaces the MeasureVariable listeners the
+ * rules registered on the monad with one flat table of (ActivationContext, MeasureVariable) pairs, so a
+ * change counts down each affected context and enqueues the activatable ones in a single loop instead
+ * of going MeasureVariable -> ActivationContext -> Monadex -> activator for every rule.
+ *
+ * @author corwyn
+ */
+public class ActivationDispatchTable<P, R extends IBehavior> implements IListener<IMonad<P>> {
+  protected IMonad<P> _monad = null;
+  protected ArrayDeque<ActivationContext<P, R>> _activationQueue = null;
+  protected ActivationContext<P, R>[] _contexts = new ActivationContext[4];
+  protected ActivationContext.MeasureVariable[] _variables = new ActivationContext.MeasureVariable[4];
+  protected int _size = 0;
+
+  public ActivationDispatchTable(IMonad<P> monad, ArrayDeque<ActivationContext<P, R>> activationQueue) {
+    _monad = monad;
+    _activationQueue = activationQueue;
+    monad.addChangeListener(this);
+  }
+
+  public IMonad<P> getMonad() {
+    return _monad;
+  }
+
+  public void addVariable(ActivationContext<P, R> betaMemory, ActivationContext.MeasureVariable variable) {
+    //  The table now dispatches to this variable so it must no longer listen to the monad directly...
+    _monad.getChangeListeners().removeAll(Collections.singleton(variable));
+
+    if (_size == _contexts.length) {
+      _contexts = Arrays.copyOf(_contexts, _size * 2);
+      _variables = Arrays.copyOf(_variables, _size * 2);
+    }
+    _contexts[_size] = betaMemory;
+    _variables[_size] = variable;
+    _size = _size + 1;
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public void detach() {
+    _monad.getChangeListeners().removeAll(Collections.singleton(this));
+  }
+
+  @Override
+  public void changed(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+    for (int i = 0; i < _size; i++) {
+      ActivationContext<P, R> betaMemory = _contexts[i];
+      ActivationContext.MeasureVariable variable = _variables[i];
+      if (variable.signal(ref, context) && betaMemory.activate(variable.getIndex()))
+        _activationQueue.add(betaMemory);
+    }
+  }
+
+  @Override
+  public void added(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+  }
+
+  @Override
+  public void removed(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+  }
+
+  @Override
+  public void reverted(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+  }
+}
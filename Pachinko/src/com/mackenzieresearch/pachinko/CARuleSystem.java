@@ -38,11 +38,36 @@ public class CARuleSystem<P> extends RuleSystemCore<P, ICARule<P>> {
   }
 
 
+  /**
+   * Evaluate every queued activation.  If a rule throws, the rest of the cycle is abandoned, leaving the rule
+   * system ready for the next event, and the exception propagates.
+   */
   public void executeActivations() {
-    while (!_activationQueue.isEmpty()) {
-      ActivationContext<P, ICARule<P>> betaMemory = _activationQueue.remove();
-//      betaMemory.resetKeyFieldRefCount();
-      betaMemory.getRule().evaluate(betaMemory);
+    ActivationContext<P, ICARule<P>> betaMemory = null;
+    try {
+      while (!_activationQueue.isEmpty()) {
+        betaMemory = _nextActivation();
+//        betaMemory.resetKeyFieldRefCount();
+        betaMemory.getRule().evaluate(betaMemory);
+        betaMemory.resetChanges();
+      }
+    } catch (RuntimeException e) {
+      if (betaMemory != null)
+        betaMemory.resetChanges();
+      clearActivationQueue();
+      throw e;
+    } finally {
+      _alphaMemory.resetChanges();
     }
   }
+
+  /**
+   * Run the rules each expired timer activates before delivering the next, so that timers expiring together on
+   * one channel aren't coalesced into a single change.
+   */
+  @Override
+  protected void _deliverTimer(TimerService.Timer timer) {
+    super._deliverTimer(timer);
+    executeActivations();
+  }
 }
@@ -67,18 +67,20 @@ public class CARuleSystemExpression<P, V> extends RuleSystemCore<P, ICARule<P>>
   @Override
   public V evaluate(IMonadex context) {
     if (_eventSrc != null) {
-      _inboundEventAlphaMemory.returnValue(_eventSrc.evaluate(context), _alphaMemory);
+      _inboundEventAlphaMemory.returnValue((P) _eventSrc.evaluate(context), _alphaMemory);
     } else {
       _inboundEventAlphaMemory.returnValue((P) context, _alphaMemory);
     }
 
     while (!_activationQueue.isEmpty()) {
-      ActivationContext<P, ICARule<P>> betaMemory = _activationQueue.remove();
+      ActivationContext<P, ICARule<P>> betaMemory = _nextActivation();
 //      betaMemory.resetKeyFieldRefCount();
       betaMemory.getRule().evaluate(betaMemory);
+      betaMemory.resetChanges();
     }
+    super._alphaMemory.resetChanges();
 
-    return _returnValue.bindValue(context);
+    return (V) _returnValue.bindValue(context);
   }
 
 }
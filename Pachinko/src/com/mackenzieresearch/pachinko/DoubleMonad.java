@@ -0,0 +1,100 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.context.Monad;
+import com.mackenzieresearch.roux.kernel.IDoubleMonad;
+import com.mackenzieresearch.roux.kernel.IListener;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+
+import static util.RuntimeAssertion.assertParam;
+
+/**
+ * A Variable holding an unboxed double.  Rules that read and write it thru IMonadex.bindDouble and
+ * IReadWriteMonadex.returnDouble never allocate a Double; change listeners are notified exactly as for
+ * any other Variable.
+ */
+public class DoubleMonad extends Monad<Double> implements IDoubleMonad, ISnapshotable {
+  protected double _doubleValue = 0;
+
+  public DoubleMonad(String name) {
+    super(name);
+  }
+
+  public DoubleMonad(String name, double initialValue) {
+    super(name);
+    _doubleValue = initialValue;
+  }
+
+  @Override
+  public double bindDouble(IMonadex<? extends IReadOnlyMonad> context) {
+    return _doubleValue;
+  }
+
+  @Override
+  public void returnDouble(double value, IMonadex<? extends IMonad> context) {
+    _doubleValue = value;
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+  }
+
+  @Override
+  public Double bindValue(IMonadex<? extends IReadOnlyMonad> context) {
+    return _doubleValue;
+  }
+
+  @Override
+  public void returnValue(Double value, IMonadex<? extends IMonad> context) {
+    assertParam(value, "DoubleMonad " + getName() + " holds an unboxed double and can't be set to null");
+    returnDouble(value, context);
+  }
+
+  @Override
+  public void returnObject(Object value, IMonadex<? extends IMonad> context) {
+    assertParam(value, "DoubleMonad " + getName() + " holds an unboxed double and can't be set to null");
+    returnDouble(((Number) value).doubleValue(), context);
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putDouble(_doubleValue);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    _doubleValue = in.getDouble();
+  }
+}
@@ -0,0 +1,222 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import java.nio.ByteBuffer;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Typed view of one event laid out by an EventSchema, over whatever ByteBuffer it's wrapped around: a network
+ * buffer, a mapped file, a ring.  Getters read the field straight out of the buffer and setters write it there,
+ * so one flyweight encodes or decodes any number of events without allocating.
+ *
+ * To drive rules from a buffer of events, declare the channel as a Variable<EventFlyweight> and returnRecords()
+ * into it: the same flyweight goes into the channel monad for every event, wrapped around the next one each
+ * time, and rules read the fields they need with getLong(field) and the like.  A rule must not keep the
+ * flyweight, or a CharSequence from getAscii(), past its action; copy out what it needs instead.  Likewise, a
+ * journal or snapshot of the channel needs a codec that copies the event rather than the flyweight itself.
+ *
+ * @author corwyn
+ */
+public class EventFlyweight {
+  protected EventSchema _schema = null;
+  protected ByteBuffer _buffer = null;
+  protected int _offset = 0;
+  protected AsciiField[] _asciiFields = null;
+
+  public EventFlyweight(EventSchema schema) {
+    assertNotNull(schema);
+    _schema = schema;
+    _asciiFields = new AsciiField[schema.getFieldCount()];
+    for (int i = 0; i < _asciiFields.length; i++)
+      if (schema.getType(i) == EventSchema.FieldType.ASCII)
+        _asciiFields[i] = new AsciiField(schema.getOffset(i), schema.getWidth(i));
+  }
+
+  public EventSchema getSchema() {
+    return _schema;
+  }
+
+  /**
+   * Point the flyweight at the event starting <offset> bytes into <buffer>.
+   */
+  public EventFlyweight wrap(ByteBuffer buffer, int offset) {
+    assert (offset >= 0 && offset + _schema.getLength() <= buffer.limit());
+    _buffer = buffer;
+    _offset = offset;
+    return this;
+  }
+
+  public ByteBuffer getBuffer() {
+    return _buffer;
+  }
+
+  public int getOffset() {
+    return _offset;
+  }
+
+  public int getInt(int field) {
+    assert (_schema.getType(field) == EventSchema.FieldType.INT);
+    return _buffer.getInt(_offset + _schema.getOffset(field));
+  }
+
+  public long getLong(int field) {
+    assert (_schema.getType(field) == EventSchema.FieldType.LONG);
+    return _buffer.getLong(_offset + _schema.getOffset(field));
+  }
+
+  public double getDouble(int field) {
+    assert (_schema.getType(field) == EventSchema.FieldType.DOUBLE);
+    return _buffer.getDouble(_offset + _schema.getOffset(field));
+  }
+
+  /**
+   * An ASCII field, as a CharSequence over the buffer that reads the event the flyweight is wrapped around at
+   * the time.  The same CharSequence is returned every time for a given field.
+   */
+  public CharSequence getAscii(int field) {
+    assert (_schema.getType(field) == EventSchema.FieldType.ASCII);
+    return _asciiFields[field];
+  }
+
+  /**
+   * Whether an ASCII field holds exactly <value>, compared without decoding it.
+   */
+  public boolean asciiEquals(int field, CharSequence value) {
+    AsciiField ascii = (AsciiField) getAscii(field);
+    int length = ascii.length();
+    if (length != value.length())
+      return false;
+    for (int i = 0; i < length; i++)
+      if (ascii.charAt(i) != value.charAt(i))
+        return false;
+    return true;
+  }
+
+  public EventFlyweight putInt(int field, int value) {
+    assert (_schema.getType(field) == EventSchema.FieldType.INT);
+    _buffer.putInt(_offset + _schema.getOffset(field), value);
+    return this;
+  }
+
+  public EventFlyweight putLong(int field, long value) {
+    assert (_schema.getType(field) == EventSchema.FieldType.LONG);
+    _buffer.putLong(_offset + _schema.getOffset(field), value);
+    return this;
+  }
+
+  public EventFlyweight putDouble(int field, double value) {
+    assert (_schema.getType(field) == EventSchema.FieldType.DOUBLE);
+    _buffer.putDouble(_offset + _schema.getOffset(field), value);
+    return this;
+  }
+
+  /**
+   * Write <value> into an ASCII field, zero padded.  Characters outside ASCII can't be represented.
+   */
+  public EventFlyweight putAscii(int field, CharSequence value) {
+    assert (_schema.getType(field) == EventSchema.FieldType.ASCII);
+    int width = _schema.getWidth(field);
+    int length = value.length();
+    if (length > width)
+      throw new IllegalArgumentException("\"" + value + "\" doesn't fit in " + _schema.getName(field));
+    int position = _offset + _schema.getOffset(field);
+    for (int i = 0; i < width; i++) {
+      char c = i < length ? value.charAt(i) : 0;
+      if (c >= 128)
+        throw new IllegalArgumentException("\"" + value + "\" isn't ASCII");
+      _buffer.put(position + i, (byte) c);
+    }
+    return this;
+  }
+
+  /**
+   * Return each whole event between <buffer>'s position and limit into channel <channel> of <ruleSystem>,
+   * executing activations after each, and advance the position past them.  Whatever is left is the start of an
+   * event yet to arrive in full; compact the buffer and read more.  Returns the number of events returned.
+   */
+  public int returnRecords(CARuleSystem<?> ruleSystem, int channel, ByteBuffer buffer) {
+    int length = _schema.getLength();
+    int position = buffer.position();
+    int count = 0;
+    while (buffer.limit() - position >= length) {
+      wrap(buffer, position);
+      ruleSystem.freeVariables().returnValue(channel, this);
+      ruleSystem.executeActivations();
+      position = position + length;
+      count = count + 1;
+    }
+    buffer.position(position);
+    return count;
+  }
+
+  /**
+   * Fixed-width ASCII field of whatever event the flyweight is wrapped around, up to its first zero byte.
+   */
+  protected class AsciiField implements CharSequence {
+    protected int _fieldOffset = 0;
+    protected int _width = 0;
+
+    protected AsciiField(int fieldOffset, int width) {
+      _fieldOffset = fieldOffset;
+      _width = width;
+    }
+
+    @Override
+    public int length() {
+      int position = _offset + _fieldOffset;
+      int length = 0;
+      while (length < _width && _buffer.get(position + length) != 0)
+        length = length + 1;
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (_buffer.get(_offset + _fieldOffset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      int length = length();
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++)
+        chars[i] = charAt(i);
+      return new String(chars);
+    }
+  }
+}
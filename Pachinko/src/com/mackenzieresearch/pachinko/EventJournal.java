@@ -0,0 +1,262 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Write-ahead journal of the events going into a rule system: each is appended as its alpha monad index and its
+ * value, encoded as a snapshot would encode it, to a log of memory-mapped segment files.  Nothing is forced to
+ * the device per event; commit() forces everything appended since the last one, so a whole batch costs one sync.
+ * An EventSourceDriver given a journal commits once per batch, before handing the batch's credit back.
+ *
+ * Recovery is a snapshot plus the journal since: roll() to a fresh segment, save the snapshot, and keep the
+ * segment number; after a restart, restore the snapshot and replay() from that segment.  deleteBefore() drops
+ * segments a newer snapshot has made redundant.
+ *
+ * A record is its length, the index and value, and a CRC32 of the index and value.  The pages of a mapping reach
+ * the device in no particular order, so after a crash a record's length can be there without the rest of it;
+ * replay takes a zero length, a length running past the end of the segment, or a CRC that doesn't match as the
+ * end of the log, and stops cleanly at whatever was left half-written past the last commit.  A reopened journal
+ * always starts a new segment rather than appending to one that may have been torn.
+ *
+ * @author corwyn
+ */
+public class EventJournal implements Closeable {
+  public static final int MAGIC = 0x504A524E;
+  public static final int VERSION = 2;
+  public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  protected static final String SUFFIX = ".journal";
+
+  protected Path _directory = null;
+  protected long _segmentSize = 0;
+  protected SnapshotCodecs _codecs = null;
+  protected int _monadCount = -1;
+  protected long _segment = -1;
+  protected SnapshotWriter _writer = null;
+  protected long _uncommitted = 0;
+
+  public EventJournal(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE, new SnapshotCodecs());
+  }
+
+  /**
+   * A journal in <directory> rolling to a new segment once one passes <segmentSize> bytes, encoding object values
+   * with <codecs>, which must match when replaying.
+   */
+  public EventJournal(Path directory, long segmentSize, SnapshotCodecs codecs) throws IOException {
+    assertNotNull(directory);
+    assertNotNull(codecs);
+    assertTrue(segmentSize > 0 && segmentSize <= Integer.MAX_VALUE, "Segments must be 1 byte to 2GB");
+    _directory = directory;
+    _segmentSize = segmentSize;
+    _codecs = codecs;
+    Files.createDirectories(directory);
+    List<Long> segments = segments();
+    _segment = segments.isEmpty() ? -1 : segments.get(segments.size() - 1);
+  }
+
+  /**
+   * Number of the segment being written, or of the last one written if none is open.
+   */
+  public long getSegment() {
+    return _segment;
+  }
+
+  /**
+   * Append <value> for alpha monad <index> of <ruleSystem>.  Not durable until the next commit().
+   */
+  public void append(RuleSystemCore<?, ?> ruleSystem, int index, Object value) {
+    if (_writer == null || _writer.position() >= _segmentSize)
+      _roll(ruleSystem.freeVariables().getMonads().length);
+
+    int lengthPosition = _writer.position();
+    _writer.putInt(0);
+    _writer.putInt(index);
+    _writer.putObject(value);
+    int length = _writer.position() - lengthPosition - 4;
+    _writer.putInt(_writer.checksum(lengthPosition + 4, length));
+    _writer.putInt(lengthPosition, length);
+    _uncommitted = _uncommitted + 1;
+  }
+
+  /**
+   * Append <value> and return it into alpha monad <index>.
+   */
+  public void returnValue(RuleSystemCore<?, ?> ruleSystem, int index, Object value) {
+    append(ruleSystem, index, value);
+    ruleSystem.freeVariables().returnValue(index, value);
+  }
+
+  /**
+   * Force everything appended since the last commit to the device.  Returns the number of events committed.
+   */
+  public long commit() {
+    long committed = _uncommitted;
+    if (committed > 0 && _writer != null)
+      _writer.force();
+    _uncommitted = 0;
+    return committed;
+  }
+
+  /**
+   * Commit and start a new segment, returning its number: replaying from it replays everything appended from now.
+   */
+  public long roll() {
+    commit();
+    _closeSegment();
+    _segment = _segment + 1;
+    return _segment;
+  }
+
+  /**
+   * Return every event journaled from segment <fromSegment> on into <ruleSystem>, executing activations after
+   * each, as fast as the rules will take them.  Returns the number of events replayed.
+   */
+  public long replay(CARuleSystem<?> ruleSystem, long fromSegment) throws IOException {
+    IReadWriteMonadex alphaMemory = ruleSystem.freeVariables();
+    long replayed = 0;
+    for (long segment : segments()) {
+      if (segment < fromSegment)
+        continue;
+      SnapshotReader in = new SnapshotReader(_pathOf(segment), _codecs);
+      try {
+        if (in.remaining() == 0)
+          continue;
+        if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != segment)
+          throw new IOException(_pathOf(segment) + " isn't segment " + segment + " of a version " + VERSION + " journal.");
+        if (in.getInt() != alphaMemory.getMonads().length)
+          throw new IllegalStateException("Journal is of a rule system with different monads");
+
+        while (in.remaining() >= 4) {
+          int length = in.getInt();
+          if (length <= 0 || length > in.remaining() - 4)
+            break;
+          int start = in.position();
+          if (in.checksum(start, length) != in.getInt(start + length))
+            break;
+          int index = in.getInt();
+          Object value = in.getObject();
+          if (in.position() != start + length)
+            throw new IllegalStateException("Journal record at " + (start - 4) + " of " + _pathOf(segment)
+                    + " decoded to " + (in.position() - start) + " of its " + length + " bytes");
+          in.skip(4);
+          alphaMemory.returnValue(index, value);
+          ruleSystem.executeActivations();
+          replayed = replayed + 1;
+        }
+      } finally {
+        in.close();
+      }
+    }
+    return replayed;
+  }
+
+  /**
+   * Delete every segment before <segment>.
+   */
+  public void deleteBefore(long segment) throws IOException {
+    for (long existing : segments())
+      if (existing < segment)
+        Files.delete(_pathOf(existing));
+  }
+
+  /**
+   * Numbers of the segments in the directory, in order.
+   */
+  public List<Long> segments() throws IOException {
+    List<Long> segments = new ArrayList<Long>();
+    DirectoryStream<Path> files = Files.newDirectoryStream(_directory, "*" + SUFFIX);
+    try {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+      }
+    } finally {
+      files.close();
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  @Override
+  public void close() throws IOException {
+    commit();
+    _closeSegment();
+  }
+
+  protected void _roll(int monadCount) {
+    if (_writer != null) {
+      commit();
+      _closeSegment();
+    }
+    if (_writer == null && (_segment < 0 || Files.exists(_pathOf(_segment))))
+      _segment = _segment + 1;
+
+    try {
+      _writer = new SnapshotWriter(_pathOf(_segment), _codecs, _segmentSize + 4096);
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't open journal segment " + _pathOf(_segment), e);
+    }
+    _writer.putInt(MAGIC);
+    _writer.putInt(VERSION);
+    _writer.putLong(_segment);
+    _writer.putInt(monadCount);
+  }
+
+  protected void _closeSegment() {
+    if (_writer == null)
+      return;
+    try {
+      _writer.close();
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't close journal segment " + _pathOf(_segment), e);
+    } finally {
+      _writer = null;
+    }
+  }
+
+  protected Path _pathOf(long segment) {
+    return _directory.resolve(String.format("%016d", segment) + SUFFIX);
+  }
+}
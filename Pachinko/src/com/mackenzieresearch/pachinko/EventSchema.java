@@ -0,0 +1,135 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Fixed layout of a binary event: named int, long, double and fixed-width ASCII fields, each at an offset known
+ * up front, so a field is read straight out of the bytes with no parsing.  Fields are laid out in the order
+ * they're added, with no padding; add the wide ones first to keep them aligned.  Byte order is the buffer's.
+ *
+ * Adding a field returns its index, which is what EventFlyweight's getters and setters take, as rules keep the
+ * indexes of their variables rather than looking them up by name.
+ *
+ * @author corwyn
+ */
+public class EventSchema {
+  public enum FieldType { INT, LONG, DOUBLE, ASCII }
+
+  protected List<String> _names = new ArrayList<String>();
+  protected Map<String, Integer> _indexes = new HashMap<String, Integer>();
+  protected List<FieldType> _types = new ArrayList<FieldType>();
+  protected int[] _offsets = new int[8];
+  protected int[] _widths = new int[8];
+  protected int _length = 0;
+
+  public int addInt(String name) {
+    return _addField(name, FieldType.INT, 4);
+  }
+
+  public int addLong(String name) {
+    return _addField(name, FieldType.LONG, 8);
+  }
+
+  public int addDouble(String name) {
+    return _addField(name, FieldType.DOUBLE, 8);
+  }
+
+  /**
+   * Add an ASCII field of exactly <width> bytes, padded with zeros when the value is shorter.
+   */
+  public int addAscii(String name, int width) {
+    assertTrue(width > 0, "ASCII fields must be at least a byte wide");
+    return _addField(name, FieldType.ASCII, width);
+  }
+
+  /**
+   * Index of the field called <name>, or -1 if there isn't one.
+   */
+  public int getIndex(String name) {
+    Integer index = _indexes.get(name);
+    return index == null ? -1 : index;
+  }
+
+  public String getName(int field) {
+    return _names.get(field);
+  }
+
+  public FieldType getType(int field) {
+    return _types.get(field);
+  }
+
+  public int getOffset(int field) {
+    return _offsets[field];
+  }
+
+  public int getWidth(int field) {
+    return _widths[field];
+  }
+
+  public int getFieldCount() {
+    return _names.size();
+  }
+
+  /**
+   * Length of one event, in bytes.
+   */
+  public int getLength() {
+    return _length;
+  }
+
+  protected int _addField(String name, FieldType type, int width) {
+    assertTrue(name != null && !_indexes.containsKey(name), "Field names must be unique: " + name);
+    int index = _names.size();
+    if (index == _offsets.length) {
+      int[] offsets = new int[index * 2];
+      int[] widths = new int[index * 2];
+      System.arraycopy(_offsets, 0, offsets, 0, index);
+      System.arraycopy(_widths, 0, widths, 0, index);
+      _offsets = offsets;
+      _widths = widths;
+    }
+
+    _names.add(name);
+    _indexes.put(name, index);
+    _types.add(type);
+    _offsets[index] = _length;
+    _widths[index] = width;
+    _length = _length + width;
+    return index;
+  }
+}
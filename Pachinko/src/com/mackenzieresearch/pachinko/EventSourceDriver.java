@@ -0,0 +1,325 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Drives a CARuleSystem from any number of IEventSources.  Each source gets its own bounded buffer, with credit
+ * for as many events as the buffer holds.  A single consumer thread drains the buffers in turn, a batch at a
+ * time, into the alpha memory, and hands back a batch's worth of credit once it's done, so a source that has
+ * been waiting is woken once per batch rather than once per event.  The rule system stays single-threaded.
+ *
+ * Activations are executed after each event, as IngestionRingBuffer does, so that rules see every event and not
+ * just the last one per channel.
+ *
+ * Given an EventJournal, every event is journaled before it's returned into the alpha memory, and each batch is
+ * committed before its credit goes back, so a producer that has been granted credit knows that what it emitted
+ * before is on the device.
+ *
+ * @author corwyn
+ */
+public class EventSourceDriver<P> implements Runnable {
+  protected CARuleSystem<P> _ruleSystem = null;
+  protected IReadWriteMonadex _alphaMemory = null;
+  protected IWaitStrategy _waitStrategy = null;
+  protected int _bufferCapacity = 0;
+  protected int _batchSize = 64;
+  protected List<SourceBuffer> _sources = new ArrayList<SourceBuffer>();
+  protected EventJournal _journal = null;
+  protected volatile boolean _done = false;
+  protected volatile Thread _thread = null;
+
+  public EventSourceDriver(CARuleSystem<P> ruleSystem, int bufferCapacity) {
+    this(ruleSystem, bufferCapacity, new IWaitStrategy.Parking(100000));
+  }
+
+  public EventSourceDriver(CARuleSystem<P> ruleSystem, int bufferCapacity, IWaitStrategy waitStrategy) {
+    assertNotNull(ruleSystem);
+    assertNotNull(waitStrategy);
+    assertTrue(bufferCapacity > 0 && (bufferCapacity & (bufferCapacity - 1)) == 0, "Capacity must be a power of two");
+    _ruleSystem = ruleSystem;
+    _alphaMemory = ruleSystem.freeVariables();
+    _waitStrategy = waitStrategy;
+    _bufferCapacity = bufferCapacity;
+  }
+
+  /**
+   * Maximum number of events drained from one source before moving on to the next and returning its credit.
+   */
+  public EventSourceDriver<P> batchSize(int batchSize) {
+    assertTrue(batchSize > 0);
+    _batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Journal every event to <journal>, committing once per batch.  Should be set before start().
+   */
+  public EventSourceDriver<P> journal(EventJournal journal) {
+    _journal = journal;
+    return this;
+  }
+
+  /**
+   * Add <source>, resolving its channels against the rule system.  Sources should be added before start().
+   */
+  public EventSourceDriver<P> addSource(IEventSource<P> source) {
+    assertNotNull(source);
+    String[] channelNames = source.getChannelNames();
+    int[] channels = new int[channelNames.length];
+    for (int i = 0; i < channelNames.length; i++) {
+      channels[i] = _alphaMemory.getIndex(channelNames[i]);
+      assertTrue(channels[i] >= 0, "No such channel: " + channelNames[i]);
+    }
+    _sources.add(new SourceBuffer(source, channels, _bufferCapacity));
+    return this;
+  }
+
+  /**
+   * Open every source.  Called by run(); call it directly when draining from a thread of your own.
+   */
+  public void open() {
+    for (SourceBuffer source : _sources)
+      source.open();
+  }
+
+  /**
+   * Drain up to one batch from each source.  Must only be called from the consumer thread.  Returns the number of
+   * events drained.
+   */
+  public int drain() {
+    int count = 0;
+    for (int i = 0; i < _sources.size(); i++)
+      count = count + _sources.get(i).drain(_batchSize);
+    return count;
+  }
+
+  /**
+   * Whether every source has completed and everything it emitted has been drained.
+   */
+  public boolean isComplete() {
+    for (int i = 0; i < _sources.size(); i++)
+      if (!_sources.get(i).isDrained())
+        return false;
+    return true;
+  }
+
+  /**
+   * Open the sources and drain them until they've all completed, or until stop(), advancing the rule system's
+   * timers before each batch and on each idle pass.  The sources are closed however the loop ends, so a rule or
+   * journal that throws can't leave producers waiting on credit forever.
+   */
+  @Override
+  public void run() {
+    open();
+    try {
+      int idleCount = 0;
+      while (!_done) {
+        //  Timers come due between events as well as with them...
+        _ruleSystem.advanceTimers();
+        if (drain() > 0)
+          idleCount = 0;
+        else if (isComplete())
+          break;
+        else {
+          idleCount = idleCount + 1;
+          _waitStrategy.idle(idleCount);
+        }
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Run on a thread of the driver's own.  Throws IllegalStateException if that thread is already running.
+   */
+  public void start() {
+    Thread thread = _thread;
+    if (thread != null && thread.isAlive())
+      throw new IllegalStateException("Event source driver is already running");
+    _done = false;
+    _thread = new Thread(this, "pachinko-event-sources");
+    _thread.setDaemon(true);
+    _thread.start();
+  }
+
+  /**
+   * Stop draining and wait for the thread start() ran to close the sources, unless called from that thread.
+   */
+  public void stop() {
+    _done = true;
+    Thread thread = _thread;
+    if (thread != null && thread != Thread.currentThread()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    _thread = null;
+  }
+
+  /**
+   * Close every source, releasing any producer waiting on credit, even if closing one of them throws.
+   */
+  public void close() {
+    RuntimeException failure = null;
+    for (SourceBuffer source : _sources)
+      try {
+        source.close();
+      } catch (RuntimeException e) {
+        if (failure == null)
+          failure = e;
+      }
+    if (failure != null)
+      throw failure;
+  }
+
+  /**
+   * One source's bounded buffer.  Producers emit under the buffer's lock, so a source may emit from more than
+   * one thread; the consumer reads published slots without it.
+   */
+  protected class SourceBuffer implements IEventSource.ISink<P> {
+    protected IEventSource<P> _source = null;
+    protected int[] _alphaIndexes = null;
+    protected int _mask = 0;
+    protected int[] _channels = null;
+    protected Object[] _values = null;
+    protected AtomicInteger _credits = null;
+    protected long _tail = 0;
+    protected volatile long _published = 0;
+    protected long _head = 0;
+    protected volatile boolean _completed = false;
+    protected volatile boolean _closed = false;
+
+    public SourceBuffer(IEventSource<P> source, int[] alphaIndexes, int capacity) {
+      _source = source;
+      _alphaIndexes = alphaIndexes;
+      _mask = capacity - 1;
+      _channels = new int[capacity];
+      _values = new Object[capacity];
+      _credits = new AtomicInteger(capacity);
+    }
+
+    public void open() {
+      _closed = false;
+      _source.open(this);
+    }
+
+    public void close() {
+      try {
+        _source.close();
+      } finally {
+        synchronized (this) {
+          _closed = true;
+          notifyAll();
+        }
+      }
+    }
+
+    @Override
+    public synchronized boolean emit(int channel, P value) {
+      while (!tryEmit(channel, value)) {
+        if (_closed)
+          return false;
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public synchronized boolean tryEmit(int channel, P value) {
+      if (_closed || _credits.get() == 0)
+        return false;
+      _credits.decrementAndGet();
+
+      int slot = (int) (_tail & _mask);
+      _channels[slot] = _alphaIndexes[channel];
+      _values[slot] = value;
+      _tail = _tail + 1;
+      //  Volatile store publishes the slot to the consumer...
+      _published = _tail;
+      return true;
+    }
+
+    @Override
+    public int getCredits() {
+      return _credits.get();
+    }
+
+    @Override
+    public void complete() {
+      _completed = true;
+    }
+
+    public boolean isDrained() {
+      return _completed && _head == _published;
+    }
+
+    public int drain(int batchSize) {
+      long available = _published - _head;
+      int count = (int) Math.min(available, batchSize);
+      for (int i = 0; i < count; i++) {
+        int slot = (int) (_head & _mask);
+        if (_journal != null)
+          _journal.append(_ruleSystem, _channels[slot], _values[slot]);
+        _alphaMemory.returnValue(_channels[slot], _values[slot]);
+        _values[slot] = null;
+        _ruleSystem.executeActivations();
+        _head = _head + 1;
+      }
+
+      if (count > 0 && _journal != null)
+        _journal.commit();
+
+      //  Hand the batch's credit back, waking the producer only if it could have run dry...
+      if (count > 0 && _credits.getAndAdd(count) == 0)
+        synchronized (this) {
+          notifyAll();
+        }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+/**
+ * Source of the time a rule system's timers run on.  Units are up to the clock; the timer service only needs
+ * them to be consistent with the delays rules schedule.
+ */
+public interface IClock {
+  public long now();
+
+  /**
+   * Wall-clock milliseconds.
+   */
+  public static class Wall implements IClock {
+    @Override
+    public long now() {
+      return System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Time that only moves when told to, for tests, replays and rule systems that run on event time.
+   */
+  public static class Manual implements IClock {
+    private volatile long _now = 0;
+
+    public Manual(long now) {
+      _now = now;
+    }
+
+    @Override
+    public long now() {
+      return _now;
+    }
+
+    public void set(long now) {
+      _now = now;
+    }
+
+    public void advance(long delta) {
+      _now = _now + delta;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+/**
+ * Something that produces events for a rule system: a feed, a file watcher, a replay.  An EventSourceDriver
+ * opens each source with a sink of its own, a bounded buffer that the driver drains into the rule system.
+ *
+ * The sink hands out credits, one per free slot in its buffer, and takes one back per event emitted.  The
+ * driver returns them a batch at a time as it drains.  A source that runs out of credits is being told the rules
+ * have fallen behind: emit() blocks until credit is returned, and tryEmit() says no, so the source can throttle
+ * itself at its end rather than letting a queue grow.
+ */
+public interface IEventSource<P> {
+  /**
+   * Channels the source emits to.  Events are emitted by position in this array, not by name.
+   */
+  public String[] getChannelNames();
+
+  /**
+   * Start producing into <sink>.  Sources that block waiting for events should do so on threads of their own;
+   * open() itself shouldn't block.
+   */
+  public void open(ISink<P> sink);
+
+  /**
+   * Stop producing and release whatever the source holds.  Any emit() blocked on credit returns false.
+   */
+  public void close();
+
+  /**
+   * A source's end of its buffer.
+   */
+  public interface ISink<P> {
+    /**
+     * Emit <value> to channel <channel>, by position in getChannelNames(), waiting for credit if there is none.
+     * Returns false, without emitting, if the sink was closed while waiting.
+     */
+    public boolean emit(int channel, P value);
+
+    /**
+     * Emit <value> only if there's credit for it right now.
+     */
+    public boolean tryEmit(int channel, P value);
+
+    /**
+     * Events the source may emit before it has to wait.
+     */
+    public int getCredits();
+
+    /**
+     * The source won't emit again.  Once everything it emitted has been drained the driver is done with it.
+     */
+    public void complete();
+  }
+}
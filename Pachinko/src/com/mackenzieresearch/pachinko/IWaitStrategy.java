@@ -0,0 +1,82 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a consumer thread does when it finds no work.  Trades latency against the CPU an idle consumer burns.
+ */
+public interface IWaitStrategy {
+  /**
+   * Called each time the consumer comes up empty; <idleCount> is the number of times in a row it has done so.
+   */
+  public void idle(int idleCount);
+
+  /**
+   * Lowest latency, but pins a core even when there is nothing to do.
+   */
+  public static class BusySpin implements IWaitStrategy {
+    @Override
+    public void idle(int idleCount) {
+    }
+  }
+
+  /**
+   * Spins briefly, then yields the processor to other threads.
+   */
+  public static class Yielding implements IWaitStrategy {
+    @Override
+    public void idle(int idleCount) {
+      if (idleCount > 100)
+        Thread.yield();
+    }
+  }
+
+  /**
+   * Spins, yields, then parks for <parkNanos> at a time.  Costs the least CPU when traffic is bursty.
+   */
+  public static class Parking implements IWaitStrategy {
+    private long _parkNanos = 0;
+
+    public Parking(long parkNanos) {
+      _parkNanos = parkNanos;
+    }
+
+    @Override
+    public void idle(int idleCount) {
+      if (idleCount > 200)
+        LockSupport.parkNanos(_parkNanos);
+      else if (idleCount > 100)
+        Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * A pre-allocated multi-producer, single-consumer ring buffer in front of a CARuleSystem.  Any number of
+ * threads may publish (channel index, value) pairs; one consumer thread drains them into the alpha memory
+ * and executes the resulting activations, so the rule system itself stays single-threaded.
+ *
+ * Producers claim a free sequence with a compare-and-set, fill the slot and then publish it with an ordered
+ * store.  Nothing is locked and nothing is allocated per event.  When the buffer is full, producers wait for
+ * the consumer to free a slot, idling as the wait strategy says, which throttles them to the rate the rules can
+ * sustain.  A sequence is only claimed once its slot is free, so a producer that gives up waiting never leaves
+ * a hole the consumer would stall on.
+ *
+ * A rule that throws doesn't stop the consumer: the event counts as consumed, and the first failure is
+ * rethrown from the next flush() or stop().
+ *
+ * @author corwyn
+ */
+public class IngestionRingBuffer<P> implements Runnable {
+  protected CARuleSystem<P> _ruleSystem = null;
+  protected IReadWriteMonadex _alphaMemory = null;
+  protected IWaitStrategy _waitStrategy = null;
+  protected int _capacity = 0;
+  protected int _mask = 0;
+  protected int _batchSize = 256;
+
+  protected int[] _channels = null;
+  protected Object[] _values = null;
+  protected AtomicLongArray _published = null;
+  protected AtomicLong _claimed = new AtomicLong(-1);
+  protected volatile long _consumed = -1;
+  protected volatile boolean _done = false;
+  protected volatile Thread _thread = null;
+  protected volatile RuntimeException _failure = null;
+
+  public IngestionRingBuffer(CARuleSystem<P> ruleSystem, int capacity) {
+    this(ruleSystem, capacity, new IWaitStrategy.Yielding());
+  }
+
+  public IngestionRingBuffer(CARuleSystem<P> ruleSystem, int capacity, IWaitStrategy waitStrategy) {
+    assertNotNull(ruleSystem);
+    assertNotNull(waitStrategy);
+    assertTrue(capacity > 0 && (capacity & (capacity - 1)) == 0, "Capacity must be a power of two");
+    _ruleSystem = ruleSystem;
+    _alphaMemory = ruleSystem.freeVariables();
+    _waitStrategy = waitStrategy;
+    _capacity = capacity;
+    _mask = capacity - 1;
+
+    _channels = new int[capacity];
+    _values = new Object[capacity];
+    _published = new AtomicLongArray(capacity);
+    //  No slot holds a published sequence until a producer writes one...
+    for (int slot = 0; slot < capacity; slot++)
+      _published.set(slot, -1);
+  }
+
+  /**
+   * Maximum number of events the consumer takes per drain() before publishing its progress to producers.
+   */
+  public IngestionRingBuffer<P> batchSize(int batchSize) {
+    assertTrue(batchSize > 0);
+    _batchSize = batchSize;
+    return this;
+  }
+
+  public int getCapacity() {
+    return _capacity;
+  }
+
+  /**
+   * Resolve a channel name to the index producers should publish to.  Do this once, up front.
+   */
+  public int channelIndex(String channelName) {
+    int index = _alphaMemory.getIndex(channelName);
+    assertTrue(index >= 0, "No such channel: " + channelName);
+    return index;
+  }
+
+  /**
+   * Publish <value> to monad <channelIndex>.  Safe to call from any number of threads; blocks while the
+   * buffer is full.  Throws IllegalStateException if the buffer is full and no consumer is running to empty it.
+   */
+  public void publish(int channelIndex, P value) {
+    long sequence;
+    int idleCount = 0;
+    for (; ; ) {
+      long claimed = _claimed.get();
+      sequence = claimed + 1;
+      //  Don't lap the consumer: wait until the slot we're about to overwrite has been drained...
+      if (sequence - _capacity > _consumed) {
+        Thread thread = _thread;
+        if (thread == null || !thread.isAlive())
+          throw new IllegalStateException("Ring buffer is full and no consumer is running");
+        idleCount = idleCount + 1;
+        _waitStrategy.idle(idleCount);
+      } else if (_claimed.compareAndSet(claimed, sequence))
+        break;
+    }
+
+    int slot = (int) (sequence & _mask);
+    _channels[slot] = channelIndex;
+    _values[slot] = value;
+    //  Ordered store makes the slot contents visible to the consumer before the sequence is...
+    _published.lazySet(slot, sequence);
+  }
+
+  /**
+   * Consume up to one batch of published events, executing activations after each one so that rules see
+   * every event and not just the last one per channel.  Must only be called from the consumer thread.
+   * Returns the number of events consumed.
+   */
+  public int drain() {
+    long consumed = _consumed;
+    int count = 0;
+    try {
+      while (count < _batchSize) {
+        long next = consumed + 1;
+        int slot = (int) (next & _mask);
+        if (_published.get(slot) != next)
+          break;
+
+        try {
+          _alphaMemory.returnValue(_channels[slot], _values[slot]);
+          _ruleSystem.executeActivations();
+        } catch (RuntimeException e) {
+          if (_failure == null)
+            _failure = e;
+        } finally {
+          _values[slot] = null;
+        }
+
+        consumed = next;
+        count = count + 1;
+      }
+    } finally {
+      //  Whatever happens, never apply an event twice...
+      if (count > 0)
+        _consumed = consumed;
+    }
+    return count;
+  }
+
+  /**
+   * Block until everything published so far has been consumed by the consumer start() runs.  Throws
+   * IllegalStateException if it isn't running, or if a rule has thrown since the last flush() or stop(), with
+   * the first such failure as the cause.
+   */
+  public void flush() {
+    long claimed = _claimed.get();
+    while (_consumed < claimed) {
+      Thread thread = _thread;
+      if (thread == null || !thread.isAlive())
+        throw new IllegalStateException("No consumer is running");
+      Thread.yield();
+    }
+    _rethrowFailure();
+  }
+
+  /**
+   * Consume until stop(), advancing the rule system's timers before each batch and on each idle pass.
+   */
+  @Override
+  public void run() {
+    int idleCount = 0;
+    while (!_done) {
+      _advanceTimers();
+      if (drain() > 0)
+        idleCount = 0;
+      else {
+        idleCount = idleCount + 1;
+        _waitStrategy.idle(idleCount);
+      }
+    }
+  }
+
+  protected void _advanceTimers() {
+    try {
+      _ruleSystem.advanceTimers();
+    } catch (RuntimeException e) {
+      if (_failure == null)
+        _failure = e;
+    }
+  }
+
+  /**
+   * Run the consumer on a thread of its own.  Throws IllegalStateException if it's already running.
+   */
+  public void start() {
+    Thread thread = _thread;
+    if (thread != null && thread.isAlive())
+      throw new IllegalStateException("Consumer is already running");
+    _done = false;
+    _thread = new Thread(this, "pachinko-ingestion");
+    _thread.setDaemon(true);
+    _thread.start();
+  }
+
+  /**
+   * Stop the consumer and wait for it to finish its current batch.  Anything published after that stays in the
+   * buffer until the next start().  Throws IllegalStateException if a rule has thrown since the last flush() or
+   * stop(), with the first such failure as the cause.
+   */
+  public void stop() {
+    _done = true;
+    Thread thread = _thread;
+    if (thread != null) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    _thread = null;
+    _rethrowFailure();
+  }
+
+  protected void _rethrowFailure() {
+    RuntimeException failure = _failure;
+    if (failure != null) {
+      _failure = null;
+      throw new IllegalStateException("Ring buffer consumer failed", failure);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.context.Monad;
+import com.mackenzieresearch.roux.kernel.IIntMonad;
+import com.mackenzieresearch.roux.kernel.IListener;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+
+import static util.RuntimeAssertion.assertParam;
+
+/**
+ * A Variable holding an unboxed int.  Rules that read and write it thru IMonadex.bindInt and
+ * IReadWriteMonadex.returnInt never allocate an Integer; change listeners are notified exactly as for
+ * any other Variable.
+ */
+public class IntMonad extends Monad<Integer> implements IIntMonad, ISnapshotable {
+  protected int _intValue = 0;
+
+  public IntMonad(String name) {
+    super(name);
+  }
+
+  public IntMonad(String name, int initialValue) {
+    super(name);
+    _intValue = initialValue;
+  }
+
+  @Override
+  public int bindInt(IMonadex<? extends IReadOnlyMonad> context) {
+    return _intValue;
+  }
+
+  @Override
+  public void returnInt(int value, IMonadex<? extends IMonad> context) {
+    _intValue = value;
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+  }
+
+  @Override
+  public Integer bindValue(IMonadex<? extends IReadOnlyMonad> context) {
+    return _intValue;
+  }
+
+  @Override
+  public void returnValue(Integer value, IMonadex<? extends IMonad> context) {
+    assertParam(value, "IntMonad " + getName() + " holds an unboxed int and can't be set to null");
+    returnInt(value, context);
+  }
+
+  @Override
+  public void returnObject(Object value, IMonadex<? extends IMonad> context) {
+    assertParam(value, "IntMonad " + getName() + " holds an unboxed int and can't be set to null");
+    returnInt(((Number) value).intValue(), context);
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putInt(_intValue);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    _intValue = in.getInt();
+  }
+}
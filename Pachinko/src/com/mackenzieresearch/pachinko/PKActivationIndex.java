@@ -0,0 +1,125 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IListener;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Alpha-node index for a single PK monad.  Rather than every keyed PKVariable listening to the monad
+ * and comparing its activation value on every change, the index listens once, binds the monad's value
+ * once and hands the change only to the PKVariables that declared that value.  Per-change cost is
+ * therefore independent of the number of keyed rules sharing the monad.
+ *
+ * @author corwyn
+ */
+public class PKActivationIndex<P> implements IListener<IMonad<P>> {
+  protected IMonad<P> _monad = null;
+  protected Map<Object, List<ActivationContext.PKVariable>> _index = new HashMap<Object, List<ActivationContext.PKVariable>>();
+  protected ArrayDeque<ActivationContext> _activationQueue = null;
+
+  public PKActivationIndex(IMonad<P> monad) {
+    _monad = monad;
+    monad.addChangeListener(this);
+  }
+
+  public IMonad<P> getMonad() {
+    return _monad;
+  }
+
+  public void addPKVariable(ActivationContext.PKVariable pkVariable) {
+    //  The index now dispatches to this PKVariable so it must no longer listen to the monad directly...
+    _monad.getChangeListeners().removeAll(Collections.singleton(pkVariable));
+
+    Object activationValue = pkVariable.getActivationValue();
+    List<ActivationContext.PKVariable> pkVariables = _index.get(activationValue);
+    if (pkVariables == null) {
+      pkVariables = new ArrayList<ActivationContext.PKVariable>();
+      _index.put(activationValue, pkVariables);
+    }
+    pkVariables.add(pkVariable);
+  }
+
+  /**
+   * Switch to compiled dispatch: matching contexts are enqueued directly on <activationQueue> rather than
+   * being told about the change thru their listeners.
+   */
+  public void compile(ArrayDeque activationQueue) {
+    _activationQueue = activationQueue;
+  }
+
+  public int size() {
+    return _index.size();
+  }
+
+  public void detach() {
+    _monad.getChangeListeners().removeAll(Collections.singleton(this));
+  }
+
+  @Override
+  public void changed(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+    List<ActivationContext.PKVariable> pkVariables = _index.get(ref.bindValue(context));
+    if (pkVariables == null)
+      return;
+
+    if (_activationQueue != null) {
+      for (ActivationContext.PKVariable pkVariable : pkVariables) {
+        ActivationContext betaMemory = pkVariable.getActivationContext();
+        if (pkVariable.trigger() && betaMemory.activate(pkVariable.getIndex()))
+          _activationQueue.add(betaMemory);
+      }
+    } else {
+      for (ActivationContext.PKVariable pkVariable : pkVariables)
+        pkVariable.activate(ref, context);
+    }
+  }
+
+  @Override
+  public void added(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+  }
+
+  @Override
+  public void removed(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+  }
+
+  @Override
+  public void reverted(IMonad<P> ref, IMonadex<? extends IReadOnlyMonad> context) {
+  }
+}
@@ -0,0 +1,92 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import java.util.Iterator;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Replays a sequence of events, already in memory, into one channel as fast as the driver grants credit for them,
+ * then completes.  Replays on a thread of its own, so waiting on credit never holds up the driver.
+ */
+public class ReplayEventSource<P> implements IEventSource<P>, Runnable {
+  protected String _channelName = null;
+  protected Iterable<? extends P> _events = null;
+  protected ISink<P> _sink = null;
+  protected volatile Thread _thread = null;
+  protected volatile boolean _done = false;
+  protected long _emitted = 0;
+
+  public ReplayEventSource(String channelName, Iterable<? extends P> events) {
+    assertNotNull(channelName);
+    assertNotNull(events);
+    _channelName = channelName;
+    _events = events;
+  }
+
+  @Override
+  public String[] getChannelNames() {
+    return new String[] { _channelName };
+  }
+
+  @Override
+  public void open(ISink<P> sink) {
+    _sink = sink;
+    _done = false;
+    _thread = new Thread(this, "pachinko-replay-" + _channelName);
+    _thread.setDaemon(true);
+    _thread.start();
+  }
+
+  @Override
+  public void run() {
+    Iterator<? extends P> events = _events.iterator();
+    while (!_done && events.hasNext()) {
+      if (!_sink.emit(0, events.next()))
+        break;
+      _emitted = _emitted + 1;
+    }
+    _sink.complete();
+  }
+
+  @Override
+  public void close() {
+    _done = true;
+  }
+
+  /**
+   * Number of events replayed so far; only meaningful once the replay has completed.
+   */
+  public long getEmitted() {
+    return _emitted;
+  }
+}
@@ -32,7 +32,6 @@ package com.mackenzieresearch.pachinko;
 
 import com.mackenzieresearch.roux.context.Monadex;
 import com.mackenzieresearch.roux.kernel.*;
-import sun.reflect.generics.tree.ArrayTypeSignature;
 
 import java.util.*;
 
@@ -41,12 +40,24 @@ public abstract class RuleSystemCore<P, R extends IBehavior> implements IBehavio
   protected Monadex<IMonad<P>> _intrinsicMemory = new Monadex<IMonad<P>>();
   protected Monadex<IMonad<P>> _alphaMemory = new Monadex<IMonad<P>>();
   protected ArrayDeque<ActivationContext<P, R>> _activationQueue = new ArrayDeque<ActivationContext<P, R>>();
+  protected Map<String, PKActivationIndex<P>> _pkActivationIndex = new HashMap<String, PKActivationIndex<P>>();
+  protected Map<String, ActivationDispatchTable<P, R>> _dispatchTables = new HashMap<String, ActivationDispatchTable<P, R>>();
+  protected boolean _compiled = false;
+  protected TimerService _timerService = null;
+
+  protected TimerService.IExpiryHandler _timerDelivery = new TimerService.IExpiryHandler() {
+    @Override
+    public void expired(TimerService.Timer timer) {
+      _deliverTimer(timer);
+    }
+  };
 
   protected IListener _activator = new IListener() {
     @Override
     public void changed(Object ref, IMonadex context) {
       ActivationContext<P, R> betaMemory = (ActivationContext<P, R>) ref;
-      if (betaMemory.isActivatable()) {
+      //  Only one entry per context per cycle, however many of its variables change...
+      if (betaMemory.isActivatable() && betaMemory.enqueue()) {
         _activationQueue.add(betaMemory);
       }
     }
@@ -69,10 +80,69 @@ public abstract class RuleSystemCore<P, R extends IBehavior> implements IBehavio
     _assembleActivationContexts();
   }
 
+  /**
+   * This rule system's timer service, created the first time a rule or caller needs one, so that rule systems
+   * that never use timers don't pay for the wheels.
+   */
+  public TimerService getTimerService() {
+    if (_timerService == null)
+      _timerService = new TimerService();
+    return _timerService;
+  }
+
+  /**
+   * Run this rule system's timers off <clock>.  Only allowed while no timers are pending.
+   */
+  public void setClock(IClock clock) {
+    getTimerService().setClock(clock);
+  }
+
+  /**
+   * Expire every timer that's come due on the clock, returning each one's value into its channel.  Returns the
+   * number of timers that expired.
+   */
+  public int advanceTimers() {
+    if (_timerService == null)
+      return 0;
+    return _timerService.advance(_timerDelivery);
+  }
+
+  /**
+   * Switch this rule system to compiled dispatch.  Each alpha monad gets a flat table of the activation
+   * contexts it affects.  Rules activate exactly as they do thru the listener chain.
+   */
+  public void compileActivations() {
+    _compiled = true;
+    _compileActivationDispatch();
+  }
+
+  public boolean isCompiled() {
+    return _compiled;
+  }
+
   public void clearActivationQueue() {
+    for (ActivationContext<P, R> betaMemory : _activationQueue)
+      betaMemory.dequeue();
     _activationQueue.clear();
   }
 
+  /**
+   * Deliver an expired timer as a change of its channel.  Timers for channels this rule system doesn't have are
+   * dropped.
+   */
+  protected void _deliverTimer(TimerService.Timer timer) {
+    int index = _alphaMemory.getIndex(timer.getChannelName());
+    if (index >= 0)
+      _alphaMemory.returnValue(index, timer.getValue());
+  }
+
+  protected ActivationContext<P, R> _nextActivation() {
+    ActivationContext<P, R> betaMemory = _activationQueue.remove();
+    //  Dequeue before evaluating so that changes made by the rule itself can queue it again...
+    betaMemory.dequeue();
+    return betaMemory;
+  }
+
   @Override
   public IReadWriteMonadex freeVariables() {
     return _alphaMemory;
@@ -108,6 +178,14 @@ public abstract class RuleSystemCore<P, R extends IBehavior> implements IBehavio
       //  Create a BetaMemory which will serve as activation context for this rule:
       ActivationContext<P, R> betaMemory = (ActivationContext<P, R>) ((ICARule<P>)rule).getActivationContext();
       for (IMonad<P> cref : betaMemory.monads()) {
+        //  Rules that declare a variable named for the timer service all get this rule system's own...
+        if (TimerService.NAME.equals(cref.getName()) && cref != _timerService) {
+          IMonad<P> timerService = (IMonad<P>) (IMonad) getTimerService();
+          if (!alphaList.contains(timerService))
+            alphaList.add(timerService);
+          betaMemory.setMonad(timerService);
+          continue;
+        }
         //  Assemble these freeVars into the existing list for the AlphaMemory.  If the AlphaMemory already contains
         //  a CRef for a particular freeVar, add this BetaMemory as a listener to the existing CRef and add a reference
         //  to the existing CRef into the BetaMemory in place of the one returned by getFreeVariables()...
@@ -122,6 +200,63 @@ public abstract class RuleSystemCore<P, R extends IBehavior> implements IBehavio
       betaMemory.addChangeListener(_activator);
     }
     _alphaMemory = new Monadex(alphaList.toArray(new IMonad[0]));
+    _assemblePKActivationIndex();
+    if (_compiled)
+      _compileActivationDispatch();
+  }
+
+  protected void _compileActivationDispatch() {
+    //  Drop any tables built by a previous compilation so that no variable gets dispatched twice...
+    for (ActivationDispatchTable<P, R> table : _dispatchTables.values())
+      table.detach();
+    _dispatchTables.clear();
+
+    for (R rule : _rules) {
+      ActivationContext<P, R> betaMemory = (ActivationContext<P, R>) ((ICARule<P>)rule).getActivationContext();
+      for (ActivationContext.MeasureVariable variable : betaMemory.getMeasureVariables()) {
+        IMonad<P> monad = (IMonad<P>) variable.getMonad();
+
+        //  Keyed PKVariables are already dispatched by the PKActivationIndex...
+        if (variable instanceof ActivationContext.PKVariable && variable.isKeyed())
+          continue;
+
+        //  Optional variables never listen to their monads, so there's nothing to dispatch to them...
+        if (variable.isOptional())
+          continue;
+
+        ActivationDispatchTable<P, R> table = _dispatchTables.get(monad.getName());
+        if (table == null) {
+          table = new ActivationDispatchTable<P, R>(monad, _activationQueue);
+          _dispatchTables.put(monad.getName(), table);
+        }
+        table.addVariable(betaMemory, variable);
+      }
+    }
+
+    for (PKActivationIndex<P> index : _pkActivationIndex.values())
+      index.compile(_activationQueue);
+  }
+
+  protected void _assemblePKActivationIndex() {
+    //  Drop any index built by a previous assembly so that no PKVariable gets dispatched twice...
+    for (PKActivationIndex<P> index : _pkActivationIndex.values())
+      index.detach();
+    _pkActivationIndex.clear();
+
+    //  Every PKVariable with an activation value is moved off its monad's listener list and into the
+    //  index for that monad, keyed by the activation value it declared...
+    for (R rule : _rules) {
+      ActivationContext<P, R> betaMemory = (ActivationContext<P, R>) ((ICARule<P>)rule).getActivationContext();
+      for (ActivationContext.PKVariable pkVariable : betaMemory.getKeyedPKVariables()) {
+        IMonad<P> monad = (IMonad<P>) pkVariable.getMonad();
+        PKActivationIndex<P> index = _pkActivationIndex.get(monad.getName());
+        if (index == null) {
+          index = new PKActivationIndex<P>(monad);
+          _pkActivationIndex.put(monad.getName(), index);
+        }
+        index.addPKVariable(pkVariable);
+      }
+    }
   }
 
   private boolean _addToAlphaList(IMonad cref, List<IMonad> alphaList, ActivationContext<P, R> betaMemory) {
@@ -0,0 +1,181 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IBehavior;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Saves a rule system's working memory to a file and puts it back, so that a restarted rule system carries on
+ * from where the last one was instead of rebuilding its windows and totals from scratch.
+ *
+ * Saved are the value of every alpha monad that is ISnapshotable, by name, and the activation state of every
+ * rule: which of its variables have been seen, and so how close it is to its first activation.  Monads that
+ * aren't ISnapshotable (the TimerService, for one: pending timers aren't saved) keep whatever the new rule system
+ * gave them.  Object values go thru the codecs registered here, which must match between save and restore.
+ *
+ * Restoring sets everything quietly; no rule fires.  The rule system must be built from the same rules, in the
+ * same order, as the one that was saved, and must be between cycles, with nothing queued, when saved.
+ *
+ * A snapshot is written to a file beside its target, forced to the device, and only then moved over the old one,
+ * so a crash while saving leaves the previous snapshot intact.
+ *
+ * @author corwyn
+ */
+public class RuleSystemSnapshot {
+  public static final int MAGIC = 0x50534E50;
+  public static final int VERSION = 1;
+  protected static final byte SKIPPED = 0;
+  protected static final byte SAVED = 1;
+
+  protected SnapshotCodecs _codecs = new SnapshotCodecs();
+
+  /**
+   * Register <codec> for object values of <type> (and its subclasses) under <tag>, from
+   * SnapshotCodecs.FIRST_USER_TAG up.
+   */
+  public <T> RuleSystemSnapshot register(int tag, Class<T> type, ISnapshotable.ICodec<T> codec) {
+    _codecs.register(tag, type, codec);
+    return this;
+  }
+
+  public void save(RuleSystemCore<?, ?> ruleSystem, Path path) throws IOException {
+    assertTrue(ruleSystem._activationQueue.isEmpty(), "Can't snapshot a rule system in the middle of a cycle");
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    boolean saved = false;
+    try {
+      _write(ruleSystem, temp);
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      saved = true;
+    } finally {
+      if (!saved)
+        Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Write the snapshot to <path>; closing the writer forces it to the device.
+   */
+  protected void _write(RuleSystemCore<?, ?> ruleSystem, Path path) throws IOException {
+    SnapshotWriter out = new SnapshotWriter(path, _codecs);
+    try {
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+
+      IMonad<?>[] monads = ruleSystem._alphaMemory.getMonads();
+      out.putInt(monads.length);
+      for (IMonad<?> monad : monads) {
+        out.putString(monad.getName());
+        if (!(monad instanceof ISnapshotable)) {
+          out.putByte(SKIPPED);
+          continue;
+        }
+        out.putByte(SAVED);
+        //  Length first, so a restore that has no such monad can step over it...
+        int lengthPosition = out.position();
+        out.putInt(0);
+        ((ISnapshotable) monad).snapshot(out);
+        out.putInt(lengthPosition, out.position() - lengthPosition - 4);
+      }
+
+      IBehavior[] rules = ruleSystem._rules;
+      out.putInt(rules.length);
+      for (IBehavior rule : rules) {
+        ActivationContext<?, ?> betaMemory = ((ICARule<?>) rule).getActivationContext();
+        List<ActivationContext.MeasureVariable> variables = betaMemory.getMeasureVariables();
+        out.putInt(variables.size());
+        out.putInt(betaMemory.getVariableRefCount());
+        for (ActivationContext.MeasureVariable variable : variables)
+          out.putBoolean(variable.isActivated());
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public void restore(RuleSystemCore<?, ?> ruleSystem, Path path) throws IOException {
+    SnapshotReader in = new SnapshotReader(path, _codecs);
+    try {
+      if (in.getInt() != MAGIC || in.getInt() != VERSION)
+        throw new IOException(path + " isn't a version " + VERSION + " rule system snapshot.");
+
+      int monadCount = in.getInt();
+      for (int i = 0; i < monadCount; i++) {
+        String name = in.getString();
+        if (in.getByte() == SKIPPED)
+          continue;
+        int length = in.getInt();
+        IMonad<?> monad = ruleSystem._alphaMemory.getMonad(name);
+        if (!(monad instanceof ISnapshotable)) {
+          in.skip(length);
+          continue;
+        }
+
+        int end = in.position() + length;
+        ((ISnapshotable) monad).restore(in, ruleSystem._alphaMemory);
+        if (in.position() != end)
+          throw new IllegalStateException("Monad " + name + " restored " + (in.position() + length - end)
+                  + " bytes of the " + length + " it saved");
+      }
+
+      IBehavior[] rules = ruleSystem._rules;
+      if (in.getInt() != rules.length)
+        throw new IllegalStateException("Snapshot is of a rule system with different rules");
+      for (IBehavior rule : rules) {
+        ActivationContext<?, ?> betaMemory = ((ICARule<?>) rule).getActivationContext();
+        int variableCount = in.getInt();
+        if (variableCount != betaMemory.getMeasureVariables().size())
+          throw new IllegalStateException("Snapshot is of a rule system with different rules");
+        int variableRefCount = in.getInt();
+        boolean[] activated = new boolean[variableCount];
+        for (int v = 0; v < variableCount; v++)
+          activated[v] = in.getBoolean();
+        betaMemory.restoreActivationState(variableRefCount, activated);
+        betaMemory.resetChanges();
+      }
+    } finally {
+      in.close();
+    }
+
+    //  Whatever restoring the values queued up is stale; the activation state now says where each rule stands...
+    ruleSystem.clearActivationQueue();
+    ruleSystem._alphaMemory.resetChanges();
+  }
+}
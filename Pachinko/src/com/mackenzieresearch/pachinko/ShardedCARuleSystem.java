@@ -0,0 +1,265 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Runs N independent replicas of a rule network, each with its own alpha memory and its own thread.
+ * Inbound events are routed to a replica by their partition key over lock-free queues, so every
+ * replica stays single-threaded internally (ActivationContext counters need no synchronization) while
+ * the system as a whole scales across cores.
+ *
+ * Rules in one shard never see events for keys owned by another shard, so rules must only correlate
+ * events that share a partition key.
+ *
+ * A rule that throws doesn't take its shard down: the shard keeps the first failure, counts the event as
+ * processed and carries on, and flush() rethrows it.
+ *
+ * @author corwyn
+ */
+public class ShardedCARuleSystem<P> {
+  protected IPartitionKey<P> _partitionKey = null;
+  protected Shard[] _shards = null;
+  protected int _batchSize = 256;
+  protected long _idleParkNanos = 50000;
+
+  public ShardedCARuleSystem(int shardCount, IPartitionKey<P> partitionKey, ICARuleFactory<P> ruleFactory) {
+    assertTrue(shardCount > 0, "Shard count must be positive");
+    assertNotNull(partitionKey);
+    assertNotNull(ruleFactory);
+    _partitionKey = partitionKey;
+    _shards = new ShardedCARuleSystem.Shard[shardCount];
+    for (int shard = 0; shard < shardCount; shard++)
+      _shards[shard] = new Shard(shard, new CARuleSystem<P>(ruleFactory.createRules(shard)));
+  }
+
+  /**
+   * Maximum number of events a shard drains from its queue before publishing its progress and checking
+   * whether it has been stopped.
+   */
+  public ShardedCARuleSystem<P> batchSize(int batchSize) {
+    assertTrue(batchSize > 0);
+    _batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * How long an idle shard parks before looking at its queue again.
+   */
+  public ShardedCARuleSystem<P> idleParkNanos(long idleParkNanos) {
+    assertTrue(idleParkNanos > 0);
+    _idleParkNanos = idleParkNanos;
+    return this;
+  }
+
+  public int getShardCount() {
+    return _shards.length;
+  }
+
+  public int shardOf(P event) {
+    return shardOfKey(_partitionKey.partitionKey(event));
+  }
+
+  public int shardOfKey(Object key) {
+    int hash = key != null ? key.hashCode() : 0;
+    //  Spread the high bits down so that keys differing only in high bits don't collide...
+    hash = hash ^ (hash >>> 16);
+    return (hash & 0x7fffffff) % _shards.length;
+  }
+
+  /**
+   * The rule system backing one shard.  Only safe to inspect while the shards are stopped or after
+   * flush() has returned and before anything else is submitted.
+   */
+  public CARuleSystem<P> getRuleSystem(int shard) {
+    return _shards[shard]._ruleSystem;
+  }
+
+  /**
+   * Route <event> to the shard owning its partition key and set it into monad <channelName> there.
+   * Safe to call from any number of threads.
+   */
+  public void submit(String channelName, P event) {
+    Shard shard = _shards[shardOf(event)];
+    shard._submitted.incrementAndGet();
+    shard._queue.offer(new RoutedEvent(channelName, event));
+    LockSupport.unpark(shard._thread);
+  }
+
+  /**
+   * Start a thread for each shard.  Throws IllegalStateException if any shard is already running: two threads
+   * on one shard's rule system would corrupt it.
+   */
+  public void start() {
+    for (Shard shard : _shards)
+      if (shard.isRunning())
+        throw new IllegalStateException("Shard " + shard._shard + " is already running");
+    for (Shard shard : _shards)
+      shard.start();
+  }
+
+  /**
+   * Stop every shard once it has processed whatever was already queued for it.  Events submitted after
+   * stop() stay queued until the next start().
+   */
+  public void stop() {
+    for (Shard shard : _shards)
+      shard.stop();
+  }
+
+  /**
+   * Block until every event submitted so far has been processed by its shard.  Throws IllegalStateException
+   * if the shards aren't running, or if a rule has thrown since the last flush(), with the first such failure
+   * as the cause.
+   */
+  public void flush() {
+    for (Shard shard : _shards) {
+      while (shard._processed < shard._submitted.get()) {
+        Thread thread = shard._thread;
+        if (thread == null || !thread.isAlive())
+          throw new IllegalStateException("Shard " + shard._shard + " isn't running");
+        Thread.yield();
+      }
+
+      RuntimeException failure = shard._failure;
+      if (failure != null) {
+        shard._failure = null;
+        throw new IllegalStateException("Shard " + shard._shard + " failed", failure);
+      }
+    }
+  }
+
+  protected static class RoutedEvent {
+    String channelName = null;
+    Object event = null;
+
+    RoutedEvent(String channelName, Object event) {
+      this.channelName = channelName;
+      this.event = event;
+    }
+  }
+
+  protected class Shard implements Runnable {
+    protected int _shard = -1;
+    protected CARuleSystem<P> _ruleSystem = null;
+    protected ConcurrentLinkedQueue<RoutedEvent> _queue = new ConcurrentLinkedQueue<RoutedEvent>();
+    protected AtomicLong _submitted = new AtomicLong();
+    protected volatile long _processed = 0;
+    protected volatile boolean _done = false;
+    protected volatile Thread _thread = null;
+    protected volatile RuntimeException _failure = null;
+
+    public Shard(int shard, CARuleSystem<P> ruleSystem) {
+      _shard = shard;
+      _ruleSystem = ruleSystem;
+    }
+
+    public boolean isRunning() {
+      Thread thread = _thread;
+      return thread != null && thread.isAlive();
+    }
+
+    public void start() {
+      if (isRunning())
+        throw new IllegalStateException("Shard " + _shard + " is already running");
+      _done = false;
+      _thread = new Thread(this, "pachinko-shard-" + _shard);
+      _thread.setDaemon(true);
+      _thread.start();
+    }
+
+    public void stop() {
+      _done = true;
+      Thread thread = _thread;
+      if (thread != null) {
+        LockSupport.unpark(thread);
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      _thread = null;
+    }
+
+    @Override
+    public void run() {
+      while (!_done) {
+        //  Timers come due between events as well as with them...
+        _advanceTimers();
+        if (_drain() == 0)
+          LockSupport.parkNanos(this, _idleParkNanos);
+      }
+
+      //  Stopped, but finish what was queued before stop() so that nothing submitted is dropped...
+      while (_drain() > 0)
+        ;
+    }
+
+    protected void _advanceTimers() {
+      try {
+        _ruleSystem.advanceTimers();
+      } catch (RuntimeException e) {
+        if (_failure == null)
+          _failure = e;
+      }
+    }
+
+    protected int _drain() {
+      IReadWriteMonadex alphaMemory = _ruleSystem.freeVariables();
+      int drained = 0;
+      RoutedEvent routed;
+      while (drained < _batchSize && (routed = _queue.poll()) != null) {
+        try {
+          alphaMemory.returnValue(routed.channelName, routed.event);
+          //  Run activations per event so that rules see every event, not just the last one per channel...
+          _ruleSystem.executeActivations();
+        } catch (RuntimeException e) {
+          if (_failure == null)
+            _failure = e;
+        }
+        drained = drained + 1;
+      }
+
+      if (drained > 0)
+        _processed = _processed + drained;
+      return drained;
+    }
+  }
+}
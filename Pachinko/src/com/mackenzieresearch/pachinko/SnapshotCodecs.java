@@ -0,0 +1,91 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * The codecs a snapshot uses for object values, each under a one-byte tag.  Nulls, Booleans, Integers, Longs,
+ * Doubles and Strings are built in; anything else needs a codec registered under a tag of FIRST_USER_TAG or
+ * more, and under the same tag when restoring as when saving.
+ */
+public class SnapshotCodecs {
+  public static final byte NULL = 0;
+  public static final byte BOOLEAN = 1;
+  public static final byte INTEGER = 2;
+  public static final byte LONG = 3;
+  public static final byte DOUBLE = 4;
+  public static final byte STRING = 5;
+  public static final int FIRST_USER_TAG = 16;
+
+  protected ISnapshotable.ICodec[] _codecs = new ISnapshotable.ICodec[256];
+  protected Map<Class, Integer> _tags = new HashMap<Class, Integer>();
+
+  public <T> void register(int tag, Class<T> type, ISnapshotable.ICodec<T> codec) {
+    assertNotNull(type);
+    assertNotNull(codec);
+    assertTrue(tag >= FIRST_USER_TAG && tag < _codecs.length, "Codec tags run from " + FIRST_USER_TAG + " to 255");
+    assertTrue(_codecs[tag] == null, "Tag " + tag + " is already registered");
+    _codecs[tag] = codec;
+    _tags.put(type, tag);
+  }
+
+  /**
+   * Tag for values of <type>, looking thru its superclasses for a registered codec, or -1 if there isn't one.
+   */
+  public int tagOf(Class type) {
+    Integer tag = _tags.get(type);
+    if (tag != null)
+      return tag;
+    for (Class superclass = type.getSuperclass(); superclass != null; superclass = superclass.getSuperclass()) {
+      tag = _tags.get(superclass);
+      if (tag != null) {
+        //  Remember it, so the next value of this type doesn't have to look again...
+        _tags.put(type, tag);
+        return tag;
+      }
+    }
+    return -1;
+  }
+
+  public ISnapshotable.ICodec codecFor(int tag) {
+    ISnapshotable.ICodec codec = _codecs[tag];
+    if (codec == null)
+      throw new IllegalStateException("No codec registered for snapshot tag " + tag);
+    return codec;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a snapshot, or a journal segment, back out of its file, mapped read-only in one piece.
+ */
+public class SnapshotReader implements ISnapshotReader, Closeable {
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+  protected FileChannel _channel = null;
+  protected MappedByteBuffer _buffer = null;
+  protected SnapshotCodecs _codecs = null;
+  protected CRC32 _crc = new CRC32();
+  protected byte[] _scratch = new byte[256];
+
+  public SnapshotReader(Path path, SnapshotCodecs codecs) throws IOException {
+    _codecs = codecs;
+    _channel = FileChannel.open(path, StandardOpenOption.READ);
+    _buffer = _channel.map(FileChannel.MapMode.READ_ONLY, 0, _channel.size());
+    _buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public int position() {
+    return _buffer.position();
+  }
+
+  public int remaining() {
+    return _buffer.remaining();
+  }
+
+  public void skip(int bytes) {
+    _buffer.position(_buffer.position() + bytes);
+  }
+
+  public byte getByte() {
+    return _buffer.get();
+  }
+
+  public boolean getBoolean() {
+    return _buffer.get() != 0;
+  }
+
+  public int getInt() {
+    return _buffer.getInt();
+  }
+
+  /**
+   * The int at <position>, leaving the position where it is.
+   */
+  public int getInt(int position) {
+    return _buffer.getInt(position);
+  }
+
+  public long getLong() {
+    return _buffer.getLong();
+  }
+
+  public double getDouble() {
+    return _buffer.getDouble();
+  }
+
+  public String getString() {
+    int length = _buffer.getInt();
+    if (length < 0)
+      return null;
+    byte[] bytes = new byte[length];
+    _buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  public Object getObject() {
+    int tag = _buffer.get() & 0xFF;
+    switch (tag) {
+      case SnapshotCodecs.NULL:
+        return null;
+      case SnapshotCodecs.BOOLEAN:
+        return getBoolean();
+      case SnapshotCodecs.INTEGER:
+        return getInt();
+      case SnapshotCodecs.LONG:
+        return getLong();
+      case SnapshotCodecs.DOUBLE:
+        return getDouble();
+      case SnapshotCodecs.STRING:
+        return getString();
+      default:
+        return _codecs.codecFor(tag).read(this);
+    }
+  }
+
+  /**
+   * CRC32 of the <length> bytes from <position>, leaving the position where it is.
+   */
+  public int checksum(int position, int length) {
+    if (_scratch.length < length)
+      _scratch = new byte[Math.max(length, _scratch.length * 2)];
+    ByteBuffer bytes = _buffer.duplicate();
+    bytes.position(position);
+    bytes.get(_scratch, 0, length);
+    _crc.reset();
+    _crc.update(_scratch, 0, length);
+    return (int) _crc.getValue();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _buffer = null;
+    _channel.close();
+  }
+}
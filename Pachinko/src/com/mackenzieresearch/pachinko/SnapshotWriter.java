@@ -0,0 +1,201 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a snapshot, or a journal segment, straight into a memory-mapped file, remapping at twice the size
+ * whenever it runs out of room, and cutting the file back to what was written on close.  Little-endian
+ * throughout.
+ */
+public class SnapshotWriter implements ISnapshotWriter, Closeable {
+  protected static final long INITIAL_SIZE = 1024 * 1024;
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+  protected FileChannel _channel = null;
+  protected MappedByteBuffer _buffer = null;
+  protected SnapshotCodecs _codecs = null;
+  protected CRC32 _crc = new CRC32();
+  protected byte[] _scratch = new byte[256];
+
+  public SnapshotWriter(Path path, SnapshotCodecs codecs) throws IOException {
+    this(path, codecs, INITIAL_SIZE);
+  }
+
+  /**
+   * Map <initialSize> bytes up front, for a writer whose eventual size is known roughly in advance.
+   */
+  public SnapshotWriter(Path path, SnapshotCodecs codecs, long initialSize) throws IOException {
+    _codecs = codecs;
+    _channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    _map(initialSize);
+  }
+
+  public int position() {
+    return _buffer.position();
+  }
+
+  public void putByte(byte value) {
+    _ensure(1);
+    _buffer.put(value);
+  }
+
+  public void putBoolean(boolean value) {
+    putByte(value ? (byte) 1 : (byte) 0);
+  }
+
+  public void putInt(int value) {
+    _ensure(4);
+    _buffer.putInt(value);
+  }
+
+  /**
+   * Overwrite the int at <position>, as for a length that's only known once what follows it has been written.
+   */
+  public void putInt(int position, int value) {
+    _buffer.putInt(position, value);
+  }
+
+  public void putLong(long value) {
+    _ensure(8);
+    _buffer.putLong(value);
+  }
+
+  public void putDouble(double value) {
+    _ensure(8);
+    _buffer.putDouble(value);
+  }
+
+  public void putString(String value) {
+    if (value == null) {
+      putInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(UTF8);
+    putInt(bytes.length);
+    _ensure(bytes.length);
+    _buffer.put(bytes);
+  }
+
+  /**
+   * Write <value> tagged with its type, using the built-in encodings or a registered codec.
+   */
+  public void putObject(Object value) {
+    if (value == null)
+      putByte(SnapshotCodecs.NULL);
+    else if (value instanceof Boolean) {
+      putByte(SnapshotCodecs.BOOLEAN);
+      putBoolean((Boolean) value);
+    } else if (value instanceof Integer) {
+      putByte(SnapshotCodecs.INTEGER);
+      putInt((Integer) value);
+    } else if (value instanceof Long) {
+      putByte(SnapshotCodecs.LONG);
+      putLong((Long) value);
+    } else if (value instanceof Double) {
+      putByte(SnapshotCodecs.DOUBLE);
+      putDouble((Double) value);
+    } else if (value instanceof String) {
+      putByte(SnapshotCodecs.STRING);
+      putString((String) value);
+    } else {
+      int tag = _codecs.tagOf(value.getClass());
+      if (tag < 0)
+        throw new IllegalStateException("No snapshot codec registered for " + value.getClass().getName());
+      putByte((byte) tag);
+      _codecs.codecFor(tag).write(value, this);
+    }
+  }
+
+  /**
+   * CRC32 of the <length> bytes written from <position>.
+   */
+  public int checksum(int position, int length) {
+    if (_scratch.length < length)
+      _scratch = new byte[Math.max(length, _scratch.length * 2)];
+    ByteBuffer bytes = _buffer.duplicate();
+    bytes.position(position);
+    bytes.get(_scratch, 0, length);
+    _crc.reset();
+    _crc.update(_scratch, 0, length);
+    return (int) _crc.getValue();
+  }
+
+  /**
+   * Flush everything written so far to the device.
+   */
+  public void force() {
+    _buffer.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    long size = _buffer.position();
+    _buffer.force();
+    _buffer = null;
+    _channel.truncate(size);
+    _channel.force(true);
+    _channel.close();
+  }
+
+  protected void _ensure(int bytes) {
+    if (_buffer.remaining() >= bytes)
+      return;
+    long size = Math.max((long) _buffer.capacity() * 2, (long) _buffer.position() + bytes);
+    if (size > Integer.MAX_VALUE)
+      throw new IllegalStateException("Snapshot is larger than 2GB");
+    try {
+      _map(size);
+    } catch (IOException e) {
+      throw new IllegalStateException("Can't grow snapshot to " + size + " bytes", e);
+    }
+  }
+
+  protected void _map(long size) throws IOException {
+    int position = _buffer == null ? 0 : _buffer.position();
+    _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    _buffer.order(ByteOrder.LITTLE_ENDIAN);
+    _buffer.position(position);
+  }
+}
@@ -0,0 +1,342 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko;
+
+import com.mackenzieresearch.roux.context.Monad;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Timers for a rule system, kept in a hierarchical timing wheel: five wheels of 256 slots, each slot of one wheel
+ * spanning a whole revolution of the wheel below it.  A timer is filed under the highest digit in which its
+ * deadline differs from the current tick and trickles down a wheel each time that digit comes round, so
+ * scheduling and cancelling are O(1) however many timers are pending.  Timers past the top wheel wait on an
+ * overflow list until it wraps.
+ *
+ * A timer carries the name of a channel and a value.  When it expires, the rule system returns that value into
+ * that channel, so rules see a timeout as an ordinary change of a variable.  Rules that want to schedule timers
+ * declare an optional variable named NAME, which the rule system binds to its own service.
+ *
+ * @author corwyn
+ */
+public class TimerService extends Monad<TimerService> {
+  public static final String NAME = "timers";
+
+  protected static final int WHEEL_BITS = 8;
+  protected static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  protected static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  protected static final int LEVELS = 5;
+
+  protected IClock _clock = null;
+  protected long _tickDuration = 1;
+  protected long _currentTick = 0;
+  protected Timer[][] _wheels = new Timer[LEVELS][WHEEL_SIZE];
+  //  List heads: due timers, timers past the top wheel, and scratch lists for firing and cascading...
+  protected Timer _due = new Timer();
+  protected Timer _overflow = new Timer();
+  protected Timer _firing = new Timer();
+  protected Timer _cascading = new Timer();
+  protected int _pending = 0;
+  protected boolean _advancing = false;
+
+  /**
+   * Called with each timer as it expires.
+   */
+  public interface IExpiryHandler {
+    public void expired(TimerService.Timer timer);
+  }
+
+  public TimerService() {
+    this(new IClock.Wall(), 1);
+  }
+
+  /**
+   * <tickDuration> is the wheel's resolution in clock units.  Timers never fire early, but may fire up to one
+   * tick late.
+   */
+  public TimerService(IClock clock, long tickDuration) {
+    super(NAME);
+    assertTrue(tickDuration > 0, "Timer tick duration must be positive");
+    _tickDuration = tickDuration;
+    for (int level = 0; level < LEVELS; level++)
+      for (int slot = 0; slot < WHEEL_SIZE; slot++)
+        _wheels[level][slot] = new Timer();
+    setClock(clock);
+    _value = this;
+  }
+
+  public IClock getClock() {
+    return _clock;
+  }
+
+  /**
+   * Switch clocks.  Only allowed while no timers are pending, since their deadlines were set on the old one.
+   */
+  public void setClock(IClock clock) {
+    assertNotNull(clock);
+    assertTrue(_pending == 0, "Can't change clocks with timers pending");
+    _clock = clock;
+    _currentTick = _floorDiv(clock.now(), _tickDuration);
+  }
+
+  public int getPendingCount() {
+    return _pending;
+  }
+
+  /**
+   * The earliest clock time at which advance() could have anything to do, for consumer loops deciding how long
+   * they may block: a timer's deadline or a wheel cascading towards one, so never later than the next timer is
+   * due.  Long.MAX_VALUE while no timers are pending.
+   */
+  public long getNextWakeup() {
+    if (_pending == 0)
+      return Long.MAX_VALUE;
+    if (_due._next != _due)
+      return _currentTick * _tickDuration;
+    return _nextTick() * _tickDuration;
+  }
+
+  /**
+   * Return <value> into <channelName> once <delay> has passed on the clock.
+   */
+  public Timer schedule(long delay, String channelName, Object value) {
+    return scheduleAt(_clock.now() + delay, channelName, value);
+  }
+
+  /**
+   * Return <value> into <channelName> once the clock reaches <deadline>.
+   */
+  public Timer scheduleAt(long deadline, String channelName, Object value) {
+    assertNotNull(channelName);
+    Timer timer = new Timer(-_floorDiv(-deadline, _tickDuration), channelName, value);
+    _place(timer);
+    _pending = _pending + 1;
+    return timer;
+  }
+
+  /**
+   * Expire every timer that's come due on the clock.
+   */
+  public int advance(IExpiryHandler handler) {
+    return advanceTo(_clock.now(), handler);
+  }
+
+  /**
+   * Expire every timer due at or before <now>, handing each to <handler>, and return how many there were.
+   * Handlers may schedule and cancel timers; they may not advance the service themselves.
+   */
+  public int advanceTo(long now, IExpiryHandler handler) {
+    if (_advancing)
+      return 0;
+    _advancing = true;
+    try {
+      long nowTick = _floorDiv(now, _tickDuration);
+      int fired = _fire(_due, handler);
+      while (_currentTick < nowTick) {
+        //  Every tick before the next occupied slot comes round is a no-op, so jump straight there...
+        long nextTick = _pending == 0 ? Long.MAX_VALUE : _nextTick();
+        if (nextTick > nowTick) {
+          _currentTick = nowTick;
+          break;
+        }
+        _currentTick = nextTick;
+
+        //  A digit that's just come round brings its slot down a wheel, highest wheel first...
+        int level = 0;
+        while (level + 1 < LEVELS && (_currentTick & ((1L << ((level + 1) * WHEEL_BITS)) - 1)) == 0)
+          level = level + 1;
+        if (level == LEVELS - 1 && (_currentTick & ((1L << (LEVELS * WHEEL_BITS)) - 1)) == 0)
+          _cascade(_overflow);
+        for (; level > 0; level--)
+          _cascade(_wheels[level][(int) (_currentTick >>> (level * WHEEL_BITS)) & WHEEL_MASK]);
+
+        fired = fired + _fire(_wheels[0][(int) _currentTick & WHEEL_MASK], handler);
+        fired = fired + _fire(_due, handler);
+      }
+      return fired;
+    } finally {
+      _advancing = false;
+    }
+  }
+
+  /**
+   * The first tick after the current one at which an occupied slot fires or cascades.  A slot on a wheel only
+   * ever holds timers whose digit on that wheel is still to come, so the lowest wheel with anything ahead of its
+   * current digit gives the answer; if none has, it's the overflow list's turn when the top wheel wraps.
+   */
+  protected long _nextTick() {
+    for (int level = 0; level < LEVELS; level++) {
+      int shift = level * WHEEL_BITS;
+      int digit = (int) (_currentTick >>> shift) & WHEEL_MASK;
+      for (int slot = digit + 1; slot < WHEEL_SIZE; slot++) {
+        Timer head = _wheels[level][slot];
+        if (head._next != head)
+          return (_currentTick & ~((1L << (shift + WHEEL_BITS)) - 1)) | ((long) slot << shift);
+      }
+    }
+    long span = 1L << (LEVELS * WHEEL_BITS);
+    return (_currentTick & ~(span - 1)) + span;
+  }
+
+  protected void _place(Timer timer) {
+    long deadlineTick = timer._deadlineTick;
+    if (deadlineTick <= _currentTick) {
+      timer._linkBefore(_due);
+      return;
+    }
+
+    int level = (63 - Long.numberOfLeadingZeros(deadlineTick ^ _currentTick)) / WHEEL_BITS;
+    if (level >= LEVELS)
+      timer._linkBefore(_overflow);
+    else
+      timer._linkBefore(_wheels[level][(int) (deadlineTick >>> (level * WHEEL_BITS)) & WHEEL_MASK]);
+  }
+
+  protected void _cascade(Timer head) {
+    if (head._next == head)
+      return;
+    _moveAll(head, _cascading);
+    while (_cascading._next != _cascading) {
+      Timer timer = _cascading._next;
+      timer._unlink();
+      _place(timer);
+    }
+  }
+
+  protected int _fire(Timer head, IExpiryHandler handler) {
+    if (head._next == head)
+      return 0;
+
+    //  Fire from a list of our own, so that handlers scheduling and cancelling can't disturb the walk...
+    _moveAll(head, _firing);
+    int fired = 0;
+    try {
+      while (_firing._next != _firing) {
+        Timer timer = _firing._next;
+        timer._unlink();
+        _pending = _pending - 1;
+        fired = fired + 1;
+        handler.expired(timer);
+      }
+    } finally {
+      //  A handler that throws mustn't take the rest of the list with it; they fire on the next advance...
+      while (_firing._next != _firing) {
+        Timer timer = _firing._next;
+        timer._unlink();
+        timer._linkBefore(_due);
+      }
+    }
+    return fired;
+  }
+
+  protected void _moveAll(Timer from, Timer to) {
+    to._next = from._next;
+    to._prev = from._prev;
+    to._next._prev = to;
+    to._prev._next = to;
+    from._next = from;
+    from._prev = from;
+  }
+
+  private static long _floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x < 0) != (y < 0)))
+      q = q - 1;
+    return q;
+  }
+
+  /**
+   * A scheduled timer, and the handle for cancelling it.  Timers are linked straight into their wheel slot, which
+   * is what makes cancelling O(1).
+   */
+  public class Timer {
+    protected long _deadlineTick = 0;
+    protected String _channelName = null;
+    protected Object _value = null;
+    protected Timer _prev = this;
+    protected Timer _next = this;
+
+    //  List head...
+    protected Timer() {
+    }
+
+    protected Timer(long deadlineTick, String channelName, Object value) {
+      _deadlineTick = deadlineTick;
+      _channelName = channelName;
+      _value = value;
+    }
+
+    public String getChannelName() {
+      return _channelName;
+    }
+
+    public Object getValue() {
+      return _value;
+    }
+
+    /**
+     * The clock time at which this timer becomes due, rounded up to a whole tick.
+     */
+    public long getDeadline() {
+      return _deadlineTick * _tickDuration;
+    }
+
+    public boolean isPending() {
+      return _next != this;
+    }
+
+    /**
+     * Cancel this timer if it hasn't expired yet.  Returns false if it already had, or was already cancelled.
+     */
+    public boolean cancel() {
+      if (!isPending())
+        return false;
+      _unlink();
+      _pending = _pending - 1;
+      return true;
+    }
+
+    protected void _linkBefore(Timer head) {
+      _prev = head._prev;
+      _next = head;
+      head._prev._next = this;
+      head._prev = this;
+    }
+
+    protected void _unlink() {
+      _prev._next = _next;
+      _next._prev = _prev;
+      _prev = this;
+      _next = this;
+    }
+  }
+}
@@ -31,10 +31,25 @@
 package com.mackenzieresearch.pachinko;
 
 import com.mackenzieresearch.roux.context.Monad;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
 
-public class Variable<T> extends Monad<T> {
+public class Variable<T> extends Monad<T> implements ISnapshotable {
   public Variable(String name, T initialValue) {
     super(name);
     _value = initialValue;
   }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putObject(_value);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    _value = (T) in.getObject();
+  }
 }
@@ -32,12 +32,17 @@ package com.mackenzieresearch.pachinko.test.rule;
 
 import com.mackenzieresearch.pachinko.CARuleSystem;
 import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.DoubleMonad;
+import com.mackenzieresearch.pachinko.IntMonad;
 import com.mackenzieresearch.pachinko.Variable;
 import com.mackenzieresearch.roux.kernel.IMonad;
 import com.mackenzieresearch.roux.kernel.IMonadex;
 import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
 import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
 import org.junit.Test;
+import util.RuntimeAssertion;
+
+import java.util.Arrays;
 
 import static util.RuntimeAssertion.assertTrue;
 
@@ -124,6 +129,52 @@ public class ActivationTests {
     }
   }
 
+  public class IntToDoubleRule extends DefaultCARule<Number> {
+    private int _count = -1;
+    private int _half = -1;
+
+    public IntToDoubleRule() {
+      super();
+      _count = addVariable(new IntMonad("Count"));
+      _half = addOptionalVariable(new DoubleMonad("Half"));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return context.bindInt(_count) > 0;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      context.returnDouble(_half, context.bindInt(_count) / 2.0);
+    }
+  }
+
+  public class VarVarOptionalRule extends DefaultCARule<String> {
+    private int ruleActionFired = 0;
+
+    public VarVarOptionalRule() {
+      super();
+      addVariable(new Variable("Var1", "UNINITIALIZED"));
+      addVariable(new Variable("Var2", "UNINITIALIZED"));
+      addOptionalVariable(new Variable("Optional", "UNINITIALIZED"));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      ruleActionFired = ruleActionFired + 1;
+    }
+
+    public int getRuleActionFirings() {
+      return ruleActionFired;
+    }
+  }
+
   //
   //--------------------------------------------------------------------------------------------------------------------------
   //
@@ -216,4 +267,127 @@ public class ActivationTests {
     ruleSystem.executeActivations();
     assertTrue(pkVarPkVarVarRule.getRuleActionFirings() == 3);
   }
+
+  @Test
+  public void CompiledVarVarVarTest() {
+    VarVarVarRule varVarVarRule = new VarVarVarRule();
+    CARuleSystem<String> ruleSystem = new CARuleSystem<String>(varVarVarRule);
+    ruleSystem.compileActivations();
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+
+    //  Compiled dispatch must activate exactly as the listener chain does...
+    context.returnValue("Var1", "CHANGED_STATE");
+    context.returnValue("Var2", "CHANGED_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(varVarVarRule.getRuleActionFirings() == 0);
+    context.returnValue("Var3", "CHANGED_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(varVarVarRule.getRuleActionFirings() == 1);
+    context.returnValue("Var1", "ANOTHER_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(varVarVarRule.getRuleActionFirings() == 2);
+  }
+
+  /**
+   * An optional variable changing neither fires a rule nor counts toward activating it, compiled or not: the same
+   * stream gives the same firings either way.
+   */
+  @Test
+  public void OptionalVariableTest() {
+    int[][] firings = new int[2][];
+    for (int mode = 0; mode < 2; mode++) {
+      VarVarOptionalRule rule = new VarVarOptionalRule();
+      CARuleSystem<String> ruleSystem = new CARuleSystem<String>(rule);
+      if (mode == 1)
+        ruleSystem.compileActivations();
+      IReadWriteMonadex context = ruleSystem.freeVariables();
+
+      String[] stream = new String[]{"Optional", "Var1", "Optional", "Var2", "Optional", "Var1", "Var2"};
+      firings[mode] = new int[stream.length];
+      for (int i = 0; i < stream.length; i++) {
+        context.returnValue(stream[i], "STATE_" + i);
+        ruleSystem.executeActivations();
+        firings[mode][i] = rule.getRuleActionFirings();
+      }
+    }
+
+    assertTrue(Arrays.equals(firings[0], firings[1]));
+    assertTrue(Arrays.equals(firings[0], new int[]{0, 0, 0, 1, 1, 2, 3}));
+  }
+
+  @Test
+  public void CompiledPkVarPkVarVarTest() {
+    PkVarPkVarVarRule pkVarPkVarVarRule = new PkVarPkVarVarRule();
+    CARuleSystem<String> ruleSystem = new CARuleSystem<String>(pkVarPkVarVarRule);
+    ruleSystem.compileActivations();
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+
+    context.returnValue("Var1", "CHANGED_STATE");
+    context.returnValue("Var2", "CHANGED_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(pkVarPkVarVarRule.getRuleActionFirings() == 0);
+    context.returnValue("Var3", "CHANGED_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(pkVarPkVarVarRule.getRuleActionFirings() == 1);
+    context.returnValue("Var3", "ANOTHER_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(pkVarPkVarVarRule.getRuleActionFirings() == 1);
+    context.returnValue("Var2", "ANOTHER_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(pkVarPkVarVarRule.getRuleActionFirings() == 2);
+  }
+
+  @Test
+  public void CoalescedActivationTest() {
+    VarVarVarRule varVarVarRule = new VarVarVarRule();
+    CARuleSystem<String> ruleSystem = new CARuleSystem<String>(varVarVarRule);
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int[] vars = new int[]{context.getIndex("Var1"), context.getIndex("Var2"), context.getIndex("Var3")};
+
+    //  A batch that binds all three variables fires the rule once, not once per variable...
+    context.returnValues(vars, new Object[]{"CHANGED_STATE", "CHANGED_STATE", "CHANGED_STATE"});
+    ruleSystem.executeActivations();
+    assertTrue(varVarVarRule.getRuleActionFirings() == 1);
+
+    //  ...and so does writing the same variable repeatedly in one cycle:
+    context.returnValue("Var1", "ANOTHER_STATE");
+    context.returnValue("Var1", "YET_ANOTHER_STATE");
+    context.returnValue("Var2", "ANOTHER_STATE");
+    ruleSystem.executeActivations();
+    assertTrue(varVarVarRule.getRuleActionFirings() == 2);
+
+    //  Same again with compiled dispatch:
+    ruleSystem.compileActivations();
+    context.returnValues(vars, new Object[]{"A", "B", "C"});
+    ruleSystem.executeActivations();
+    assertTrue(varVarVarRule.getRuleActionFirings() == 3);
+  }
+
+  @Test
+  public void PrimitiveMonadTest() {
+    CARuleSystem<Number> ruleSystem = new CARuleSystem<Number>(new IntToDoubleRule());
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int count = context.getIndex("Count");
+    int half = context.getIndex("Half");
+
+    //  Unboxed writes must still activate the rule...
+    context.returnInt(count, 7);
+    ruleSystem.executeActivations();
+    assertTrue(context.bindDouble(half) == 3.5);
+
+    //  ...and the boxed paths must still see the same values:
+    context.returnValue("Count", 9);
+    ruleSystem.executeActivations();
+    assertTrue(((Double) context.bindValue("Half")) == 4.5);
+    assertTrue(((Integer) context.bindValue(count)) == 9);
+
+    //  A primitive monad has no null, and says so instead of failing to unbox:
+    boolean refused = false;
+    try {
+      context.returnValue("Count", null);
+    } catch (RuntimeAssertion e) {
+      refused = e.getMessage().contains("Count");
+    }
+    assertTrue(refused && context.bindInt(count) == 9);
+  }
 }
@@ -33,6 +33,7 @@ package com.mackenzieresearch.pachinko.test.rule;
 import com.mackenzieresearch.pachinko.CARuleSystem;
 import com.mackenzieresearch.pachinko.DefaultCARule;
 import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.context.Monadex;
 import com.mackenzieresearch.roux.kernel.IMonad;
 import com.mackenzieresearch.roux.kernel.IMonadex;
 import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
@@ -40,6 +41,7 @@ import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
 import org.junit.Test;
 
 import static util.RuntimeAssertion.assertEqual;
+import static util.RuntimeAssertion.assertSize;
 
 public class CARuleSystemBasicTests {
 
@@ -95,4 +97,23 @@ public class CARuleSystemBasicTests {
     //  Verify that the rule system did change state this time:
     assertEqual("STARTED", readWriteContext.getMonad("STATUS").bindValue(readWriteContext));
   }
+
+  @Test
+  public void changeTrackingIsPerCycleTest() {
+    CARuleSystem<String> ruleSystem = new CARuleSystem<String>(new StartEventRule());
+    Monadex context = (Monadex) ruleSystem.freeVariables();
+
+    //  Writing the same monad twice in a cycle only counts as one change...
+    context.returnValue("EVENT", "IdleEvent");
+    context.returnValue("EVENT", "IdleEvent");
+    assertSize(context.getChanged(), 1);
+    assertEqual("EVENT", ((IMonad) context.getChanged().get(0)).getName());
+    assertSize(context.getUnchanged(), 1);
+    assertEqual("STATUS", ((IMonad) context.getUnchanged().iterator().next()).getName());
+
+    //  ...and executing the activations starts a fresh cycle rather than accumulating changes forever:
+    ruleSystem.executeActivations();
+    assertSize(context.getChanged(), 0);
+    assertSize(context.getUnchanged(), 2);
+  }
 }
@@ -0,0 +1,142 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.EventFlyweight;
+import com.mackenzieresearch.pachinko.EventSchema;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class EventFlyweightTests {
+  static final EventSchema TRADE_SCHEMA = new EventSchema();
+  static final int TIME = TRADE_SCHEMA.addLong("TIME");
+  static final int PRICE = TRADE_SCHEMA.addDouble("PRICE");
+  static final int SHARES = TRADE_SCHEMA.addInt("SHARES");
+  static final int SYMBOL = TRADE_SCHEMA.addAscii("SYMBOL", 8);
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rule, reading trades straight out of the buffer:
+  //
+  //    if TRADE.SYMBOL = "MACK" then VALUE <- VALUE + TRADE.SHARES * TRADE.PRICE
+  //
+  public class TradeValueRule extends DefaultCARule<Object> {
+    int _trade = -1;
+    double _value = 0;
+    long _lastTime = 0;
+    int _firings = 0;
+
+    public TradeValueRule() {
+      super();
+      _trade = addVariable(new Variable<EventFlyweight>("TRADE", null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return ((EventFlyweight) context.bindValue(_trade)).asciiEquals(SYMBOL, "MACK");
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      EventFlyweight trade = (EventFlyweight) context.bindValue(_trade);
+      _value = _value + trade.getInt(SHARES) * trade.getDouble(PRICE);
+      _lastTime = trade.getLong(TIME);
+      _firings = _firings + 1;
+    }
+  }
+
+  @Test
+  public void encodeDecodeTest() {
+    assertTrue(TRADE_SCHEMA.getLength() == 28 && TRADE_SCHEMA.getOffset(SYMBOL) == 20);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(2 * TRADE_SCHEMA.getLength());
+    EventFlyweight trade = new EventFlyweight(TRADE_SCHEMA);
+    trade.wrap(buffer, 0).putLong(TIME, 7).putDouble(PRICE, 12.5).putInt(SHARES, 100).putAscii(SYMBOL, "MACKENZI");
+    trade.wrap(buffer, TRADE_SCHEMA.getLength()).putAscii(SYMBOL, "MACKENZIE".substring(0, 4));
+
+    CharSequence symbol = trade.wrap(buffer, 0).getAscii(SYMBOL);
+    assertTrue(trade.getLong(TIME) == 7 && trade.getDouble(PRICE) == 12.5 && trade.getInt(SHARES) == 100);
+    assertTrue("MACKENZI".equals(symbol.toString()) && !trade.asciiEquals(SYMBOL, "MACK"));
+
+    //  The same CharSequence follows the flyweight to the next event:
+    trade.wrap(buffer, TRADE_SCHEMA.getLength());
+    assertTrue(symbol.length() == 4 && "MACK".equals(symbol.toString()) && trade.asciiEquals(SYMBOL, "MACK"));
+
+    try {
+      trade.putAscii(SYMBOL, "MACKENZIE");
+      assertTrue(false, "Wrote a symbol wider than its field");
+    } catch (IllegalArgumentException e) {
+      //  expected
+    }
+  }
+
+  @Test
+  public void returnRecordsTest() {
+    TradeValueRule rule = new TradeValueRule();
+    CARuleSystem<Object> ruleSystem = new CARuleSystem<Object>(rule);
+    int channel = ruleSystem.freeVariables().getIndex("TRADE");
+
+    //  Ten trades, alternating symbols, written as a peer would send them...
+    int length = TRADE_SCHEMA.getLength();
+    ByteBuffer wire = ByteBuffer.allocate(10 * length);
+    EventFlyweight encoder = new EventFlyweight(TRADE_SCHEMA);
+    for (int i = 0; i < 10; i++)
+      encoder.wrap(wire, i * length).putLong(TIME, i).putDouble(PRICE, 10 + i).putInt(SHARES, 100)
+              .putAscii(SYMBOL, i % 2 == 0 ? "MACK" : "ACME");
+
+    //  ...arriving in two reads that split the fourth trade:
+    ByteBuffer buffer = ByteBuffer.allocate(8 * length);
+    EventFlyweight decoder = new EventFlyweight(TRADE_SCHEMA);
+    wire.limit(3 * length + 5);
+    buffer.put(wire);
+    buffer.flip();
+    assertTrue(decoder.returnRecords(ruleSystem, channel, buffer) == 3 && buffer.remaining() == 5);
+    assertTrue(rule._firings == 2 && rule._lastTime == 2);
+
+    buffer.compact();
+    wire.limit(10 * length);
+    buffer.put(wire);
+    buffer.flip();
+    assertTrue(decoder.returnRecords(ruleSystem, channel, buffer) == 7 && !buffer.hasRemaining());
+    assertTrue(rule._firings == 5 && rule._lastTime == 8);
+    assertTrue(rule._value == 100 * (10 + 12 + 14 + 16 + 18));
+  }
+}
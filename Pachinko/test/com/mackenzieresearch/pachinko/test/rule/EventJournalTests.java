@@ -0,0 +1,228 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.EventJournal;
+import com.mackenzieresearch.pachinko.EventSourceDriver;
+import com.mackenzieresearch.pachinko.LongMonad;
+import com.mackenzieresearch.pachinko.ReplayEventSource;
+import com.mackenzieresearch.pachinko.RuleSystemSnapshot;
+import com.mackenzieresearch.pachinko.SnapshotCodecs;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class EventJournalTests {
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rule:
+  //
+  //    TOTAL <- TOTAL + EVENT, COUNT <- COUNT + 1
+  //
+  public class SumRule extends DefaultCARule<Object> {
+    int _event = -1;
+    int _total = -1;
+    int _count = -1;
+
+    public SumRule() {
+      super();
+      _event = addVariable(new Variable<Integer>("EVENT", 0));
+      _total = addOptionalVariable(new LongMonad("TOTAL"));
+      _count = addOptionalVariable(new LongMonad("COUNT"));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      context.returnLong(_total, context.bindLong(_total) + (Integer) context.bindValue(_event));
+      context.returnLong(_count, context.bindLong(_count) + 1);
+    }
+  }
+
+  protected List<Object> _count(int from, int to) {
+    List<Object> events = new ArrayList<Object>(to - from + 1);
+    for (int i = from; i <= to; i++)
+      events.add(i);
+    return events;
+  }
+
+  protected long _bind(CARuleSystem<Object> ruleSystem, String name) {
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    return context.bindLong(context.getIndex(name));
+  }
+
+  protected void _delete(Path directory) throws IOException {
+    DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+    try {
+      for (Path file : files)
+        Files.delete(file);
+    } finally {
+      files.close();
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void journalReplayTest() throws IOException {
+    Path directory = Files.createTempDirectory("journal");
+    try {
+      //  Segments small enough that the run spans dozens of them...
+      CARuleSystem<Object> original = new CARuleSystem<Object>(new SumRule());
+      EventJournal journal = new EventJournal(directory, 4096, new SnapshotCodecs());
+      EventSourceDriver<Object> driver = new EventSourceDriver<Object>(original, 16)
+              .addSource(new ReplayEventSource<Object>("EVENT", _count(1, 10000)))
+              .journal(journal);
+      driver.run();
+      journal.close();
+      assertTrue(_bind(original, "COUNT") == 10000 && _bind(original, "TOTAL") == 10000L * 10001 / 2);
+      assertTrue(journal.segments().size() > 10);
+
+      //  ...which replay, in order, into a fresh rule system:
+      CARuleSystem<Object> replayed = new CARuleSystem<Object>(new SumRule());
+      assertTrue(new EventJournal(directory, 4096, new SnapshotCodecs()).replay(replayed, 0) == 10000);
+      assertTrue(_bind(replayed, "COUNT") == 10000 && _bind(replayed, "TOTAL") == _bind(original, "TOTAL"));
+
+      //  A reopened journal never appends to an old segment:
+      EventJournal reopened = new EventJournal(directory, 4096, new SnapshotCodecs());
+      long last = reopened.getSegment();
+      reopened.returnValue(replayed, 0, 1);
+      assertTrue(reopened.getSegment() == last + 1);
+      reopened.close();
+    } finally {
+      _delete(directory);
+    }
+  }
+
+  @Test
+  public void snapshotRecoveryTest() throws IOException {
+    Path directory = Files.createTempDirectory("journal");
+    Path snapshot = Files.createTempFile("rules", ".snapshot");
+    try {
+      CARuleSystem<Object> original = new CARuleSystem<Object>(new SumRule());
+      EventJournal journal = new EventJournal(directory, 4096, new SnapshotCodecs());
+      for (int i = 1; i <= 500; i++) {
+        journal.returnValue(original, 0, i);
+        original.executeActivations();
+      }
+
+      //  Snapshot halfway, noting the segment it starts...
+      long segment = journal.roll();
+      new RuleSystemSnapshot().save(original, snapshot);
+      journal.deleteBefore(segment);
+      for (int i = 501; i <= 1000; i++) {
+        journal.returnValue(original, 0, i);
+        original.executeActivations();
+      }
+
+      //  ...and, with the journal committed but never closed, as after a crash, recover from the snapshot plus the
+      //  events since:
+      journal.commit();
+      CARuleSystem<Object> recovered = new CARuleSystem<Object>(new SumRule());
+      new RuleSystemSnapshot().restore(recovered, snapshot);
+      assertTrue(_bind(recovered, "COUNT") == 500);
+      assertTrue(new EventJournal(directory, 4096, new SnapshotCodecs()).replay(recovered, segment) == 500);
+      assertTrue(_bind(recovered, "COUNT") == 1000 && _bind(recovered, "TOTAL") == _bind(original, "TOTAL"));
+      journal.close();
+    } finally {
+      Files.deleteIfExists(snapshot);
+      _delete(directory);
+    }
+  }
+
+  /**
+   * A torn or corrupted record at the tail of a segment, as an OS crash can leave one, ends the replay there.
+   */
+  @Test
+  public void corruptTailTest() throws IOException {
+    Path directory = Files.createTempDirectory("journal");
+    try {
+      CARuleSystem<Object> original = new CARuleSystem<Object>(new SumRule());
+      EventJournal journal = new EventJournal(directory, 4096, new SnapshotCodecs());
+      for (int i = 1; i <= 10; i++)
+        journal.append(original, 0, i);
+      journal.close();
+      assertTrue(journal.segments().size() == 1);
+      Path segment = directory.resolve(String.format("%016d", journal.getSegment()) + ".journal");
+
+      //  Cut the last record's CRC short...
+      FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        channel.truncate(channel.size() - 2);
+      } finally {
+        channel.close();
+      }
+      CARuleSystem<Object> replayed = new CARuleSystem<Object>(new SumRule());
+      assertTrue(new EventJournal(directory, 4096, new SnapshotCodecs()).replay(replayed, 0) == 9);
+      assertTrue(_bind(replayed, "TOTAL") == 45);
+
+      //  ...then flip a bit in the value of the one before it, which is now the last whole record:
+      channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+        //  Each record is length, index, tag, int value and CRC: 17 bytes...
+        long value = channel.size() - 15 - 8;
+        ByteBuffer bytes = ByteBuffer.allocate(1);
+        channel.read(bytes, value);
+        bytes.put(0, (byte) (bytes.get(0) ^ 1));
+        bytes.rewind();
+        channel.write(bytes, value);
+      } finally {
+        channel.close();
+      }
+      replayed = new CARuleSystem<Object>(new SumRule());
+      assertTrue(new EventJournal(directory, 4096, new SnapshotCodecs()).replay(replayed, 0) == 8);
+      assertTrue(_bind(replayed, "COUNT") == 8 && _bind(replayed, "TOTAL") == 36);
+    } finally {
+      _delete(directory);
+    }
+  }
+}
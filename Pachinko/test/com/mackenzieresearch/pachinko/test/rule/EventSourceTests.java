@@ -0,0 +1,231 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.EventSourceDriver;
+import com.mackenzieresearch.pachinko.IEventSource;
+import com.mackenzieresearch.pachinko.ReplayEventSource;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class EventSourceTests {
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rule:
+  //
+  //    TOTAL <- TOTAL + EVENT, checking the events arrive in the order they were emitted
+  //
+  public class OrderedSumRule extends DefaultCARule<Integer> {
+    int _event = -1;
+    long _total = 0;
+    long _firings = 0;
+    int _last = 0;
+    boolean _inOrder = true;
+
+    public OrderedSumRule(String channelName) {
+      super();
+      _event = addVariable(new Variable<Integer>(channelName, 0));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      int event = (Integer) context.bindValue(_event);
+      _inOrder = _inOrder && event == _last + 1;
+      _last = event;
+      _total = _total + event;
+      _firings = _firings + 1;
+    }
+  }
+
+  /**
+   * Source that only remembers its sink, so the test can emit by hand.
+   */
+  public class ManualSource implements IEventSource<Integer> {
+    volatile ISink<Integer> _sink = null;
+
+    @Override
+    public String[] getChannelNames() {
+      return new String[] { "A" };
+    }
+
+    @Override
+    public void open(ISink<Integer> sink) {
+      _sink = sink;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  protected List<Integer> _count(int n) {
+    List<Integer> events = new ArrayList<Integer>(n);
+    for (int i = 1; i <= n; i++)
+      events.add(i);
+    return events;
+  }
+
+  @Test
+  public void replayTest() {
+    OrderedSumRule a = new OrderedSumRule("A");
+    OrderedSumRule b = new OrderedSumRule("B");
+    //  Buffers much smaller than the replays, so both producers spend most of their time waiting on credit...
+    EventSourceDriver<Integer> driver = new EventSourceDriver<Integer>(new CARuleSystem<Integer>(a, b), 16)
+            .addSource(new ReplayEventSource<Integer>("A", _count(100000)))
+            .addSource(new ReplayEventSource<Integer>("B", _count(50000)));
+    driver.run();
+
+    assertTrue(driver.isComplete());
+    assertTrue(a._inOrder && a._firings == 100000 && a._total == 100000L * 100001 / 2);
+    assertTrue(b._inOrder && b._firings == 50000 && b._total == 50000L * 50001 / 2);
+  }
+
+  @Test
+  public void creditTest() throws InterruptedException {
+    OrderedSumRule rule = new OrderedSumRule("A");
+    final ManualSource source = new ManualSource();
+    EventSourceDriver<Integer> driver = new EventSourceDriver<Integer>(new CARuleSystem<Integer>(rule), 8).batchSize(4)
+            .addSource(source);
+    driver.open();
+
+    //  Credit for exactly a buffer's worth, then nothing until the driver drains...
+    for (int i = 1; i <= 8; i++)
+      assertTrue(source._sink.tryEmit(0, i));
+    assertTrue(source._sink.getCredits() == 0 && !source._sink.tryEmit(0, 9));
+
+    //  ...which hands back a batch at a time:
+    assertTrue(driver.drain() == 4 && source._sink.getCredits() == 4 && rule._firings == 4);
+    assertTrue(source._sink.tryEmit(0, 9) && source._sink.getCredits() == 3);
+    assertTrue(driver.drain() == 4 && driver.drain() == 1 && driver.drain() == 0);
+    assertTrue(rule._inOrder && rule._total == 45 && !driver.isComplete());
+
+    source._sink.complete();
+    assertTrue(driver.isComplete());
+
+    //  A producer blocked on credit is let go when the driver closes...
+    for (int i = 10; i <= 17; i++)
+      source._sink.emit(0, i);
+    final boolean[] emitted = new boolean[] { true };
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        emitted[0] = source._sink.emit(0, 18);
+      }
+    });
+    producer.start();
+    while (producer.getState() != Thread.State.WAITING)
+      Thread.yield();
+    driver.close();
+    producer.join(10000);
+    assertTrue(!producer.isAlive() && !emitted[0]);
+    assertTrue(!source._sink.emit(0, 19));
+  }
+
+  @Test
+  public void failingRuleTest() throws InterruptedException {
+    OrderedSumRule rule = new OrderedSumRule("A") {
+      @Override
+      public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+        if ((Integer) context.bindValue(_event) == 3)
+          throw new IllegalStateException("Failing on purpose");
+        super.doAction(context);
+      }
+    };
+    final ManualSource source = new ManualSource();
+    EventSourceDriver<Integer> driver = new EventSourceDriver<Integer>(new CARuleSystem<Integer>(rule), 4)
+            .addSource(source);
+
+    //  A producer with more to send than there is credit for...
+    final int[] emitted = new int[] { 0 };
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (source._sink == null)
+          Thread.yield();
+        for (int i = 1; i <= 100; i++) {
+          if (!source._sink.emit(0, i))
+            return;
+          emitted[0] = i;
+        }
+      }
+    });
+    producer.start();
+
+    //  ...is let go when a failing rule ends the driver's run:
+    try {
+      driver.run();
+      assertTrue(false, "The rule's failure didn't reach run()");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+    producer.join(10000);
+    assertTrue(!producer.isAlive() && emitted[0] < 100 && rule._firings == 2);
+  }
+
+  @Test
+  public void restartTest() {
+    OrderedSumRule rule = new OrderedSumRule("A");
+    ManualSource source = new ManualSource();
+    EventSourceDriver<Integer> driver = new EventSourceDriver<Integer>(new CARuleSystem<Integer>(rule), 8)
+            .addSource(source);
+
+    //  One thread at a time on the rule system...
+    driver.start();
+    try {
+      driver.start();
+      assertTrue(false, "Started a driver that was already running");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+
+    //  ...but once stopped it can run again:
+    driver.stop();
+    driver.start();
+    driver.stop();
+  }
+}
@@ -0,0 +1,196 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.IWaitStrategy;
+import com.mackenzieresearch.pachinko.IngestionRingBuffer;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.junit.Test;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class IngestionRingBufferTests {
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rule:
+  //
+  //    TOTAL <- TOTAL + EVENT
+  //
+  public class SumRule extends DefaultCARule<Integer> {
+    int _event = -1;
+    long _total = 0;
+    long _firings = 0;
+
+    public SumRule() {
+      super();
+      _event = addVariable(new Variable<Integer>("EVENT", 0));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      _total = _total + (Integer) context.bindValue(_event);
+      _firings = _firings + 1;
+    }
+  }
+
+  @Test
+  public void multipleProducersTest() throws InterruptedException {
+    final SumRule rule = new SumRule();
+    final IngestionRingBuffer<Integer> ringBuffer = new IngestionRingBuffer<Integer>(new CARuleSystem<Integer>(rule), 64,
+            new IWaitStrategy.Parking(1000));
+    final int event = ringBuffer.channelIndex("EVENT");
+    final int producerCount = 4;
+    final int eventsPerProducer = 25000;
+
+    ringBuffer.start();
+
+    //  A small buffer and several producers, so that producers regularly have to wait for the consumer...
+    Thread[] producers = new Thread[producerCount];
+    for (int p = 0; p < producerCount; p++) {
+      producers[p] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 1; i <= eventsPerProducer; i++)
+            ringBuffer.publish(event, i);
+        }
+      });
+      producers[p].start();
+    }
+    for (Thread producer : producers)
+      producer.join();
+
+    ringBuffer.flush();
+    ringBuffer.stop();
+
+    //  Every event was seen exactly once, none lost and none duplicated:
+    long expectedTotal = (long) producerCount * ((long) eventsPerProducer * (eventsPerProducer + 1) / 2);
+    assertTrue(rule._firings == producerCount * eventsPerProducer);
+    assertTrue(rule._total == expectedTotal);
+  }
+
+  @Test
+  public void flushWithoutConsumerTest() {
+    SumRule rule = new SumRule();
+    IngestionRingBuffer<Integer> ringBuffer = new IngestionRingBuffer<Integer>(new CARuleSystem<Integer>(rule), 8);
+    int event = ringBuffer.channelIndex("EVENT");
+
+    //  Nothing is consuming, so flush() fails rather than waiting forever...
+    ringBuffer.publish(event, 1);
+    try {
+      ringBuffer.flush();
+      assertTrue(false, "Flushed with no consumer running");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+
+    //  ...until start() runs one, and again once stop() has joined it:
+    ringBuffer.start();
+    ringBuffer.flush();
+    ringBuffer.stop();
+    ringBuffer.publish(event, 2);
+    try {
+      ringBuffer.flush();
+      assertTrue(false, "Flushed after the consumer stopped");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+    assertTrue(rule._firings == 1 && rule._total == 1);
+  }
+
+  @Test
+  public void failingRuleTest() {
+    SumRule rule = new SumRule() {
+      @Override
+      public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+        if ((Integer) context.bindValue(_event) == 3)
+          throw new IllegalStateException("Failing on purpose");
+        super.doAction(context);
+      }
+    };
+    IngestionRingBuffer<Integer> ringBuffer = new IngestionRingBuffer<Integer>(new CARuleSystem<Integer>(rule), 8);
+    int event = ringBuffer.channelIndex("EVENT");
+
+    //  The failing event is consumed once, like every other, and its failure comes back from flush()...
+    ringBuffer.start();
+    for (int i = 1; i <= 20; i++)
+      ringBuffer.publish(event, i);
+    try {
+      ringBuffer.flush();
+      assertTrue(false, "The rule's failure didn't reach flush()");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() != null && "Failing on purpose".equals(e.getCause().getMessage()));
+    }
+    assertTrue(rule._firings == 19 && rule._total == 210 - 3);
+
+    //  ...just the once:
+    ringBuffer.publish(event, 21);
+    ringBuffer.flush();
+    ringBuffer.stop();
+    assertTrue(rule._firings == 20 && rule._total == 231 - 3);
+  }
+
+  @Test
+  public void fullWithoutConsumerTest() {
+    SumRule rule = new SumRule();
+    IngestionRingBuffer<Integer> ringBuffer = new IngestionRingBuffer<Integer>(new CARuleSystem<Integer>(rule), 8,
+            new IWaitStrategy.BusySpin());
+    int event = ringBuffer.channelIndex("EVENT");
+
+    //  A full buffer with nothing consuming it refuses another event rather than waiting forever...
+    for (int i = 1; i <= 8; i++)
+      ringBuffer.publish(event, i);
+    try {
+      ringBuffer.publish(event, 9);
+      assertTrue(false, "Published to a full buffer with no consumer");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+
+    //  ...without losing its place, so a consumer started later takes what was published:
+    ringBuffer.start();
+    ringBuffer.publish(event, 9);
+    ringBuffer.flush();
+    ringBuffer.stop();
+    assertTrue(rule._firings == 9 && rule._total == 45);
+  }
+}
@@ -51,6 +51,7 @@ public class PKScalingPerfTest {
     //  Remember these to avoid the cost of hash lookups on each rule evaluation...
     int _event = -1;
     int _status = -1;
+    int _firings = 0;
 
     public PKSelectRule(int keyValueForThisRule) {
       super();
@@ -68,6 +69,11 @@ public class PKScalingPerfTest {
     @Override
     public void doAction(IReadWriteMonadex<? extends IMonad> context) {
       context.returnValue(_status, _keyValue);
+      _firings = _firings + 1;
+    }
+
+    public int getFirings() {
+      return _firings;
     }
   }
 
@@ -92,6 +98,32 @@ public class PKScalingPerfTest {
     assertTrue(((Integer) context.bindValue("STATUS")) == 4);
   }
 
+  @Test
+  public void pkOnlyMatchingRulesFireTest() {
+    //  Two rules share key 3 so that the index has to dispatch to both of them...
+    List<PKSelectRule> rules = new ArrayList<PKSelectRule>();
+    for (int x = 1; x <= 5; x++)
+      rules.add(new PKSelectRule(x));
+    rules.add(new PKSelectRule(3));
+    CARuleSystem<Integer> ruleSystem = new CARuleSystem<Integer>(rules.toArray(new PKSelectRule[rules.size()]));
+
+    IReadWriteMonadex<IMonad<Integer>> context = ruleSystem.freeVariables();
+
+    context.returnValue("EVENT", 3);
+    ruleSystem.executeActivations();
+    context.returnValue("EVENT", 4);
+    ruleSystem.executeActivations();
+    context.returnValue("EVENT", 42);
+    ruleSystem.executeActivations();
+
+    //  Each rule should only ever have fired for its own key, no matter what came before...
+    assertTrue(rules.get(0).getFirings() == 0);
+    assertTrue(rules.get(2).getFirings() == 1);
+    assertTrue(rules.get(3).getFirings() == 1);
+    assertTrue(rules.get(5).getFirings() == 1);
+    assertTrue(((Integer) context.bindValue("STATUS")) == 4);
+  }
+
   @Test
   public void pk1000RuleTest() {
     //  Initialize rule system with its set of rules:
@@ -122,4 +154,35 @@ public class PKScalingPerfTest {
     System.out.println("Average for one iteration, in nanos: " + (((double) elapsedTime) / ((double) iterations)));
   }
 
+  @Test
+  public void pk1000RuleCompiledTest() {
+    //  Initialize rule system with its set of rules:
+    List<PKSelectRule> rules = new ArrayList<PKSelectRule>();
+    for (int x = 1; x <= 1000; x++)
+      rules.add(new PKSelectRule(x));
+    CARuleSystem<Integer> ruleSystem = new CARuleSystem<Integer>(rules.toArray(new PKSelectRule[rules.size()]));
+
+    ruleSystem.compileActivations();
+
+    IReadWriteMonadex<IMonad<Integer>> context = ruleSystem.freeVariables();
+    int EVENT = context.getIndex("EVENT");
+
+    //  Warm up the hotspot compiler...
+    int iterations = 100000;
+    for (int i = 0; i < iterations; i++) {
+      context.returnValue(EVENT, 27);
+      ruleSystem.executeActivations();
+    }
+
+    //  Now make our measurement...
+    iterations = 100000;
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      context.returnValue(EVENT, 27);
+      ruleSystem.executeActivations();
+    }
+    long elapsedTime = System.nanoTime() - startTime;
+    System.out.println("One hundred thousand iterations, in nanos: " + elapsedTime);
+    System.out.println("Average for one iteration, in nanos: " + (((double) elapsedTime) / ((double) iterations)));
+  }
 }
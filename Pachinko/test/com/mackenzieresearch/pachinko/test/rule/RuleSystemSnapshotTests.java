@@ -0,0 +1,172 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.LongMonad;
+import com.mackenzieresearch.pachinko.RuleSystemSnapshot;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class RuleSystemSnapshotTests {
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rule, keyed on KEY = "MACK":
+  //
+  //    TOTAL <- TOTAL + PRICE, COUNT <- COUNT + 1, LAST <- the last quote seen
+  //
+  public class KeyedTotalRule extends DefaultCARule<Object> {
+    int _price = -1;
+    int _total = -1;
+    int _count = -1;
+    int _last = -1;
+    int _firings = 0;
+
+    public KeyedTotalRule() {
+      super();
+      addPkVariable(new Variable<String>("KEY", null), "MACK");
+      _price = addVariable(new LongMonad("PRICE"));
+      _total = addOptionalVariable(new LongMonad("TOTAL"));
+      _count = addOptionalVariable(new LongMonad("COUNT"));
+      _last = addOptionalVariable(new Variable<Quote>("LAST", null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      long price = context.bindLong(_price);
+      context.returnLong(_total, context.bindLong(_total) + price);
+      context.returnLong(_count, context.bindLong(_count) + 1);
+      context.returnValue(_last, new Quote("MACK", price));
+      _firings = _firings + 1;
+    }
+  }
+
+  public static class Quote {
+    String _symbol = null;
+    long _price = 0;
+
+    public Quote(String symbol, long price) {
+      _symbol = symbol;
+      _price = price;
+    }
+  }
+
+  protected RuleSystemSnapshot _snapshot() {
+    return new RuleSystemSnapshot().register(16, Quote.class, new ISnapshotable.ICodec<Quote>() {
+      @Override
+      public void write(Quote quote, ISnapshotWriter out) {
+        out.putString(quote._symbol);
+        out.putLong(quote._price);
+      }
+
+      @Override
+      public Quote read(ISnapshotReader in) {
+        return new Quote(in.getString(), in.getLong());
+      }
+    });
+  }
+
+  @Test
+  public void snapshotRestoreTest() throws IOException {
+    Path path = Files.createTempFile("rules", ".snapshot");
+    try {
+      KeyedTotalRule saved = new KeyedTotalRule();
+      CARuleSystem<Object> original = new CARuleSystem<Object>(saved);
+      IReadWriteMonadex context = original.freeVariables();
+      context.returnValue("KEY", "MACK");
+      context.returnValue("PRICE", 5L);
+      original.executeActivations();
+      assertTrue(saved._firings == 1);
+      _snapshot().save(original, path);
+
+      //  Restoring fires nothing, but brings back the values...
+      KeyedTotalRule restored = new KeyedTotalRule();
+      CARuleSystem<Object> ruleSystem = new CARuleSystem<Object>(restored);
+      _snapshot().restore(ruleSystem, path);
+      IReadWriteMonadex restoredContext = ruleSystem.freeVariables();
+      assertTrue(restored._firings == 0);
+      assertTrue(restoredContext.bindLong(restoredContext.getIndex("TOTAL")) == 5);
+      assertTrue("MACK".equals(restoredContext.bindValue("KEY")));
+      assertTrue(((Quote) restoredContext.bindValue("LAST"))._price == 5);
+
+      //  ...and the activation state: PRICE has been seen, so the key arriving again fires the rule, just as it
+      //  does in the original...
+      restoredContext.returnValue("KEY", "MACK");
+      ruleSystem.executeActivations();
+      context.returnValue("KEY", "MACK");
+      original.executeActivations();
+      assertTrue(restored._firings == 1 && saved._firings == 2);
+      assertTrue(restoredContext.bindLong(restoredContext.getIndex("TOTAL")) == 10);
+      assertTrue(restoredContext.bindLong(restoredContext.getIndex("COUNT")) == context.bindLong(context.getIndex("COUNT")));
+
+      //  ...where a rule system without it is still waiting for its first PRICE:
+      KeyedTotalRule fresh = new KeyedTotalRule();
+      CARuleSystem<Object> freshSystem = new CARuleSystem<Object>(fresh);
+      freshSystem.freeVariables().returnValue("KEY", "MACK");
+      freshSystem.executeActivations();
+      assertTrue(fresh._firings == 0);
+
+      //  A value with no codec can't be saved, and failing to save leaves the last snapshot as it was:
+      try {
+        new RuleSystemSnapshot().save(original, path);
+        assertTrue(false, "Saved a Quote without a codec for it");
+      } catch (IllegalStateException e) {
+        //  expected
+      }
+      assertTrue(!Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+      CARuleSystem<Object> again = new CARuleSystem<Object>(new KeyedTotalRule());
+      _snapshot().restore(again, path);
+      assertTrue(again.freeVariables().bindLong(again.freeVariables().getIndex("TOTAL")) == 5);
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.ICARule;
+import com.mackenzieresearch.pachinko.ICARuleFactory;
+import com.mackenzieresearch.pachinko.IPartitionKey;
+import com.mackenzieresearch.pachinko.ShardedCARuleSystem;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.junit.Test;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class ShardedCARuleSystemTests {
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rule:
+  //
+  //    COUNT <- COUNT + 1, unless EVENT is negative, when it throws
+  //
+  public static class CountingRule extends DefaultCARule<Integer> {
+    int _event = -1;
+    volatile int _count = 0;
+
+    public CountingRule() {
+      super();
+      _event = addVariable(new Variable<Integer>("EVENT", 0));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      if ((Integer) context.bindValue(_event) < 0)
+        throw new IllegalArgumentException("Negative event");
+      _count = _count + 1;
+    }
+  }
+
+  protected CountingRule[] _rules = new CountingRule[2];
+
+  protected ShardedCARuleSystem<Integer> _ruleSystem() {
+    return new ShardedCARuleSystem<Integer>(_rules.length,
+            new IPartitionKey<Integer>() {
+              @Override
+              public Object partitionKey(Integer event) {
+                return event;
+              }
+            },
+            new ICARuleFactory<Integer>() {
+              @Override
+              public ICARule<Integer>[] createRules(int shard) {
+                _rules[shard] = new CountingRule();
+                return new ICARule[] { _rules[shard] };
+              }
+            });
+  }
+
+  protected int _count() {
+    return _rules[0]._count + _rules[1]._count;
+  }
+
+  @Test
+  public void failureTest() {
+    ShardedCARuleSystem<Integer> ruleSystem = _ruleSystem();
+    ruleSystem.start();
+    for (int i = 1; i <= 100; i++)
+      ruleSystem.submit("EVENT", i == 50 ? -1 : i);
+
+    //  The failure comes back from flush(), once, and the shard carries on past it...
+    try {
+      ruleSystem.flush();
+      assertTrue(false, "A rule threw and flush() didn't");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+    ruleSystem.flush();
+    assertTrue(_count() == 99);
+
+    ruleSystem.submit("EVENT", 101);
+    ruleSystem.flush();
+    assertTrue(_count() == 100);
+    ruleSystem.stop();
+  }
+
+  @Test
+  public void stoppedTest() {
+    ShardedCARuleSystem<Integer> ruleSystem = _ruleSystem();
+
+    //  Never started, so flush() fails rather than waiting forever...
+    ruleSystem.submit("EVENT", 1);
+    try {
+      ruleSystem.flush();
+      assertTrue(false, "Flushed shards that were never started");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+
+    //  ...a second start() is refused rather than putting two threads on one shard...
+    ruleSystem.start();
+    try {
+      ruleSystem.start();
+      assertTrue(false, "Started shards that were already running");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+
+    //  ...and stop() processes what was already queued:
+    for (int i = 2; i <= 10000; i++)
+      ruleSystem.submit("EVENT", i);
+    ruleSystem.stop();
+    assertTrue(_count() == 10000);
+  }
+}
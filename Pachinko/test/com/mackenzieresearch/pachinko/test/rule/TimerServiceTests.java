@@ -0,0 +1,202 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.test.rule;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.IClock;
+import com.mackenzieresearch.pachinko.TimerService;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static util.RuntimeAssertion.assertTrue;
+
+public class TimerServiceTests {
+
+  //--------------------------------------------------------------------------------------------------------------------------
+  //
+  //  Sample rules:
+  //
+  //    HEARTBEAT -> restart a 5 tick timer onto TIMEOUT
+  //    TIMEOUT -> count it
+  //
+  public class HeartbeatRule extends DefaultCARule<String> {
+    int _heartbeat = -1;
+    int _timers = -1;
+    TimerService.Timer _timer = null;
+
+    public HeartbeatRule() {
+      super();
+      _heartbeat = addVariable(new Variable<String>("HEARTBEAT", null));
+      _timers = addOptionalVariable(new Variable<TimerService>(TimerService.NAME, null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      TimerService timers = (TimerService) context.bindValue(_timers);
+      if (_timer != null)
+        _timer.cancel();
+      _timer = timers.schedule(5, "TIMEOUT", context.bindValue(_heartbeat));
+    }
+  }
+
+  public class TimeoutRule extends DefaultCARule<String> {
+    int _timeout = -1;
+    int _firings = 0;
+    Object _lastTimeout = null;
+
+    public TimeoutRule() {
+      super();
+      _timeout = addVariable(new Variable<String>("TIMEOUT", null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      _firings = _firings + 1;
+      _lastTimeout = context.bindValue(_timeout);
+    }
+  }
+
+  @Test
+  public void heartbeatTimeoutTest() {
+    IClock.Manual clock = new IClock.Manual(0);
+    TimeoutRule timeoutRule = new TimeoutRule();
+    CARuleSystem<String> ruleSystem = new CARuleSystem<String>(new HeartbeatRule(), timeoutRule);
+    ruleSystem.setClock(clock);
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+
+    //  Heartbeats every 3 ticks keep pushing the timeout back...
+    for (int tick = 0; tick <= 6; tick += 3) {
+      clock.set(tick);
+      ruleSystem.advanceTimers();
+      context.returnValue("HEARTBEAT", "beat" + tick);
+      ruleSystem.executeActivations();
+    }
+    clock.set(10);
+    assertTrue(ruleSystem.advanceTimers() == 0 && timeoutRule._firings == 0);
+
+    //  ...until they stop, and the last one's timer comes due as a change of TIMEOUT.
+    clock.set(11);
+    assertTrue(ruleSystem.advanceTimers() == 1);
+    assertTrue(timeoutRule._firings == 1 && "beat6".equals(timeoutRule._lastTimeout));
+    assertTrue(ruleSystem.getTimerService().getPendingCount() == 0);
+  }
+
+  /**
+   * Lots of timers spread over several wheels, half of them cancelled.  Every survivor fires exactly once, never
+   * before its deadline and never later than the advance that passes it.
+   */
+  @Test
+  public void timingWheelTest() {
+    Random random = new Random();
+    IClock.Manual clock = new IClock.Manual(1000);
+    final TimerService timers = new TimerService(clock, 1);
+    final int[] fired = new int[200000];
+    final long[] now = new long[]{1000};
+
+    TimerService.Timer[] scheduled = new TimerService.Timer[fired.length];
+    for (int i = 0; i < scheduled.length; i++)
+      scheduled[i] = timers.schedule(random.nextInt(i < 1000 ? 100 : 3000000), "T", i);
+    for (int i = 0; i < scheduled.length; i += 2)
+      assertTrue(scheduled[i].cancel() && !scheduled[i].cancel());
+    assertTrue(timers.getPendingCount() == scheduled.length / 2);
+
+    TimerService.IExpiryHandler handler = new TimerService.IExpiryHandler() {
+      @Override
+      public void expired(TimerService.Timer timer) {
+        fired[(Integer) timer.getValue()]++;
+        assertTrue(timer.getDeadline() <= now[0] && !timer.isPending());
+      }
+    };
+    long previous = now[0];
+    while (timers.getPendingCount() > 0) {
+      now[0] = now[0] + 1 + random.nextInt(5000);
+      timers.advanceTo(now[0], handler);
+      for (int i = 1; i < scheduled.length; i += 2)
+        if (scheduled[i].getDeadline() <= now[0] && scheduled[i].getDeadline() > previous)
+          assertTrue(fired[i] == 1);
+      previous = now[0];
+    }
+
+    for (int i = 0; i < fired.length; i++)
+      assertTrue(fired[i] == (i % 2));
+  }
+
+  /**
+   * A clock that leaps, as a manual clock set from 0 to epoch millis does.  The service skips the empty ticks
+   * rather than walking them, and still fires each timer on the way in order.
+   */
+  @Test(timeout = 10000)
+  public void clockJumpTest() {
+    IClock.Manual clock = new IClock.Manual(0);
+    TimerService timers = new TimerService(clock, 1);
+    final List<Object> fired = new ArrayList<Object>();
+    TimerService.IExpiryHandler handler = new TimerService.IExpiryHandler() {
+      @Override
+      public void expired(TimerService.Timer timer) {
+        fired.add(timer.getValue());
+      }
+    };
+
+    long jump = 1L << 40;
+    timers.schedule(10, "T", "near");
+    timers.schedule(jump - 1, "T", "top");
+    timers.schedule(jump + 5, "T", "overflow");
+    timers.schedule(2 * jump, "T", "later");
+    clock.set(jump + 5);
+    assertTrue(timers.advance(handler) == 3 && timers.getPendingCount() == 1);
+    assertTrue(fired.equals(Arrays.<Object>asList("near", "top", "overflow")));
+
+    clock.set(2 * jump - 1);
+    assertTrue(timers.advance(handler) == 0);
+    clock.set(2 * jump);
+    assertTrue(timers.advance(handler) == 1 && timers.getPendingCount() == 0 && "later".equals(fired.get(3)));
+  }
+}
@@ -39,8 +39,8 @@ import java.util.List;
 public class Monad<T> implements IMonad<T> {
 	private String _name = null;
 	protected T _value = null;
-  List<IListener> _changeListeners = new ArrayList<IListener>();
-  List<IListener> _reversionListeners = new ArrayList<IListener>();
+  protected List<IListener> _changeListeners = new ArrayList<IListener>();
+  protected List<IListener> _reversionListeners = new ArrayList<IListener>();
 
 	public Monad(String name) {
 		_name = name;
@@ -34,10 +34,14 @@ package com.mackenzieresearch.roux.context;
 import com.mackenzieresearch.roux.kernel.*;
 
 import java.security.ProtectionDomain;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static util.RuntimeAssertion.assertNotNull;
 
@@ -47,7 +51,14 @@ public class Monadex<M extends IMonad<?>> implements IMonadex<M>, IListener<M>,
   protected Map<String, Integer> _monadIndex = new HashMap<String, Integer>();
   protected List<M> _monadList = new ArrayList<M>();
 
-  protected ArrayList<M> _changed = new ArrayList<M>();
+  //  Change tracking is per cycle: a slot has changed in this cycle if its stamp equals the current epoch,
+  //  so resetChanges() is just an increment and the bookkeeping never grows beyond one entry per slot...
+  protected long _epoch = 1;
+  protected long[] _changeEpochs = new long[8];
+  protected int[] _changedSlots = new int[8];
+  protected int _changedCount = 0;
+  protected List<M> _changedView = new ChangedView();
+  protected List<M> _unchangedView = new UnchangedView();
   protected List<IListener> _changeListeners = new ArrayList<IListener>();
   protected List<IListener> _reversionListeners = new ArrayList<IListener>();
 
@@ -86,6 +97,47 @@ public class Monadex<M extends IMonad<?>> implements IMonadex<M>, IListener<M>,
     }
   }
 
+  @Override
+  public void returnValues(int[] indexes, Object[] values) {
+    assert (indexes.length == values.length);
+
+    for (int i = 0; i < indexes.length; i++)
+      returnValue(indexes[i], values[i]);
+  }
+
+  @Override
+  public void returnInt(int index, int value) {
+    assert (index >= 0 && index < _monadList.size());
+
+    IMonad<?> cref = _monadList.get(index);
+    if (cref instanceof IIntMonad)
+      ((IIntMonad) cref).returnInt(value, this);
+    else if (cref != null)
+      cref.returnObject(value, this);
+  }
+
+  @Override
+  public void returnLong(int index, long value) {
+    assert (index >= 0 && index < _monadList.size());
+
+    IMonad<?> cref = _monadList.get(index);
+    if (cref instanceof ILongMonad)
+      ((ILongMonad) cref).returnLong(value, this);
+    else if (cref != null)
+      cref.returnObject(value, this);
+  }
+
+  @Override
+  public void returnDouble(int index, double value) {
+    assert (index >= 0 && index < _monadList.size());
+
+    IMonad<?> cref = _monadList.get(index);
+    if (cref instanceof IDoubleMonad)
+      ((IDoubleMonad) cref).returnDouble(value, this);
+    else if (cref != null)
+      cref.returnObject(value, this);
+  }
+
   @Override
   public Object bindValue(String name) {
     int index = _monadIndex.get(name);
@@ -104,6 +156,36 @@ public class Monadex<M extends IMonad<?>> implements IMonadex<M>, IListener<M>,
     return _monadList.get(index).bindValue(this);
   }
 
+  @Override
+  public int bindInt(int index) {
+    assert (index >= 0 && index < _monadList.size());
+    M cref = _monadList.get(index);
+    if (cref instanceof IIntMonad)
+      return ((IIntMonad) cref).bindInt(this);
+    else
+      return ((Number) cref.bindValue(this)).intValue();
+  }
+
+  @Override
+  public long bindLong(int index) {
+    assert (index >= 0 && index < _monadList.size());
+    M cref = _monadList.get(index);
+    if (cref instanceof ILongMonad)
+      return ((ILongMonad) cref).bindLong(this);
+    else
+      return ((Number) cref.bindValue(this)).longValue();
+  }
+
+  @Override
+  public double bindDouble(int index) {
+    assert (index >= 0 && index < _monadList.size());
+    M cref = _monadList.get(index);
+    if (cref instanceof IDoubleMonad)
+      return ((IDoubleMonad) cref).bindDouble(this);
+    else
+      return ((Number) cref.bindValue(this)).doubleValue();
+  }
+
   @Override
   public boolean containsMonad(String name) {
     Integer index = _monadIndex.get(name);
@@ -192,32 +274,43 @@ public class Monadex<M extends IMonad<?>> implements IMonadex<M>, IListener<M>,
 
   @Override
   public List<M> getChanged() {
-    return _changed;
+    return _changedView;
   }
 
   @Override
   public List<M> getUnchanged() {
-    ArrayList<M> unchanged = new ArrayList<M>();
-    for (M cref : _monadList) {
-      if (!_changed.contains(cref)) {
-//        IMonad indirectlyReferencedCRef = _readWriteContext.getMonad(cref.getName());
-//        if (!_changed.contains(indirectlyReferencedCRef)) {
-        unchanged.add(cref);
-//        }
-      }
-    }
+    return _unchangedView;
+  }
+
+  @Override
+  public void resetChanges() {
+    _epoch = _epoch + 1;
+    _changedCount = 0;
+  }
 
-    return unchanged;
+  public boolean isChanged(int index) {
+    assert (index >= 0 && index < _monadList.size());
+    return _changeEpochs[index] == _epoch;
   }
 
   @Override
   public void changed(M ref, IMonadex<? extends IReadOnlyMonad> context) {
-    _changed.add(ref);
+    Integer index = _monadIndex.get(ref.getName());
+    if (index != null)
+      _recordChange(index);
 
     for (IListener<IMonadex<M>> listener : _changeListeners)
       listener.changed(this, context);
   }
 
+  protected void _recordChange(int index) {
+    if (_changeEpochs[index] != _epoch) {
+      _changeEpochs[index] = _epoch;
+      _changedSlots[_changedCount] = index;
+      _changedCount = _changedCount + 1;
+    }
+  }
+
   @Override
   public void added(M ref, IMonadex<? extends IReadOnlyMonad> context) {
     // TODO Auto-generated method stub
@@ -244,6 +337,10 @@ public class Monadex<M extends IMonad<?>> implements IMonadex<M>, IListener<M>,
     if (!_monadIndex.containsKey(monad.getName())) {
       _monadList.add(monad);
       _monadIndex.put(monad.getName(), (_monadList.size() - 1));
+      if (_monadList.size() > _changeEpochs.length) {
+        _changeEpochs = Arrays.copyOf(_changeEpochs, _changeEpochs.length * 2);
+        _changedSlots = Arrays.copyOf(_changedSlots, _changedSlots.length * 2);
+      }
       added = true;
     }
 
@@ -263,4 +360,70 @@ public class Monadex<M extends IMonad<?>> implements IMonadex<M>, IListener<M>,
     for (M cref : readWriteContext.monads())
       defineVariableBinding(cref);
   }
+
+  //  Read-only views over the current cycle's change stamps, so that asking for them allocates nothing...
+  protected class ChangedView extends AbstractList<M> {
+    @Override
+    public M get(int index) {
+      if (index < 0 || index >= _changedCount)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _changedCount);
+      return _monadList.get(_changedSlots[index]);
+    }
+
+    @Override
+    public int size() {
+      return _changedCount;
+    }
+  }
+
+  protected class UnchangedView extends AbstractList<M> {
+    @Override
+    public M get(int index) {
+      int remaining = index;
+      for (int slot = 0; slot < _monadList.size(); slot++)
+        if (_changeEpochs[slot] != _epoch) {
+          if (remaining == 0)
+            return _monadList.get(slot);
+          remaining = remaining - 1;
+        }
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    @Override
+    public int size() {
+      return _monadList.size() - _changedCount;
+    }
+
+    @Override
+    public Iterator<M> iterator() {
+      return new Iterator<M>() {
+        private int _slot = _nextUnchanged(0);
+
+        @Override
+        public boolean hasNext() {
+          return _slot < _monadList.size();
+        }
+
+        @Override
+        public M next() {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          M monad = _monadList.get(_slot);
+          _slot = _nextUnchanged(_slot + 1);
+          return monad;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    private int _nextUnchanged(int slot) {
+      while (slot < _monadList.size() && _changeEpochs[slot] == _epoch)
+        slot = slot + 1;
+      return slot;
+    }
+  }
 }
@@ -50,6 +50,21 @@ public class NullMonadex implements IReadWriteMonadex {
 		return null;
 	}
 
+	@Override
+	public int bindInt(int index) {
+		return 0;
+	}
+
+	@Override
+	public long bindLong(int index) {
+		return 0;
+	}
+
+	@Override
+	public double bindDouble(int index) {
+		return 0;
+	}
+
 	@Override
 	public int getIndex(String name) {
 		return -1;
@@ -63,6 +78,22 @@ public class NullMonadex implements IReadWriteMonadex {
 	public void returnValue(int index, Object value) {
 	}
 
+	@Override
+	public void returnValues(int[] indexes, Object[] values) {
+	}
+
+	@Override
+	public void returnInt(int index, int value) {
+	}
+
+	@Override
+	public void returnLong(int index, long value) {
+	}
+
+	@Override
+	public void returnDouble(int index, double value) {
+	}
+
 	@Override
 	public IMonad<?> getMonad(String name) {
 		return null;
@@ -87,8 +87,8 @@ public class Equals<Q, L extends ISideEffectFreeExpression<?, Q>, R extends ISid
 
   @Override
   public Boolean evaluate(IMonadex iReadOnlyMonadIContext) {
-    Q lParam = _lParam.evaluate(iReadOnlyMonadIContext);
-    Q rParam = _rParam.evaluate(iReadOnlyMonadIContext);
+    Q lParam = (Q) _lParam.evaluate(iReadOnlyMonadIContext);
+    Q rParam = (Q) _rParam.evaluate(iReadOnlyMonadIContext);
 
     if (lParam == null)
       if (rParam == null)
@@ -48,6 +48,24 @@ public interface IMonadex<M extends IReadOnlyMonad<?>> {
    */
   public Object bindValue(int index);
 
+  /**
+   * Return the value of the int variable within the current context located at
+   * integer offset <index>, without boxing it.
+   */
+  public int bindInt(int index);
+
+  /**
+   * Return the value of the long variable within the current context located at
+   * integer offset <index>, without boxing it.
+   */
+  public long bindLong(int index);
+
+  /**
+   * Return the value of the double variable within the current context located at
+   * integer offset <index>, without boxing it.
+   */
+  public double bindDouble(int index);
+
   /**
    * Return the integer offset within the current context of the variable by the
    * name <name>.
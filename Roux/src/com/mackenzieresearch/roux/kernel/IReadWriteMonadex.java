@@ -43,4 +43,29 @@ public interface IReadWriteMonadex<M extends IMonad<?>> extends IMonadex<M> {
    * <index> to the value <value>.
    */
   public void returnValue(int index, Object value);
+
+  /**
+   * Set the values of the variables within the current context found at offsets
+   * <indexes> to the corresponding <values>.  Listeners see each change, but a rule
+   * system evaluates each affected rule only once for the whole batch.
+   */
+  public void returnValues(int[] indexes, Object[] values);
+
+  /**
+   * Set the value of the int variable within the current context found at offset
+   * <index> to the value <value>, without boxing it.
+   */
+  public void returnInt(int index, int value);
+
+  /**
+   * Set the value of the long variable within the current context found at offset
+   * <index> to the value <value>, without boxing it.
+   */
+  public void returnLong(int index, long value);
+
+  /**
+   * Set the value of the double variable within the current context found at offset
+   * <index> to the value <value>, without boxing it.
+   */
+  public void returnDouble(int index, double value);
 }
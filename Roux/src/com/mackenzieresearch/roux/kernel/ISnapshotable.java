@@ -0,0 +1,56 @@
+/*
+
+   ROUX, A foundation library for simple monadic expressions.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.kernel;
+
+/**
+ * A monad that can save its state into a snapshot and put it back.  Each implementation writes and reads its own
+ * fields, so restoring takes no reflection.  restore() must set the state quietly, without notifying listeners:
+ * activation state is restored separately, and nothing should fire on the way back in.
+ */
+public interface ISnapshotable {
+  public void snapshot(ISnapshotWriter out);
+
+  /**
+   * Read back what snapshot() wrote.  <context> is the monadex the monad lives in, for anything (window observers,
+   * say) that must be brought back in step.
+   */
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context);
+
+  /**
+   * Writes and reads values of one type that monads hold as objects.
+   */
+  public interface ICodec<T> {
+    public void write(T value, ISnapshotWriter out);
+
+    public T read(ISnapshotReader in);
+  }
+}
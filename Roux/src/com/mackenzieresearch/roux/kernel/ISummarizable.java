@@ -37,4 +37,9 @@ public interface ISummarizable<T> {
 	public List<T> getChanged();
 	
 	public List<T> getUnchanged();
+
+	/**
+	 * Start a new change-tracking cycle.  Everything is considered unchanged until changed again.
+	 */
+	public void resetChanges();
 }
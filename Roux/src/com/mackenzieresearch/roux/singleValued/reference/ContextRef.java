@@ -51,7 +51,7 @@ public class ContextRef<T> implements ISideEffectFreeExpression<T, T> {
     if (_monad == null)
       _monad = context.getMonad(_name);
 
-    return _monad.bindValue(context);
+    return (T) _monad.bindValue(context);
   }
 
   @Override
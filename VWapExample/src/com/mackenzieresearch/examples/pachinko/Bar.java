@@ -0,0 +1,88 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+/**
+ * One OHLCV bar: open, high, low and close prices and traded volume for a symbol over [start, end).
+ */
+public class Bar {
+  private String _symbol = null;
+  private long _start = 0;
+  private long _end = 0;
+  private double _open = 0;
+  private double _high = 0;
+  private double _low = 0;
+  private double _close = 0;
+  private long _volume = 0;
+
+  public Bar(String symbol, long start, long end, double open, double high, double low, double close, long volume) {
+    _symbol = symbol;
+    _start = start;
+    _end = end;
+    _open = open;
+    _high = high;
+    _low = low;
+    _close = close;
+    _volume = volume;
+  }
+
+  public String getSymbol() {
+    return _symbol;
+  }
+
+  public long getStart() {
+    return _start;
+  }
+
+  public long getEnd() {
+    return _end;
+  }
+
+  public double getOpen() {
+    return _open;
+  }
+
+  public double getHigh() {
+    return _high;
+  }
+
+  public double getLow() {
+    return _low;
+  }
+
+  public double getClose() {
+    return _close;
+  }
+
+  public long getVolume() {
+    return _volume;
+  }
+}
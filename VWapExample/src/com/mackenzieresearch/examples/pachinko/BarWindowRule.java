@@ -0,0 +1,74 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.context.TumblingWindow;
+import com.mackenzieresearch.roux.kernel.*;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Feeds a stock's trades into a tumbling window of <barWidth> ticks.  Each time a trade lands past the end of the
+ * current bar, the window closes it onto <channel>_bar_closed, where OHLCVBarRule picks it up.
+ */
+public class BarWindowRule extends DefaultCARule<StockTradeEvent> {
+  String _channelName = null;
+  int _event = -1;
+  int _window = -1;
+
+  public BarWindowRule(String stockChannelName, long barWidth) {
+    assertNotNull(stockChannelName);
+    assertTrue(barWidth > 0);
+    _channelName = stockChannelName;
+    _event = addVariable(new Variable<StockTradeEvent>(_channelName, null));
+
+    String closedChannelName = _channelName + "_bar_closed";
+    _window = addOptionalVariable(new TumblingWindow<StockTradeEvent>(_channelName + "_bar_window", closedChannelName, barWidth));
+    //  Declared here too, so that the window can return its closes thru this rule's context...
+    addOptionalVariable(new Variable<WindowClose<StockTradeEvent>>(closedChannelName, null));
+  }
+
+  @Override
+  public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+    StockTradeEvent event = (StockTradeEvent) context.bindValue(_event);
+    return event != null && _channelName.equalsIgnoreCase(event.getSymbol());
+  }
+
+  @Override
+  public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+    StockTradeEvent event = (StockTradeEvent) context.bindValue(_event);
+    IWindow<StockTradeEvent> window = (IWindow<StockTradeEvent>) context.getMonad(_window);
+    window.append(event.getTimeTick(), event, context);
+  }
+}
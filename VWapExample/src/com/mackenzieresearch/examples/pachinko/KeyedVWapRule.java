@@ -0,0 +1,96 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.*;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * VWAP for every symbol on a single trade channel.  Where VWapRule needs a channel and a rule per symbol, and
+ * would have to compare symbols in its condition to share a channel, this rule fires for every trade and
+ * updates only the trading symbol's slot in a VWapBook.
+ *
+ * The book is published as <channel>_vwaps.
+ */
+public class KeyedVWapRule extends DefaultCARule<StockTradeEvent> {
+  String _channelName = null;
+  long _windowSize = 0;
+  int _event = -1;
+  int _book = -1;
+
+  public KeyedVWapRule(String tradeChannelName, long windowSize) {
+    assertNotNull(tradeChannelName);
+    _channelName = tradeChannelName;
+    _event = addVariable(new Variable<StockTradeEvent>(_channelName, null));
+
+    assertTrue(windowSize > 0);
+    _windowSize = windowSize;
+
+    _book = addOptionalVariable(new VWapBook(_channelName + "_vwaps"));
+  }
+
+  @Override
+  public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+    return context.bindValue(_event) != null;
+  }
+
+  @Override
+  public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+    StockTradeEvent event = (StockTradeEvent) context.bindValue(_event);
+    VWapBook book = (VWapBook) context.getMonad(_book);
+    int id = book.intern(event.getSymbol());
+    TradeWindow window = book.getWindow(id);
+    int volume = book.getVolume(id);
+    double total = book.getTotal(id);
+
+    //  Same sliding calculation as VWapRule, but only over this symbol's slot...
+    long horizon = event.getTimeTick() - _windowSize;
+    while (!window.isEmpty(context) && window.timeTickAt(0) <= horizon) {
+      int shares = window.sharesAt(0);
+      volume = volume - shares;
+      total = total - (shares * window.priceAt(0));
+      window.dropOldest(context);
+    }
+
+    boolean late = window.isLate(event.getTimeTick());
+    window.append(event.getTimeTick(), event.getShares(), event.getSharePrice(), context);
+    if (!late) {
+      volume = volume + event.getShares();
+      total = total + (event.getShares() * event.getSharePrice());
+    }
+
+    book.update(id, volume, total, total / volume, context);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.*;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Turns each closed bar window on <channel>_bar_closed into an OHLCV Bar on <channel>_bar.  Tumbling windows close
+ * at most one bar per trade; should several arrive chained together, the newest one is what's returned.
+ */
+public class OHLCVBarRule extends DefaultCARule<StockTradeEvent> {
+  String _channelName = null;
+  int _closed = -1;
+  int _bar = -1;
+
+  public OHLCVBarRule(String stockChannelName) {
+    assertNotNull(stockChannelName);
+    _channelName = stockChannelName;
+    _closed = addVariable(new Variable<WindowClose<StockTradeEvent>>(_channelName + "_bar_closed", null));
+    _bar = addOptionalVariable(new Variable<Bar>(_channelName + "_bar", null));
+  }
+
+  @Override
+  public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+    return context.bindValue(_closed) != null;
+  }
+
+  @Override
+  public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+    WindowClose<StockTradeEvent> close = (WindowClose<StockTradeEvent>) context.bindValue(_closed);
+    Bar bar = null;
+    for (; close != null; close = close.next)
+      bar = _toBar(close);
+
+    if (bar != null)
+      context.returnValue(_bar, bar);
+  }
+
+  private Bar _toBar(WindowClose<StockTradeEvent> close) {
+    double open = close.events.get(0).event.getSharePrice();
+    double high = open;
+    double low = open;
+    double price = open;
+    long volume = 0;
+    for (EventTick<StockTradeEvent> tick : close.events) {
+      price = tick.event.getSharePrice();
+      high = Math.max(high, price);
+      low = Math.min(low, price);
+      volume = volume + tick.event.getShares();
+    }
+
+    return new Bar(_channelName, close.start, close.end, open, high, low, price, volume);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Fixed-point prices: a price is carried as a long count of ticks, each 10^-decimals of a currency unit.  Adding
+ * and subtracting ticks is exact, so totals maintained over a sliding window never drift the way doubles do.
+ */
+public class PriceScale {
+  public static final PriceScale CENTS = new PriceScale(2);
+  public static final PriceScale BASIS_POINTS = new PriceScale(4);
+
+  private int _decimals = 0;
+  private long _ticksPerUnit = 1;
+
+  public PriceScale(int decimals) {
+    assertTrue(decimals >= 0 && decimals <= 9, "Price scale must be 0 to 9 decimal places");
+    _decimals = decimals;
+    for (int i = 0; i < decimals; i++)
+      _ticksPerUnit = _ticksPerUnit * 10;
+  }
+
+  public int getDecimals() {
+    return _decimals;
+  }
+
+  public long getTicksPerUnit() {
+    return _ticksPerUnit;
+  }
+
+  /**
+   * Nearest tick to <price>.
+   */
+  public long toTicks(double price) {
+    return Math.round(price * _ticksPerUnit);
+  }
+
+  public double toPrice(long ticks) {
+    return (double) ticks / _ticksPerUnit;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof PriceScale && ((PriceScale) other)._decimals == _decimals;
+  }
+
+  @Override
+  public int hashCode() {
+    return _decimals;
+  }
+
+  /**
+   * <dividend> / <divisor> rounded half away from zero, e.g. a notional in ticks over a volume to get a price.
+   */
+  public static long divide(long dividend, long divisor) {
+    long half = divisor / 2;
+    if ((dividend < 0) != (divisor < 0))
+      return (dividend - half) / divisor;
+    else
+      return (dividend + half) / divisor;
+  }
+}
@@ -30,11 +30,46 @@
 
 package com.mackenzieresearch.examples.pachinko;
 
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+
 public class StockTradeEvent {
+  /**
+   * Saves trades held in variables and windows in a RuleSystemSnapshot.  Flyweights are saved as plain trades.
+   */
+  public static final ISnapshotable.ICodec<StockTradeEvent> SNAPSHOT_CODEC = new ISnapshotable.ICodec<StockTradeEvent>() {
+    @Override
+    public void write(StockTradeEvent event, ISnapshotWriter out) {
+      PriceScale scale = event.getPriceScale();
+      out.putLong(event.getTimeTick());
+      out.putString(event.getSymbol());
+      out.putInt(event.getShares());
+      out.putInt(scale == null ? -1 : scale.getDecimals());
+      if (scale == null)
+        out.putDouble(event.getSharePrice());
+      else
+        out.putLong(event.getPriceTicks(scale));
+    }
+
+    @Override
+    public StockTradeEvent read(ISnapshotReader in) {
+      long timeTick = in.getLong();
+      String symbol = in.getString();
+      int shares = in.getInt();
+      int decimals = in.getInt();
+      if (decimals < 0)
+        return new StockTradeEvent(timeTick, symbol, shares, in.getDouble());
+      return new StockTradeEvent(timeTick, symbol, shares, in.getLong(), new PriceScale(decimals));
+    }
+  };
+
   private long _timeTick = 0;
   private String _symbol = null;
   private int _shares = 0;
   private double _sharePrice = 0;
+  private long _priceTicks = 0;
+  private PriceScale _priceScale = null;
 
   public StockTradeEvent(long timeTick, String symbol, int shares, double price) {
     _timeTick = timeTick;
@@ -43,6 +78,18 @@ public class StockTradeEvent {
     _sharePrice = price;
   }
 
+  /**
+   * A trade priced in fixed point: <priceTicks> ticks at <priceScale>.
+   */
+  public StockTradeEvent(long timeTick, String symbol, int shares, long priceTicks, PriceScale priceScale) {
+    _timeTick = timeTick;
+    _symbol = symbol;
+    _shares = shares;
+    _priceTicks = priceTicks;
+    _priceScale = priceScale;
+    _sharePrice = priceScale.toPrice(priceTicks);
+  }
+
   public long getTimeTick() {
     return _timeTick;
   }
@@ -58,4 +105,20 @@ public class StockTradeEvent {
   public double getSharePrice() {
     return _sharePrice;
   }
+
+  /**
+   * The scale this trade was priced at, or null if it was priced as a double.
+   */
+  public PriceScale getPriceScale() {
+    return _priceScale;
+  }
+
+  /**
+   * Price in ticks at <scale>: exact if the trade was priced at that scale, otherwise rounded to the nearest tick.
+   */
+  public long getPriceTicks(PriceScale scale) {
+    if (scale.equals(_priceScale))
+      return _priceTicks;
+    return scale.toTicks(_sharePrice);
+  }
 }
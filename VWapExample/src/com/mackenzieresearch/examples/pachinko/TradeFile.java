@@ -0,0 +1,87 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a binary trade file: a 32 byte header followed by fixed-width 32 byte records, little-endian.
+ *
+ * Header:  int magic, int version, int price scale decimals, int record size, long record count, long unused
+ * Record:  long time tick, 8 bytes of ASCII symbol (NUL padded), int shares, int unused, long price in ticks
+ */
+public class TradeFile {
+  public static final int MAGIC = 0x52544B50;
+  public static final int VERSION = 1;
+  public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  public static final int HEADER_SIZE = 32;
+  public static final int HEADER_MAGIC = 0;
+  public static final int HEADER_VERSION = 4;
+  public static final int HEADER_DECIMALS = 8;
+  public static final int HEADER_RECORD_SIZE = 12;
+  public static final int HEADER_RECORD_COUNT = 16;
+
+  public static final int RECORD_SIZE = 32;
+  public static final int RECORD_TIME_TICK = 0;
+  public static final int RECORD_SYMBOL = 8;
+  public static final int RECORD_SHARES = 16;
+  public static final int RECORD_PRICE = 24;
+
+  public static final int MAX_SYMBOL_LENGTH = 8;
+
+  /**
+   * Pack a symbol of up to 8 ASCII characters into the long it's stored as.
+   */
+  public static long packSymbol(String symbol) {
+    if (symbol.length() > MAX_SYMBOL_LENGTH)
+      throw new IllegalArgumentException("Symbol " + symbol + " is longer than " + MAX_SYMBOL_LENGTH + " characters.");
+    long packed = 0;
+    for (int i = 0; i < symbol.length(); i++) {
+      char c = symbol.charAt(i);
+      if (c == 0 || c > 127)
+        throw new IllegalArgumentException("Symbol " + symbol + " isn't printable ASCII.");
+      packed = packed | ((long) c << (i * 8));
+    }
+    return packed;
+  }
+
+  public static String unpackSymbol(long packed) {
+    StringBuilder symbol = new StringBuilder(MAX_SYMBOL_LENGTH);
+    for (int i = 0; i < MAX_SYMBOL_LENGTH; i++) {
+      char c = (char) ((packed >>> (i * 8)) & 0xFF);
+      if (c == 0)
+        break;
+      symbol.append(c);
+    }
+    return symbol.toString();
+  }
+}
@@ -0,0 +1,301 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Replays a TradeFile into a CARuleSystem.  The file is memory-mapped and each record is handed to the rule system
+ * as a flyweight StockTradeEvent reading straight out of the mapping, so there is no parsing and no allocation per
+ * trade.  Records are pushed either as fast as the rules will take them, or paced to their recorded time ticks.
+ *
+ * The flyweight is reused for the next record as soon as the rule system has executed its activations, so rules
+ * must copy out anything they keep: TradeWindow does, windows holding event objects don't.
+ *
+ * @author corwyn
+ */
+public class TradeFileReplay implements Closeable {
+  //  Largest whole number of records that fits a single mapping...
+  protected static final long REGION_SIZE = (Integer.MAX_VALUE / TradeFile.RECORD_SIZE) * (long) TradeFile.RECORD_SIZE;
+  protected static final long SPIN_NANOS = 50000;
+
+  protected FileChannel _channel = null;
+  protected PriceScale _priceScale = null;
+  protected long _recordCount = 0;
+  protected MappedByteBuffer[] _regions = null;
+  protected TradeRecord _record = new TradeRecord();
+  protected SymbolTable _symbols = new SymbolTable();
+
+  public TradeFileReplay(Path path) throws IOException {
+    assertNotNull(path);
+    _channel = FileChannel.open(path, StandardOpenOption.READ);
+
+    ByteBuffer header = ByteBuffer.allocate(TradeFile.HEADER_SIZE).order(TradeFile.BYTE_ORDER);
+    while (header.hasRemaining())
+      if (_channel.read(header, header.position()) < 0)
+        throw new IOException(path + " is too short to be a trade file.");
+    if (header.getInt(TradeFile.HEADER_MAGIC) != TradeFile.MAGIC || header.getInt(TradeFile.HEADER_VERSION) != TradeFile.VERSION
+            || header.getInt(TradeFile.HEADER_RECORD_SIZE) != TradeFile.RECORD_SIZE)
+      throw new IOException(path + " isn't a version " + TradeFile.VERSION + " trade file.");
+    _priceScale = new PriceScale(header.getInt(TradeFile.HEADER_DECIMALS));
+    _recordCount = header.getLong(TradeFile.HEADER_RECORD_COUNT);
+    if (_channel.size() < TradeFile.HEADER_SIZE + (_recordCount * TradeFile.RECORD_SIZE))
+      throw new IOException(path + " is truncated.");
+
+    long bytes = _recordCount * TradeFile.RECORD_SIZE;
+    _regions = new MappedByteBuffer[(int) ((bytes + REGION_SIZE - 1) / REGION_SIZE)];
+    for (int i = 0; i < _regions.length; i++) {
+      long start = i * REGION_SIZE;
+      _regions[i] = _channel.map(FileChannel.MapMode.READ_ONLY, TradeFile.HEADER_SIZE + start, Math.min(REGION_SIZE, bytes - start));
+      _regions[i].order(TradeFile.BYTE_ORDER);
+    }
+  }
+
+  public PriceScale getPriceScale() {
+    return _priceScale;
+  }
+
+  public long getRecordCount() {
+    return _recordCount;
+  }
+
+  /**
+   * The <index>th record, as the shared flyweight.
+   */
+  public StockTradeEvent read(long index) {
+    assertTrue(index >= 0 && index < _recordCount, "No record " + index);
+    long position = index * TradeFile.RECORD_SIZE;
+    return _record.at(_regions[(int) (position / REGION_SIZE)], (int) (position % REGION_SIZE));
+  }
+
+  /**
+   * Push every record into <channelName> as fast as the rule system will take them, executing activations after
+   * each.  With a null <channelName> each trade goes to the channel named for its symbol, and trades for symbols
+   * the rule system has no channel for are skipped.  Returns the number of trades pushed.
+   */
+  public long replay(CARuleSystem<StockTradeEvent> ruleSystem, String channelName) {
+    return replay(ruleSystem, channelName, 0);
+  }
+
+  /**
+   * As replay(), but paced so that trades go in <nanosPerTick> apart per tick of recorded time.  Zero means don't
+   * pace at all.
+   */
+  public long replay(CARuleSystem<StockTradeEvent> ruleSystem, String channelName, long nanosPerTick) {
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int channelIndex = -1;
+    if (channelName != null) {
+      channelIndex = context.getIndex(channelName);
+      assertTrue(channelIndex >= 0, "Rule system has no channel " + channelName);
+    }
+    _symbols.clear();
+
+    long pushed = 0;
+    long firstTick = 0;
+    long startNanos = System.nanoTime();
+    for (int region = 0; region < _regions.length; region++) {
+      MappedByteBuffer buffer = _regions[region];
+      for (int offset = 0; offset < buffer.limit(); offset += TradeFile.RECORD_SIZE) {
+        TradeRecord record = _record.at(buffer, offset);
+        if (nanosPerTick > 0) {
+          if (region == 0 && offset == 0)
+            firstTick = record.getTimeTick();
+          _waitUntil(startNanos + ((record.getTimeTick() - firstTick) * nanosPerTick));
+        }
+
+        int index = channelIndex >= 0 ? channelIndex : _symbols.channelIndex(record.getPackedSymbol(), context);
+        if (index < 0)
+          continue;
+        context.returnValue(index, record);
+        ruleSystem.executeActivations();
+        pushed = pushed + 1;
+      }
+    }
+    return pushed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    //  The mappings stay valid until they're collected; dropping them is all we can do...
+    _regions = new MappedByteBuffer[0];
+    _channel.close();
+  }
+
+  protected void _waitUntil(long dueNanos) {
+    long remaining = dueNanos - System.nanoTime();
+    while (remaining > 0) {
+      //  Park thru long gaps, but spin out the last stretch since parking overshoots...
+      if (remaining > SPIN_NANOS)
+        LockSupport.parkNanos(remaining - SPIN_NANOS);
+      remaining = dueNanos - System.nanoTime();
+    }
+  }
+
+  /**
+   * Flyweight over one record of the mapping.
+   */
+  protected class TradeRecord extends StockTradeEvent {
+    private ByteBuffer _buffer = null;
+    private int _offset = 0;
+
+    public TradeRecord() {
+      super(0, null, 0, 0);
+    }
+
+    protected TradeRecord at(ByteBuffer buffer, int offset) {
+      _buffer = buffer;
+      _offset = offset;
+      return this;
+    }
+
+    public long getPackedSymbol() {
+      return _buffer.getLong(_offset + TradeFile.RECORD_SYMBOL);
+    }
+
+    @Override
+    public long getTimeTick() {
+      return _buffer.getLong(_offset + TradeFile.RECORD_TIME_TICK);
+    }
+
+    @Override
+    public String getSymbol() {
+      return _symbols.symbol(getPackedSymbol());
+    }
+
+    @Override
+    public int getShares() {
+      return _buffer.getInt(_offset + TradeFile.RECORD_SHARES);
+    }
+
+    @Override
+    public double getSharePrice() {
+      return _priceScale.toPrice(_buffer.getLong(_offset + TradeFile.RECORD_PRICE));
+    }
+
+    @Override
+    public PriceScale getPriceScale() {
+      return _priceScale;
+    }
+
+    @Override
+    public long getPriceTicks(PriceScale scale) {
+      if (scale.equals(_priceScale))
+        return _buffer.getLong(_offset + TradeFile.RECORD_PRICE);
+      return scale.toTicks(getSharePrice());
+    }
+  }
+
+  /**
+   * Packed symbols to their Strings and channel indexes, open addressed so that looking one up doesn't box.
+   */
+  protected static class SymbolTable {
+    private static final int UNRESOLVED = -2;
+
+    private long[] _keys = new long[256];
+    private String[] _symbols = new String[256];
+    private int[] _channelIndexes = new int[256];
+    private boolean[] _used = new boolean[256];
+    private int _size = 0;
+
+    public void clear() {
+      java.util.Arrays.fill(_used, false);
+      java.util.Arrays.fill(_symbols, null);
+      _size = 0;
+    }
+
+    public String symbol(long packed) {
+      return _symbols[_slot(packed, null)];
+    }
+
+    public int channelIndex(long packed, IReadWriteMonadex context) {
+      int slot = _slot(packed, context);
+      if (_channelIndexes[slot] == UNRESOLVED)
+        _channelIndexes[slot] = context.getIndex(_symbols[slot]);
+      return _channelIndexes[slot];
+    }
+
+    private int _slot(long packed, IReadWriteMonadex context) {
+      int mask = _keys.length - 1;
+      int slot = (int) ((packed * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+      while (_used[slot]) {
+        if (_keys[slot] == packed)
+          return slot;
+        slot = (slot + 1) & mask;
+      }
+
+      if ((_size + 1) * 2 > _keys.length) {
+        _grow();
+        return _slot(packed, context);
+      }
+      String symbol = TradeFile.unpackSymbol(packed);
+      _used[slot] = true;
+      _keys[slot] = packed;
+      _symbols[slot] = symbol;
+      _channelIndexes[slot] = context == null ? UNRESOLVED : context.getIndex(symbol);
+      _size = _size + 1;
+      return slot;
+    }
+
+    private void _grow() {
+      long[] keys = _keys;
+      String[] symbols = _symbols;
+      int[] channelIndexes = _channelIndexes;
+      boolean[] used = _used;
+      _keys = new long[keys.length * 2];
+      _symbols = new String[keys.length * 2];
+      _channelIndexes = new int[keys.length * 2];
+      _used = new boolean[keys.length * 2];
+      for (int i = 0; i < keys.length; i++)
+        if (used[i]) {
+          int slot = (int) ((keys[i] * 0x9E3779B97F4A7C15L) >>> 40) & (_keys.length - 1);
+          while (_used[slot])
+            slot = (slot + 1) & (_keys.length - 1);
+          _used[slot] = true;
+          _keys[slot] = keys[i];
+          _symbols[slot] = symbols[i];
+          _channelIndexes[slot] = channelIndexes[i];
+        }
+    }
+  }
+}
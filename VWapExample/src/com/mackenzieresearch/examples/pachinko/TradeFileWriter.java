@@ -0,0 +1,128 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Writes trades to a TradeFile thru a memory-mapped region that's remapped further along the file as it fills.
+ * The record count goes into the header, and the file is trimmed to its records, when the writer is closed.
+ */
+public class TradeFileWriter implements Closeable {
+  protected static final long REGION_SIZE = 64L * 1024 * 1024;
+
+  protected FileChannel _channel = null;
+  protected PriceScale _priceScale = null;
+  protected MappedByteBuffer _region = null;
+  protected long _regionStart = 0;
+  protected long _recordCount = 0;
+
+  public TradeFileWriter(Path path, PriceScale priceScale) throws IOException {
+    assertNotNull(path);
+    assertNotNull(priceScale);
+    _priceScale = priceScale;
+    _channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    _map(0);
+  }
+
+  public PriceScale getPriceScale() {
+    return _priceScale;
+  }
+
+  public long getRecordCount() {
+    return _recordCount;
+  }
+
+  public void write(StockTradeEvent event) throws IOException {
+    write(event.getTimeTick(), event.getSymbol(), event.getShares(), event.getPriceTicks(_priceScale));
+  }
+
+  public void write(long timeTick, String symbol, int shares, long priceTicks) throws IOException {
+    write(timeTick, TradeFile.packSymbol(symbol), shares, priceTicks);
+  }
+
+  /**
+   * Write a trade whose symbol is already packed, which is what writing at full speed wants.
+   */
+  public void write(long timeTick, long packedSymbol, int shares, long priceTicks) throws IOException {
+    long position = TradeFile.HEADER_SIZE + (_recordCount * TradeFile.RECORD_SIZE);
+    if (position + TradeFile.RECORD_SIZE > _regionStart + REGION_SIZE) {
+      _region.force();
+      _map(position);
+    }
+
+    int offset = (int) (position - _regionStart);
+    _region.putLong(offset + TradeFile.RECORD_TIME_TICK, timeTick);
+    _region.putLong(offset + TradeFile.RECORD_SYMBOL, packedSymbol);
+    _region.putInt(offset + TradeFile.RECORD_SHARES, shares);
+    _region.putLong(offset + TradeFile.RECORD_PRICE, priceTicks);
+    _recordCount = _recordCount + 1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (_channel == null)
+      return;
+
+    _region.force();
+    _region = null;
+
+    ByteBuffer header = ByteBuffer.allocate(TradeFile.HEADER_SIZE).order(TradeFile.BYTE_ORDER);
+    header.putInt(TradeFile.HEADER_MAGIC, TradeFile.MAGIC);
+    header.putInt(TradeFile.HEADER_VERSION, TradeFile.VERSION);
+    header.putInt(TradeFile.HEADER_DECIMALS, _priceScale.getDecimals());
+    header.putInt(TradeFile.HEADER_RECORD_SIZE, TradeFile.RECORD_SIZE);
+    header.putLong(TradeFile.HEADER_RECORD_COUNT, _recordCount);
+    while (header.hasRemaining())
+      _channel.write(header, header.position());
+
+    //  Mapping grew the file a region at a time; trim it back to the records actually written...
+    _channel.truncate(TradeFile.HEADER_SIZE + (_recordCount * TradeFile.RECORD_SIZE));
+    _channel.force(true);
+    _channel.close();
+    _channel = null;
+  }
+
+  protected void _map(long position) throws IOException {
+    _regionStart = position;
+    _region = _channel.map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE);
+    _region.order(TradeFile.BYTE_ORDER);
+  }
+}
@@ -0,0 +1,503 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.roux.context.EventTime;
+import com.mackenzieresearch.roux.context.Monad;
+import com.mackenzieresearch.roux.kernel.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static util.RuntimeAssertion.assertNotNull;
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * A sliding window of trades for one symbol, stored column-wise in direct (off-heap) buffers rather than as
+ * StockTradeEvent objects.  Time ticks, shares and prices each get their own column laid out as a circular
+ * buffer, so a window of millions of trades is three buffers for the GC instead of millions of objects.
+ *
+ * Prices are kept as doubles, or, if the window is given a PriceScale, as fixed-point ticks that priceTicksAt()
+ * reads back exactly.
+ *
+ * Trades are kept in time order, a late one being inserted where it belongs.  With eventTime() set, the window
+ * tracks a watermark just as RingWindow does, and trades behind it go to a side channel instead of into the
+ * columns, which bounds how far back an insert can reach.
+ *
+ * Aggregating rules should read the columns thru timeTickAt()/sharesAt()/priceAt() and slide the window with
+ * dropOldest().  The IWindow methods that hand back a StockTradeEvent (oldest, removeOldest) return a single
+ * reused flyweight that's only valid until the next call; expire() and the bound collection build real
+ * events for generic callers.
+ *
+ * @author corwyn
+ */
+public class TradeWindow extends Monad<Collection<EventTick<StockTradeEvent>>> implements IWindow<StockTradeEvent>, ISnapshotable {
+  protected String _symbol = null;
+  protected ByteBuffer _timeTicks = null;
+  protected ByteBuffer _shares = null;
+  protected ByteBuffer _prices = null;
+  protected int _capacity = 0;
+  protected int _mask = 0;
+  protected int _head = 0;
+  protected int _size = 0;
+  protected boolean _growable = true;
+  protected PriceScale _priceScale = null;
+  protected EventTime<StockTradeEvent> _eventTime = new EventTime<StockTradeEvent>();
+  protected TradeCursor _cursor = new TradeCursor();
+  protected List<IWindowObserver<StockTradeEvent>> _windowObservers = new ArrayList<IWindowObserver<StockTradeEvent>>();
+
+  public TradeWindow(String name, String symbol) {
+    this(name, symbol, 1024, true);
+  }
+
+  public TradeWindow(String name, String symbol, int initialCapacity, boolean growable) {
+    this(name, symbol, initialCapacity, growable, null);
+  }
+
+  /**
+   * A window keeping its prices as ticks at <priceScale>, or as doubles if that's null.
+   */
+  public TradeWindow(String name, String symbol, int initialCapacity, boolean growable, PriceScale priceScale) {
+    super(name);
+    assertNotNull(symbol);
+    assertTrue(initialCapacity > 0 && (initialCapacity & (initialCapacity - 1)) == 0,
+            "Window capacity must be a power of two");
+    _symbol = symbol;
+    _growable = growable;
+    _priceScale = priceScale;
+    _allocate(initialCapacity);
+    _value = new TradeView();
+  }
+
+  public String getSymbol() {
+    return _symbol;
+  }
+
+  public int capacity() {
+    return _capacity;
+  }
+
+  public PriceScale getPriceScale() {
+    return _priceScale;
+  }
+
+  /**
+   * Track event time, accepting trades up to <allowedLateness> ticks behind the newest one seen.  See
+   * EventTime.track().
+   */
+  public TradeWindow eventTime(long allowedLateness, String watermarkName, String lateChannelName) {
+    _eventTime.track(allowedLateness, watermarkName, lateChannelName);
+    return this;
+  }
+
+  public long getWatermark() {
+    return _eventTime.getWatermark();
+  }
+
+  public long getLateCount() {
+    return _eventTime.getLateCount();
+  }
+
+  /**
+   * Whether a trade at <timeTick> would be turned away rather than appended.  Rules keeping running totals over
+   * the window ask before adding a trade in.
+   */
+  public boolean isLate(long timeTick) {
+    return _eventTime.isLate(timeTick);
+  }
+
+  @Override
+  public int size(IMonadex<? extends IMonad> context) {
+    return _size;
+  }
+
+  @Override
+  public boolean isEmpty(IMonadex<? extends IMonad> context) {
+    return _size == 0;
+  }
+
+  @Override
+  public void clear() {
+    _head = 0;
+    _size = 0;
+    _eventTime.clear();
+    for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+      observer.cleared();
+  }
+
+  @Override
+  public void append(long timeTick, StockTradeEvent event, IMonadex<? extends IMonad> context) {
+    if (_eventTime.isLate(timeTick)) {
+      _eventTime.late(timeTick, event, context);
+      return;
+    }
+
+    _append(timeTick, event.getShares(), _priceScale == null ? Double.doubleToRawLongBits(event.getSharePrice())
+            : event.getPriceTicks(_priceScale));
+    for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+      observer.appended(timeTick, event, context);
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    _eventTime.advance(timeTick, context);
+  }
+
+  /**
+   * Append a trade straight from its fields, for sources that never build a StockTradeEvent.
+   */
+  public void append(long timeTick, int shares, double price, IMonadex<? extends IMonad> context) {
+    _appendRow(timeTick, shares, _priceScale == null ? Double.doubleToRawLongBits(price) : _priceScale.toTicks(price), context);
+  }
+
+  /**
+   * Append a trade priced in ticks at this window's scale.
+   */
+  public void appendTicks(long timeTick, int shares, long priceTicks, IMonadex<? extends IMonad> context) {
+    if (_priceScale == null)
+      throw new IllegalStateException("Window " + getName() + " keeps its prices as doubles.");
+    _appendRow(timeTick, shares, priceTicks, context);
+  }
+
+  protected void _appendRow(long timeTick, int shares, long price, IMonadex<? extends IMonad> context) {
+    //  Too late for the columns, so the side channel gets a real event...
+    if (_eventTime.isLate(timeTick)) {
+      _eventTime.late(timeTick, _newEvent(timeTick, shares, price), context);
+      return;
+    }
+
+    _append(timeTick, shares, price);
+    if (!_windowObservers.isEmpty()) {
+      _cursor.at(_indexOf(timeTick));
+      for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+        observer.appended(timeTick, _cursor, context);
+    }
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    _eventTime.advance(timeTick, context);
+  }
+
+  //  The price column holds either ticks or the raw bits of a double, 8 bytes a row either way...
+  protected void _append(long timeTick, int shares, long price) {
+    if (_size == _capacity) {
+      if (!_growable)
+        throw new IllegalStateException("Window " + getName() + " is full at " + _capacity + " trades.");
+      _grow();
+    }
+
+    //  An out-of-order trade goes in after everything no newer than it, shifting the newer ones up a row...
+    int position = _size;
+    while (position > 0 && timeTickAt(position - 1) > timeTick) {
+      int from = (_head + position - 1) & _mask;
+      int to = (_head + position) & _mask;
+      _timeTicks.putLong(to << 3, _timeTicks.getLong(from << 3));
+      _shares.putInt(to << 2, _shares.getInt(from << 2));
+      _prices.putLong(to << 3, _prices.getLong(from << 3));
+      position = position - 1;
+    }
+
+    int slot = (_head + position) & _mask;
+    _timeTicks.putLong(slot << 3, timeTick);
+    _shares.putInt(slot << 2, shares);
+    _prices.putLong(slot << 3, price);
+    _size = _size + 1;
+  }
+
+  /**
+   * Index of the newest row at <timeTick>, which is where the trade just appended at that tick went.
+   */
+  protected int _indexOf(long timeTick) {
+    int index = _size - 1;
+    while (index > 0 && timeTickAt(index) > timeTick)
+      index = index - 1;
+    return index;
+  }
+
+  @Override
+  public Collection<EventTick<StockTradeEvent>> expire(long timeTick, IMonadex<? extends IMonad> context) {
+    Collection<EventTick<StockTradeEvent>> expired = new ArrayList<EventTick<StockTradeEvent>>();
+    while (_size > 0 && timeTickAt(0) <= timeTick) {
+      EventTick<StockTradeEvent> tick = new EventTick<StockTradeEvent>(timeTickAt(0), _newEvent(0));
+      expired.add(tick);
+      _head = (_head + 1) & _mask;
+      _size = _size - 1;
+      for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+        observer.expired(tick.timeTick, tick.event, context);
+    }
+
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    return expired;
+  }
+
+  @Override
+  public long oldestTimeTick(IMonadex<? extends IMonad> context) {
+    return timeTickAt(0);
+  }
+
+  @Override
+  public StockTradeEvent oldest(IMonadex<? extends IMonad> context) {
+    if (_size == 0)
+      return null;
+    return _cursor.at(0);
+  }
+
+  @Override
+  public StockTradeEvent removeOldest(IMonadex<? extends IMonad> context) {
+    if (_size == 0)
+      return null;
+    _cursor.at(0);
+    dropOldest(context);
+    return _cursor;
+  }
+
+  /**
+   * Remove the oldest trade without materializing it.
+   */
+  public void dropOldest(IMonadex<? extends IMonad> context) {
+    if (_size == 0)
+      return;
+    if (!_windowObservers.isEmpty())
+      _cursor.at(0);
+    _head = (_head + 1) & _mask;
+    _size = _size - 1;
+    for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+      observer.expired(_cursor.getTimeTick(), _cursor, context);
+
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+  }
+
+  /**
+   * Time tick of the <index>th oldest trade, 0 being the oldest.
+   */
+  public long timeTickAt(int index) {
+    assert (index >= 0 && index < _size);
+    return _timeTicks.getLong(((_head + index) & _mask) << 3);
+  }
+
+  public int sharesAt(int index) {
+    assert (index >= 0 && index < _size);
+    return _shares.getInt(((_head + index) & _mask) << 2);
+  }
+
+  public double priceAt(int index) {
+    assert (index >= 0 && index < _size);
+    long price = _prices.getLong(((_head + index) & _mask) << 3);
+    return _priceScale == null ? Double.longBitsToDouble(price) : _priceScale.toPrice(price);
+  }
+
+  /**
+   * Price of the <index>th oldest trade in ticks.  Only for windows that keep their prices at a PriceScale.
+   */
+  public long priceTicksAt(int index) {
+    assert (index >= 0 && index < _size);
+    if (_priceScale == null)
+      throw new IllegalStateException("Window " + getName() + " keeps its prices as doubles.");
+    return _prices.getLong(((_head + index) & _mask) << 3);
+  }
+
+  @Override
+  public void addWindowObserver(IWindowObserver<StockTradeEvent> observer) {
+    _windowObservers.add(observer);
+  }
+
+  /**
+   * Rows are saved column by column as they stand, prices in whichever form the window keeps them, followed by
+   * the state of each observer.  Restoring puts both back without replaying the rows.
+   */
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putInt(_capacity);
+    out.putInt(_priceScale == null ? -1 : _priceScale.getDecimals());
+    out.putInt(_size);
+    for (int i = 0; i < _size; i++) {
+      int slot = (_head + i) & _mask;
+      out.putLong(_timeTicks.getLong(slot << 3));
+      out.putInt(_shares.getInt(slot << 2));
+      out.putLong(_prices.getLong(slot << 3));
+    }
+    _eventTime.snapshot(out);
+    out.putInt(_windowObservers.size());
+    for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+      observer.snapshot(out);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    clear();
+    int capacity = in.getInt();
+    int decimals = in.getInt();
+    if (decimals != (_priceScale == null ? -1 : _priceScale.getDecimals()))
+      throw new IllegalStateException("Window " + getName() + " was saved with different prices");
+    if (capacity != _capacity)
+      _allocate(capacity);
+    _size = in.getInt();
+    for (int i = 0; i < _size; i++) {
+      _timeTicks.putLong(i << 3, in.getLong());
+      _shares.putInt(i << 2, in.getInt());
+      _prices.putLong(i << 3, in.getLong());
+    }
+    _eventTime.restore(in);
+    if (in.getInt() != _windowObservers.size())
+      throw new IllegalStateException("Window " + getName() + " was saved with different observers");
+    for (IWindowObserver<StockTradeEvent> observer : _windowObservers)
+      observer.restore(in);
+  }
+
+  protected StockTradeEvent _newEvent(int index) {
+    return _newEvent(timeTickAt(index), sharesAt(index), _prices.getLong(((_head + index) & _mask) << 3));
+  }
+
+  protected StockTradeEvent _newEvent(long timeTick, int shares, long price) {
+    if (_priceScale != null)
+      return new StockTradeEvent(timeTick, _symbol, shares, price, _priceScale);
+    return new StockTradeEvent(timeTick, _symbol, shares, Double.longBitsToDouble(price));
+  }
+
+  protected void _allocate(int capacity) {
+    _timeTicks = ByteBuffer.allocateDirect(capacity << 3).order(ByteOrder.nativeOrder());
+    _shares = ByteBuffer.allocateDirect(capacity << 2).order(ByteOrder.nativeOrder());
+    _prices = ByteBuffer.allocateDirect(capacity << 3).order(ByteOrder.nativeOrder());
+    _capacity = capacity;
+    _mask = capacity - 1;
+  }
+
+  protected void _grow() {
+    ByteBuffer timeTicks = _timeTicks;
+    ByteBuffer shares = _shares;
+    ByteBuffer prices = _prices;
+    int mask = _mask;
+
+    //  Unroll the ring into the front of the new columns...
+    _allocate(_capacity * 2);
+    for (int i = 0; i < _size; i++) {
+      int slot = (_head + i) & mask;
+      _timeTicks.putLong(i << 3, timeTicks.getLong(slot << 3));
+      _shares.putInt(i << 2, shares.getInt(slot << 2));
+      _prices.putLong(i << 3, prices.getLong(slot << 3));
+    }
+    _head = 0;
+  }
+
+  //  Flyweight over one row of the columns.  Reused, so only good until the window's next call...
+  protected class TradeCursor extends StockTradeEvent {
+    private long _cursorTimeTick = 0;
+    private int _cursorShares = 0;
+    private double _cursorPrice = 0;
+    private long _cursorPriceTicks = 0;
+
+    public TradeCursor() {
+      super(0, null, 0, 0);
+    }
+
+    protected TradeCursor at(int index) {
+      _cursorTimeTick = timeTickAt(index);
+      _cursorShares = sharesAt(index);
+      _cursorPrice = priceAt(index);
+      if (_priceScale != null)
+        _cursorPriceTicks = priceTicksAt(index);
+      return this;
+    }
+
+    @Override
+    public long getTimeTick() {
+      return _cursorTimeTick;
+    }
+
+    @Override
+    public String getSymbol() {
+      return _symbol;
+    }
+
+    @Override
+    public int getShares() {
+      return _cursorShares;
+    }
+
+    @Override
+    public double getSharePrice() {
+      return _cursorPrice;
+    }
+
+    @Override
+    public PriceScale getPriceScale() {
+      return _priceScale;
+    }
+
+    @Override
+    public long getPriceTicks(PriceScale scale) {
+      if (scale.equals(_priceScale))
+        return _cursorPriceTicks;
+      return scale.toTicks(_cursorPrice);
+    }
+  }
+
+  protected class TradeView extends AbstractCollection<EventTick<StockTradeEvent>> {
+    @Override
+    public Iterator<EventTick<StockTradeEvent>> iterator() {
+      return new Iterator<EventTick<StockTradeEvent>>() {
+        private int _index = 0;
+
+        @Override
+        public boolean hasNext() {
+          return _index < _size;
+        }
+
+        @Override
+        public EventTick<StockTradeEvent> next() {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          EventTick<StockTradeEvent> tick = new EventTick<StockTradeEvent>(timeTickAt(_index), _newEvent(_index));
+          _index = _index + 1;
+          return tick;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return _size;
+    }
+  }
+}
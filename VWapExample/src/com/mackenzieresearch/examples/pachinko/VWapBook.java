@@ -0,0 +1,177 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.examples.pachinko;
+
+import com.mackenzieresearch.roux.context.Monad;
+import com.mackenzieresearch.roux.kernel.IListener;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.ISnapshotable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-symbol VWAP state for a feed carrying every symbol on one channel.  Symbols are interned to dense int ids
+ * the first time they're seen, and everything kept per symbol lives in arrays indexed by that id, so a trade
+ * costs one hash lookup plus one slot update no matter how many symbols the feed carries.
+ *
+ * The book is its own value.  Listeners are told each time a symbol's slot is updated, and getLastUpdated()
+ * says which one it was.
+ *
+ * @author corwyn
+ */
+public class VWapBook extends Monad<VWapBook> implements ISnapshotable {
+  protected Map<String, Integer> _ids = new HashMap<String, Integer>();
+  protected String[] _symbols = new String[64];
+  protected TradeWindow[] _windows = new TradeWindow[64];
+  protected int[] _volumes = new int[64];
+  protected double[] _totals = new double[64];
+  protected double[] _vwaps = new double[64];
+  protected int _symbolCount = 0;
+  protected int _lastUpdated = -1;
+
+  public VWapBook(String name) {
+    super(name);
+    _value = this;
+  }
+
+  /**
+   * Id of <symbol>, assigning the next free one if it hasn't been seen before.
+   */
+  public int intern(String symbol) {
+    Integer id = _ids.get(symbol);
+    if (id != null)
+      return id;
+
+    if (_symbolCount == _symbols.length)
+      _grow();
+    int newId = _symbolCount;
+    _symbols[newId] = symbol;
+    //  Each symbol's window starts small; the busy ones grow their own...
+    _windows[newId] = new TradeWindow(getName() + "_" + symbol + "_window", symbol, 16, true);
+    _ids.put(symbol, newId);
+    _symbolCount = _symbolCount + 1;
+    return newId;
+  }
+
+  /**
+   * Id of <symbol>, or -1 if it hasn't been seen yet.
+   */
+  public int idOf(String symbol) {
+    Integer id = _ids.get(symbol);
+    return id == null ? -1 : id;
+  }
+
+  public String symbolOf(int id) {
+    return _symbols[id];
+  }
+
+  public int getSymbolCount() {
+    return _symbolCount;
+  }
+
+  public int getLastUpdated() {
+    return _lastUpdated;
+  }
+
+  public TradeWindow getWindow(int id) {
+    return _windows[id];
+  }
+
+  public int getVolume(int id) {
+    return _volumes[id];
+  }
+
+  public double getTotal(int id) {
+    return _totals[id];
+  }
+
+  public double getVWap(int id) {
+    return _vwaps[id];
+  }
+
+  public void update(int id, int volume, double total, double vwap, IMonadex<? extends IMonad> context) {
+    _volumes[id] = volume;
+    _totals[id] = total;
+    _vwaps[id] = vwap;
+    _lastUpdated = id;
+
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putInt(_symbolCount);
+    out.putInt(_lastUpdated);
+    for (int id = 0; id < _symbolCount; id++) {
+      out.putString(_symbols[id]);
+      out.putInt(_volumes[id]);
+      out.putDouble(_totals[id]);
+      out.putDouble(_vwaps[id]);
+      _windows[id].snapshot(out);
+    }
+  }
+
+  /**
+   * Symbols are interned again in their saved order, so every id means what it did when saved.
+   */
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    _ids.clear();
+    Arrays.fill(_symbols, null);
+    Arrays.fill(_windows, null);
+    _symbolCount = 0;
+
+    int symbolCount = in.getInt();
+    _lastUpdated = in.getInt();
+    for (int i = 0; i < symbolCount; i++) {
+      int id = intern(in.getString());
+      _volumes[id] = in.getInt();
+      _totals[id] = in.getDouble();
+      _vwaps[id] = in.getDouble();
+      _windows[id].restore(in, context);
+    }
+  }
+
+  protected void _grow() {
+    int capacity = _symbols.length * 2;
+    _symbols = Arrays.copyOf(_symbols, capacity);
+    _windows = Arrays.copyOf(_windows, capacity);
+    _volumes = Arrays.copyOf(_volumes, capacity);
+    _totals = Arrays.copyOf(_totals, capacity);
+    _vwaps = Arrays.copyOf(_vwaps, capacity);
+  }
+}
@@ -31,26 +31,53 @@
 package com.mackenzieresearch.examples.pachinko;
 
 import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.DoubleMonad;
+import com.mackenzieresearch.pachinko.ICARule;
+import com.mackenzieresearch.pachinko.IntMonad;
+import com.mackenzieresearch.pachinko.LongMonad;
+import com.mackenzieresearch.pachinko.TimerService;
 import com.mackenzieresearch.pachinko.Variable;
-import com.mackenzieresearch.roux.context.Window;
 import com.mackenzieresearch.roux.kernel.*;
 
 import java.nio.file.WatchEvent;
-import java.util.Collection;
 
 import static util.RuntimeAssertion.assertNotNull;
 import static util.RuntimeAssertion.assertTrue;
 
+/**
+ * Sliding-window VWAP over one stock's channel.  Given a PriceScale the rule runs in fixed point: the window keeps
+ * prices as ticks, and <channel>_total (the notional, shares times ticks) and <channel>_vwap (in ticks, rounded)
+ * are LongMonads, so the running total is exact however long the window slides.  Otherwise both are DoubleMonads.
+ */
 public class VWapRule extends DefaultCARule<StockTradeEvent> {
   String _channelName = null;
   long _windowSize = 0;
+  PriceScale _priceScale = null;
   int _event = -1;
   int _window = -1;
   int _volume = -1;
   int _total = -1;
   int _vwap = -1;
+  int _timers = -1;
+  ExpiryRule _expiryRule = null;
+  TimerService.Timer _expiry = null;
+  long _expiryDeadline = 0;
 
   public VWapRule(String stockChannelName, long windowSize) {
+    this(stockChannelName, windowSize, null);
+  }
+
+  public VWapRule(String stockChannelName, long windowSize, PriceScale priceScale) {
+    this(stockChannelName, windowSize, priceScale, false);
+  }
+
+  /**
+   * With <expireOnClock>, trades also leave the window as the rule system's clock passes them, whether or not
+   * another trade arrives.  The rule keeps a timer pending on <channel>_expiry for its oldest trade, and
+   * expiryRule(), which must be added to the same rule system, slides the window when it fires.  Trade time
+   * ticks are then taken to be in the clock's units.
+   */
+  public VWapRule(String stockChannelName, long windowSize, PriceScale priceScale, boolean expireOnClock) {
     assertNotNull(stockChannelName);
     _channelName = stockChannelName;
     _event = addVariable(new Variable<WatchEvent>(_channelName, null));
@@ -58,10 +85,29 @@ public class VWapRule extends DefaultCARule<StockTradeEvent> {
     assertTrue(windowSize > 0);
     _windowSize = windowSize;
 
-    _window = addOptionalVariable(new Window<StockTradeEvent>(_channelName + "_window"));
-    _volume = addOptionalVariable(new Variable<Integer>(_channelName + "_volume", 0));
-    _total = addOptionalVariable(new Variable<Double>(_channelName + "_total", 0.0));
-    _vwap = addOptionalVariable(new Variable<Double>(_channelName + "_vwap", 0.0));
+    _priceScale = priceScale;
+    _window = addOptionalVariable(new TradeWindow(_channelName + "_window", _channelName, 1024, true, priceScale));
+    //  Running aggregates are primitive monads so that updating them on every trade doesn't box...
+    _volume = addOptionalVariable(new IntMonad(_channelName + "_volume", 0));
+    if (priceScale == null) {
+      _total = addOptionalVariable(new DoubleMonad(_channelName + "_total", 0.0));
+      _vwap = addOptionalVariable(new DoubleMonad(_channelName + "_vwap", 0.0));
+    } else {
+      _total = addOptionalVariable(new LongMonad(_channelName + "_total", 0));
+      _vwap = addOptionalVariable(new LongMonad(_channelName + "_vwap", 0));
+    }
+
+    if (expireOnClock) {
+      _timers = addOptionalVariable(new Variable<TimerService>(TimerService.NAME, null));
+      _expiryRule = new ExpiryRule();
+    }
+  }
+
+  /**
+   * The companion rule that expires trades on the clock, or null unless this rule was built to expire on the clock.
+   */
+  public ICARule<StockTradeEvent> expiryRule() {
+    return _expiryRule;
   }
 
   @Override
@@ -77,28 +123,121 @@ public class VWapRule extends DefaultCARule<StockTradeEvent> {
   @Override
   public void doAction(IReadWriteMonadex<? extends IMonad> context) {
     StockTradeEvent event = (StockTradeEvent) context.bindValue(_event);
-    //  Get the monad for our sliding window because it's more efficient to do so than copy collections around:
-    IWindow<StockTradeEvent> window = (IWindow<StockTradeEvent>) context.getMonad(_window);
-    Integer volume = (Integer) context.bindValue(_volume);
-    Double total = (Double) context.bindValue(_total);
-
-    //  First expire any events that the window has slid beyond...
-    Collection<EventTick<StockTradeEvent>> expired = window.expire(event.getTimeTick() - _windowSize, context);
-    for (EventTick expiredTick : expired) {
-      StockTradeEvent expiredEvent = (StockTradeEvent)expiredTick.event;
-      volume = volume - expiredEvent.getShares();
-      total = total - (expiredEvent.getShares() * expiredEvent.getSharePrice());
+    if (_priceScale != null)
+      _doFixedPointAction(context, event.getTimeTick() - _windowSize, event);
+    else
+      _doAction(context, event.getTimeTick() - _windowSize, event);
+    _scheduleExpiry(context);
+  }
+
+  /**
+   * Slide the window past <horizon>, add <event> to it unless that's null, and recalculate the vwap.
+   */
+  private void _doAction(IReadWriteMonadex<? extends IMonad> context, long horizon, StockTradeEvent event) {
+    //  Get the monad for our sliding window because it's more efficient to do so than copy collections around.
+    //  Its trades are kept in columns, so we aggregate straight off those rather than thru event objects:
+    TradeWindow window = (TradeWindow) context.getMonad(_window);
+    int volume = context.bindInt(_volume);
+    double total = context.bindDouble(_total);
+
+    //  First expire any events that the window has slid beyond, oldest first and without building a collection...
+    while (!window.isEmpty(context) && window.timeTickAt(0) <= horizon) {
+      int shares = window.sharesAt(0);
+      volume = volume - shares;
+      total = total - (shares * window.priceAt(0));
+      window.dropOldest(context);
     }
 
-    //  Now add in the new event to our window and calculate the vwap...
-    window.append(event.getTimeTick(), event, context);
-    volume = volume + event.getShares();
-    total = total + (event.getShares() * event.getSharePrice());
-    Double vwap = total / volume;
+    //  Now add in the new event to our window and calculate the vwap.  A trade the window turns away as too late
+    //  for its watermark stays out of the totals too...
+    if (event != null) {
+      boolean late = window.isLate(event.getTimeTick());
+      window.append(event.getTimeTick(), event, context);
+      if (!late) {
+        volume = volume + event.getShares();
+        total = total + (event.getShares() * event.getSharePrice());
+      }
+    } else if (window.isEmpty(context))
+      total = 0.0;
+    double vwap = total / volume;
 
     //  Finally return any new values to their respective monads so that other calculations can react to them...
-    context.returnValue(_volume, volume);
-    context.returnValue(_total, total);
-    context.returnValue(_vwap, vwap);
+    context.returnInt(_volume, volume);
+    context.returnDouble(_total, total);
+    context.returnDouble(_vwap, vwap);
+  }
+
+  private void _doFixedPointAction(IReadWriteMonadex<? extends IMonad> context, long horizon, StockTradeEvent event) {
+    TradeWindow window = (TradeWindow) context.getMonad(_window);
+    int volume = context.bindInt(_volume);
+    long total = context.bindLong(_total);
+
+    //  Same calculation, but what's subtracted on expiry is exactly what was added on arrival...
+    while (!window.isEmpty(context) && window.timeTickAt(0) <= horizon) {
+      int shares = window.sharesAt(0);
+      volume = volume - shares;
+      total = total - (shares * window.priceTicksAt(0));
+      window.dropOldest(context);
+    }
+
+    if (event != null) {
+      boolean late = window.isLate(event.getTimeTick());
+      long priceTicks = event.getPriceTicks(_priceScale);
+      window.appendTicks(event.getTimeTick(), event.getShares(), priceTicks, context);
+      if (!late) {
+        volume = volume + event.getShares();
+        total = total + (event.getShares() * priceTicks);
+      }
+    }
+
+    context.returnInt(_volume, volume);
+    context.returnLong(_total, total);
+    context.returnLong(_vwap, volume == 0 ? 0 : PriceScale.divide(total, volume));
+  }
+
+  //  Keep one timer pending, for when the oldest trade in the window falls out of it...
+  private void _scheduleExpiry(IReadWriteMonadex<? extends IMonad> context) {
+    if (_timers < 0)
+      return;
+    TradeWindow window = (TradeWindow) context.getMonad(_window);
+    long deadline = window.isEmpty(context) ? Long.MAX_VALUE : window.timeTickAt(0) + _windowSize;
+    if (_expiry != null && _expiry.isPending() && _expiryDeadline == deadline)
+      return;
+
+    if (_expiry != null)
+      _expiry.cancel();
+    _expiry = null;
+    if (deadline != Long.MAX_VALUE) {
+      TimerService timers = (TimerService) context.bindValue(_timers);
+      _expiry = timers.scheduleAt(deadline, _channelName + "_expiry", deadline);
+      _expiryDeadline = deadline;
+    }
+  }
+
+  /**
+   * Slides its VWapRule's window up to the clock when that rule's expiry timer fires.  Works on the VWapRule's
+   * own activation context, whose monads it shares.
+   */
+  protected class ExpiryRule extends DefaultCARule<StockTradeEvent> {
+    public ExpiryRule() {
+      super();
+      addVariable(new Variable<Long>(_channelName + "_expiry", null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      IReadWriteMonadex vwapContext = VWapRule.this.getActivationContext();
+      long horizon = ((TimerService) vwapContext.bindValue(_timers)).getClock().now() - _windowSize;
+      if (_priceScale != null)
+        _doFixedPointAction(vwapContext, horizon, null);
+      else
+        _doAction(vwapContext, horizon, null);
+      _scheduleExpiry(vwapContext);
+    }
   }
 }
@@ -0,0 +1,135 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Base for windows that close, rather than slide: as time moves past a window's end, the window is closed and a
+ * WindowClose is returned into the variable named by <closedChannelName>, so that rules watching that channel
+ * react to e.g. a bar completing.  The rule that feeds the window must declare that channel among its own
+ * (optional) variables, since the window writes it thru the feeding rule's context.  Contexts without the
+ * channel just don't see the emission, but getLastClosed() still has it.
+ *
+ * Time moves forward with each append, or explicitly thru advance().  Where eventTime() is set, windows close as
+ * the watermark passes their end rather than the newest event, leaving room for late events to land in them.
+ *
+ * @author corwyn
+ */
+public abstract class ClosingWindow<T> extends RingWindow<T> {
+  protected String _closedChannelName = null;
+  protected WindowClose<T> _lastClosed = null;
+
+  public ClosingWindow(String name, String closedChannelName) {
+    super(name);
+    assertNotNull(closedChannelName);
+    _closedChannelName = closedChannelName;
+  }
+
+  public String getClosedChannelName() {
+    return _closedChannelName;
+  }
+
+  /**
+   * The most recent emission, or null if nothing has closed yet.
+   */
+  public WindowClose<T> getLastClosed() {
+    return _lastClosed;
+  }
+
+  /**
+   * Move time forward to <timeTick>, closing every window that ends at or before it.
+   */
+  public void advance(long timeTick, IMonadex<? extends IMonad> context) {
+    _advance(timeTick, context, null);
+  }
+
+  /**
+   * Time has passed <timeTick>: close what that closes and hand back the events no open window holds any more.
+   */
+  @Override
+  public Collection<EventTick<T>> expire(long timeTick, IMonadex<? extends IMonad> context) {
+    Collection<EventTick<T>> expired = new ArrayList<EventTick<T>>();
+    _advance(timeTick + 1, context, expired);
+
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    return expired;
+  }
+
+  /**
+   * Close whatever <timeTick> closes, emitting the closes, and drop the events that have aged out of every
+   * window, adding them to <expired> if it isn't null.
+   */
+  protected abstract void _advance(long timeTick, IMonadex<? extends IMonad> context, Collection<EventTick<T>> expired);
+
+  /**
+   * Copy the buffered events in [start, end) for a closing window.
+   */
+  protected List<EventTick<T>> _eventsIn(long start, long end) {
+    List<EventTick<T>> events = new ArrayList<EventTick<T>>();
+    for (int i = 0; i < _size; i++) {
+      long timeTick = timeTickAt(i);
+      if (timeTick >= end)
+        break;
+      if (timeTick >= start)
+        events.add(new EventTick<T>(timeTick, eventAt(i)));
+    }
+    return events;
+  }
+
+  /**
+   * Drop the oldest buffered event, collecting it into <expired> if asked to.
+   */
+  protected void _dropOldest(IMonadex<? extends IMonad> context, Collection<EventTick<T>> expired) {
+    long timeTick = _timeTicks[_head];
+    T event = _removeHead(context);
+    if (expired != null)
+      expired.add(new EventTick<T>(timeTick, event));
+  }
+
+  protected void _emit(WindowClose<T> closes, IMonadex<? extends IMonad> context) {
+    if (closes == null)
+      return;
+    _lastClosed = closes;
+
+    int index = context.getIndex(_closedChannelName);
+    if (index >= 0 && context instanceof IReadWriteMonadex)
+      ((IReadWriteMonadex) context).returnValue(index, closes);
+  }
+}
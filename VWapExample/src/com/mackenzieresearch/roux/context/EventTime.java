@@ -0,0 +1,146 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Event-time state shared by the windows that offer eventTime(): a watermark trailing the newest time tick seen
+ * by the allowed lateness, and a side channel for events that arrive behind it.  Until track() is called nothing
+ * is ever late and the watermark stays at Long.MIN_VALUE.
+ *
+ * The window asks isLate() before letting an event in, hands those that are to late(), and calls advance() after
+ * each one it accepts.
+ *
+ * @author corwyn
+ */
+public class EventTime<T> {
+  //  Negative lateness means it's off and nothing is ever too late...
+  protected long _allowedLateness = -1;
+  protected long _maxTimeTick = Long.MIN_VALUE;
+  protected String _watermarkName = null;
+  protected String _lateChannelName = null;
+  protected long _lateCount = 0;
+
+  /**
+   * Accept events up to <allowedLateness> ticks behind the newest one seen.  If the context has a variable named
+   * <watermarkName> the watermark is returned into it as it advances, and events too late to accept are returned
+   * into <lateChannelName> as EventTicks.  Either name may be null.
+   */
+  public void track(long allowedLateness, String watermarkName, String lateChannelName) {
+    assertTrue(allowedLateness >= 0, "Allowed lateness can't be negative");
+    _allowedLateness = allowedLateness;
+    _watermarkName = watermarkName;
+    _lateChannelName = lateChannelName;
+  }
+
+  public boolean isTracked() {
+    return _allowedLateness >= 0;
+  }
+
+  /**
+   * Event time up to which the window is complete: the newest time tick seen less the allowed lateness.
+   * Long.MIN_VALUE until there's been an event, or if event time isn't being tracked.
+   */
+  public long getWatermark() {
+    if (_allowedLateness < 0 || _maxTimeTick == Long.MIN_VALUE)
+      return Long.MIN_VALUE;
+    return _maxTimeTick - _allowedLateness;
+  }
+
+  /**
+   * Number of events turned away for arriving behind the watermark.
+   */
+  public long getLateCount() {
+    return _lateCount;
+  }
+
+  public boolean isLate(long timeTick) {
+    return timeTick < getWatermark();
+  }
+
+  /**
+   * What's closed by an event at <timeTick>: the watermark it would leave behind where event time is tracked,
+   * otherwise the event's own time tick.
+   */
+  public long closeTime(long timeTick) {
+    if (_allowedLateness < 0)
+      return timeTick;
+    return Math.max(_maxTimeTick, timeTick) - _allowedLateness;
+  }
+
+  /**
+   * Move the watermark on for an event just accepted at <timeTick>.
+   */
+  public void advance(long timeTick, IMonadex<? extends IMonad> context) {
+    if (_allowedLateness < 0 || timeTick <= _maxTimeTick)
+      return;
+    _maxTimeTick = timeTick;
+    if (_watermarkName == null)
+      return;
+
+    int index = context.getIndex(_watermarkName);
+    if (index >= 0 && context instanceof IReadWriteMonadex)
+      ((IReadWriteMonadex) context).returnLong(index, getWatermark());
+  }
+
+  /**
+   * Turn away an event that's arrived too late to be let into the window.
+   */
+  public void late(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    _lateCount = _lateCount + 1;
+    if (_lateChannelName == null)
+      return;
+
+    int index = context.getIndex(_lateChannelName);
+    if (index >= 0 && context instanceof IReadWriteMonadex)
+      ((IReadWriteMonadex) context).returnValue(index, new EventTick<T>(timeTick, event));
+  }
+
+  /**
+   * Forget the newest time tick seen, as when the window is cleared.  The late count is kept.
+   */
+  public void clear() {
+    _maxTimeTick = Long.MIN_VALUE;
+  }
+
+  public void snapshot(ISnapshotWriter out) {
+    out.putLong(_maxTimeTick);
+    out.putLong(_lateCount);
+  }
+
+  public void restore(ISnapshotReader in) {
+    _maxTimeTick = in.getLong();
+    _lateCount = in.getLong();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import java.util.Collection;
+import java.util.List;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Fixed-width windows [k * slide, k * slide + width) that start every <slide> ticks, so that with a slide shorter
+ * than the width each event lands in several overlapping windows.  Events are buffered once and stay until the
+ * last window holding them closes.  Windows with no events in them are skipped rather than emitted empty.
+ */
+public class HoppingWindow<T> extends ClosingWindow<T> {
+  protected long _width = 0;
+  protected long _slide = 0;
+  //  Start of the oldest window still open, or Long.MIN_VALUE before the first event...
+  protected long _openStart = Long.MIN_VALUE;
+
+  public HoppingWindow(String name, String closedChannelName, long width, long slide) {
+    super(name, closedChannelName);
+    assertTrue(width > 0 && slide > 0 && slide <= width, "Hopping window needs 0 < slide <= width");
+    _width = width;
+    _slide = slide;
+  }
+
+  public long getWidth() {
+    return _width;
+  }
+
+  public long getSlide() {
+    return _slide;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    _openStart = Long.MIN_VALUE;
+  }
+
+  /**
+   * Appending first closes every window that the event moves time past.  An event older than every open window
+   * belongs only to windows already closed, so it's treated as late.
+   */
+  @Override
+  public void append(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    _advance(_closeTime(timeTick), context, null);
+    if (_openStart == Long.MIN_VALUE)
+      _openStart = _firstStart(timeTick);
+    else if (timeTick < _openStart) {
+      _late(timeTick, event, context);
+      return;
+    }
+
+    super.append(timeTick, event, context);
+  }
+
+  @Override
+  protected void _advance(long timeTick, IMonadex<? extends IMonad> context, Collection<EventTick<T>> expired) {
+    if (_openStart == Long.MIN_VALUE)
+      return;
+
+    WindowClose<T> first = null;
+    WindowClose<T> last = null;
+    while (_openStart + _width <= timeTick) {
+      List<EventTick<T>> events = _eventsIn(_openStart, _openStart + _width);
+      if (!events.isEmpty()) {
+        WindowClose<T> close = new WindowClose<T>(_openStart, _openStart + _width, events);
+        if (first == null)
+          first = close;
+        else
+          last.next = close;
+        last = close;
+      }
+
+      //  Move on to the next window, skipping straight over stretches with nothing buffered for them...
+      _openStart = _openStart + _slide;
+      while (_size > 0 && timeTickAt(0) < _openStart)
+        _dropOldest(context, expired);
+      _openStart = Math.max(_openStart, _firstStart(_size > 0 ? timeTickAt(0) : timeTick));
+    }
+
+    _emit(first, context);
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    super.snapshot(out);
+    out.putLong(_openStart);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    super.restore(in, context);
+    _openStart = in.getLong();
+  }
+
+  /**
+   * Start of the earliest window that holds <timeTick>.
+   */
+  protected long _firstStart(long timeTick) {
+    long k = _floorDiv(timeTick - _width, _slide) + 1;
+    return k * _slide;
+  }
+
+  private static long _floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x < 0) != (y < 0)))
+      q = q - 1;
+    return q;
+  }
+}
@@ -0,0 +1,350 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * A sliding window kept in a circular buffer.  Time ticks live in a long[] next to the events, appending
+ * writes at the tail and expiring just advances the head, so neither shifts the array nor allocates an
+ * EventTick.  The buffer either doubles when full or, if created with a fixed capacity, refuses to grow.
+ *
+ * The buffer is kept in time order: an event older than the newest one is inserted where it belongs, which
+ * costs a shift of the events it lands in front of.  With eventTime() set, the window also tracks a watermark
+ * trailing the newest time tick by the allowed lateness; events older than the watermark are too late, and go
+ * to a side channel instead of into the window.  In-order appends stay O(1) either way.
+ *
+ * Snapshots save the events, thru the snapshot's codecs, the event-time state, and the state of the window's
+ * observers; restoring puts all of it back quietly, without replaying the events.
+ */
+public class RingWindow<T> extends Monad<Collection<EventTick<T>>> implements IWindow<T>, ISnapshotable {
+  protected long[] _timeTicks = null;
+  protected Object[] _events = null;
+  protected int _mask = 0;
+  protected int _head = 0;
+  protected int _size = 0;
+  protected boolean _growable = true;
+  protected List<IWindowObserver<T>> _windowObservers = new ArrayList<IWindowObserver<T>>();
+  protected EventTime<T> _eventTime = new EventTime<T>();
+
+  public RingWindow(String name) {
+    this(name, 16, true);
+  }
+
+  public RingWindow(String name, int initialCapacity, boolean growable) {
+    super(name);
+    assertTrue(initialCapacity > 0 && (initialCapacity & (initialCapacity - 1)) == 0,
+            "Window capacity must be a power of two");
+    _timeTicks = new long[initialCapacity];
+    _events = new Object[initialCapacity];
+    _mask = initialCapacity - 1;
+    _growable = growable;
+    _value = new RingView();
+  }
+
+  public int capacity() {
+    return _events.length;
+  }
+
+  /**
+   * Track event time, accepting events up to <allowedLateness> ticks behind the newest one seen.  If the
+   * context has a variable named <watermarkName> the watermark is returned into it as it advances, and events
+   * too late to accept are returned into <lateChannelName> as EventTicks.  Either name may be null.
+   */
+  public RingWindow<T> eventTime(long allowedLateness, String watermarkName, String lateChannelName) {
+    _eventTime.track(allowedLateness, watermarkName, lateChannelName);
+    return this;
+  }
+
+  /**
+   * Event time up to which the window is complete: the newest time tick seen less the allowed lateness.
+   * Long.MIN_VALUE until there's been an event, or if event time isn't being tracked.
+   */
+  public long getWatermark() {
+    return _eventTime.getWatermark();
+  }
+
+  /**
+   * Number of events turned away for arriving behind the watermark.
+   */
+  public long getLateCount() {
+    return _eventTime.getLateCount();
+  }
+
+  @Override
+  public int size(IMonadex<? extends IMonad> context) {
+    return _size;
+  }
+
+  @Override
+  public boolean isEmpty(IMonadex<? extends IMonad> context) {
+    return _size == 0;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < _size; i++)
+      _events[(_head + i) & _mask] = null;
+    _head = 0;
+    _size = 0;
+    _eventTime.clear();
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.cleared();
+  }
+
+  @Override
+  public void append(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    if (_eventTime.isLate(timeTick)) {
+      _late(timeTick, event, context);
+      return;
+    }
+
+    if (_size == _events.length) {
+      if (!_growable)
+        throw new IllegalStateException("Window " + getName() + " is full at " + _events.length + " events.");
+      _grow();
+    }
+
+    if (_size > 0 && timeTick < _timeTicks[(_head + _size - 1) & _mask])
+      _insert(timeTick, event);
+    else {
+      int tail = (_head + _size) & _mask;
+      _timeTicks[tail] = timeTick;
+      _events[tail] = event;
+      _size = _size + 1;
+    }
+
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.appended(timeTick, event, context);
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    _eventTime.advance(timeTick, context);
+  }
+
+  @Override
+  public Collection<EventTick<T>> expire(long timeTick, IMonadex<? extends IMonad> context) {
+    Collection<EventTick<T>> expired = new ArrayList<EventTick<T>>();
+    while (_size > 0 && _timeTicks[_head] <= timeTick) {
+      EventTick<T> tick = new EventTick<T>(_timeTicks[_head], _removeHead(context));
+      expired.add(tick);
+    }
+
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    return expired;
+  }
+
+  @Override
+  public long oldestTimeTick(IMonadex<? extends IMonad> context) {
+    return _timeTicks[_head];
+  }
+
+  @Override
+  public T oldest(IMonadex<? extends IMonad> context) {
+    if (_size == 0)
+      return null;
+    return (T) _events[_head];
+  }
+
+  @Override
+  public T removeOldest(IMonadex<? extends IMonad> context) {
+    if (_size == 0)
+      return null;
+    T event = _removeHead(context);
+
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+
+    return event;
+  }
+
+  /**
+   * Time tick of the <index>th oldest event, 0 being the oldest.
+   */
+  public long timeTickAt(int index) {
+    assert (index >= 0 && index < _size);
+    return _timeTicks[(_head + index) & _mask];
+  }
+
+  /**
+   * The <index>th oldest event, 0 being the oldest.
+   */
+  public T eventAt(int index) {
+    assert (index >= 0 && index < _size);
+    return (T) _events[(_head + index) & _mask];
+  }
+
+  @Override
+  public void addWindowObserver(IWindowObserver<T> observer) {
+    _windowObservers.add(observer);
+  }
+
+  /**
+   * Where event time is tracked, what's closed by an event at <timeTick> is decided by the watermark it would
+   * leave behind rather than by the event itself.
+   */
+  protected long _closeTime(long timeTick) {
+    return _eventTime.closeTime(timeTick);
+  }
+
+  /**
+   * Turn away an event that's arrived too late to be let into the window.
+   */
+  protected void _late(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    _eventTime.late(timeTick, event, context);
+  }
+
+  /**
+   * Insert an out-of-order event after everything with a time tick no later than its own, shifting the newer
+   * ones up one slot.  The scan starts at the tail since late events are usually only a little late.
+   */
+  protected void _insert(long timeTick, T event) {
+    int position = _size;
+    while (position > 0 && _timeTicks[(_head + position - 1) & _mask] > timeTick) {
+      int from = (_head + position - 1) & _mask;
+      int to = (_head + position) & _mask;
+      _timeTicks[to] = _timeTicks[from];
+      _events[to] = _events[from];
+      position = position - 1;
+    }
+
+    int slot = (_head + position) & _mask;
+    _timeTicks[slot] = timeTick;
+    _events[slot] = event;
+    _size = _size + 1;
+  }
+
+  protected T _removeHead(IMonadex<? extends IMonad> context) {
+    long timeTick = _timeTicks[_head];
+    T event = (T) _events[_head];
+    //  Don't hold on to expired events...
+    _events[_head] = null;
+    _head = (_head + 1) & _mask;
+    _size = _size - 1;
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.expired(timeTick, event, context);
+    return event;
+  }
+
+  protected void _grow() {
+    int capacity = _events.length * 2;
+    long[] timeTicks = new long[capacity];
+    Object[] events = new Object[capacity];
+    for (int i = 0; i < _size; i++) {
+      timeTicks[i] = _timeTicks[(_head + i) & _mask];
+      events[i] = _events[(_head + i) & _mask];
+    }
+    _timeTicks = timeTicks;
+    _events = events;
+    _mask = capacity - 1;
+    _head = 0;
+  }
+
+  //  Generic callers binding the window's value see an EventTick collection; only they pay for the EventTicks...
+  protected class RingView extends AbstractCollection<EventTick<T>> {
+    @Override
+    public Iterator<EventTick<T>> iterator() {
+      return new Iterator<EventTick<T>>() {
+        private int _index = 0;
+
+        @Override
+        public boolean hasNext() {
+          return _index < _size;
+        }
+
+        @Override
+        public EventTick<T> next() {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          EventTick<T> tick = new EventTick<T>(timeTickAt(_index), eventAt(_index));
+          _index = _index + 1;
+          return tick;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return _size;
+    }
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putInt(_events.length);
+    out.putInt(_size);
+    for (int i = 0; i < _size; i++) {
+      out.putLong(_timeTicks[(_head + i) & _mask]);
+      out.putObject(_events[(_head + i) & _mask]);
+    }
+    _eventTime.snapshot(out);
+    out.putInt(_windowObservers.size());
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.snapshot(out);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    clear();
+    int capacity = in.getInt();
+    if (capacity != _events.length) {
+      _timeTicks = new long[capacity];
+      _events = new Object[capacity];
+      _mask = capacity - 1;
+    }
+    _size = in.getInt();
+    for (int i = 0; i < _size; i++) {
+      _timeTicks[i] = in.getLong();
+      _events[i] = in.getObject();
+    }
+    _eventTime.restore(in);
+    if (in.getInt() != _windowObservers.size())
+      throw new IllegalStateException("Window " + getName() + " was saved with different observers");
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.restore(in);
+  }
+}
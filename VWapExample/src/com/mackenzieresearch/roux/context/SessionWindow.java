@@ -0,0 +1,76 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import java.util.Collection;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Gap-based sessions: events keep extending the current session until more than <gap> ticks pass without one,
+ * at which point the session closes as [first event, last event + 1).
+ */
+public class SessionWindow<T> extends ClosingWindow<T> {
+  protected long _gap = 0;
+
+  public SessionWindow(String name, String closedChannelName, long gap) {
+    super(name, closedChannelName);
+    assertTrue(gap > 0, "Session gap must be positive");
+    _gap = gap;
+  }
+
+  public long getGap() {
+    return _gap;
+  }
+
+  @Override
+  public void append(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    _advance(_closeTime(timeTick), context, null);
+    super.append(timeTick, event, context);
+  }
+
+  @Override
+  protected void _advance(long timeTick, IMonadex<? extends IMonad> context, Collection<EventTick<T>> expired) {
+    if (_size == 0)
+      return;
+
+    long lastTick = timeTickAt(_size - 1);
+    if (timeTick - lastTick <= _gap)
+      return;
+
+    WindowClose<T> close = new WindowClose<T>(timeTickAt(0), lastTick + 1, _eventsIn(Long.MIN_VALUE, Long.MAX_VALUE));
+    while (_size > 0)
+      _dropOldest(context, expired);
+    _emit(close, context);
+  }
+}
@@ -34,8 +34,11 @@ import com.mackenzieresearch.roux.kernel.*;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+
+public class Window<T> extends Monad<Collection<EventTick<T>>> implements IWindow<T>, ISnapshotable {
+  protected List<IWindowObserver<T>> _windowObservers = new ArrayList<IWindowObserver<T>>();
 
-public class Window<T> extends Monad<Collection<EventTick<T>>> implements IWindow<T> {
   public Window(String name) {
     super(name);
     _value = new ArrayList<EventTick<T>>();
@@ -59,11 +62,20 @@ public class Window<T> extends Monad<Collection<EventTick<T>>> implements IWindo
   @Override
   public void clear() {
     _value.clear();
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.cleared();
   }
 
   @Override
   public void append(long timeTick, T event, IMonadex<? extends IMonad> context) {
-    ((ArrayList<EventTick<T>>) _value).add(new EventTick<T>(timeTick, event));
+    ArrayList<EventTick<T>> window = (ArrayList<EventTick<T>>) _value;
+    //  Keep the window in time order so that expiry can keep scanning from the front...
+    int position = window.size();
+    while (position > 0 && window.get(position - 1).timeTick > timeTick)
+      position = position - 1;
+    window.add(position, new EventTick<T>(timeTick, event));
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.appended(timeTick, event, context);
     for (IListener listener : _changeListeners)
       listener.changed(this, context);
   }
@@ -79,6 +91,8 @@ public class Window<T> extends Monad<Collection<EventTick<T>>> implements IWindo
         if (event.timeTick <= timeTick) {
           expired.add(event);
           window.remove(0);
+          for (IWindowObserver<T> observer : _windowObservers)
+            observer.expired(event.timeTick, event.event, context);
         } else
           break;
       } else
@@ -90,4 +104,60 @@ public class Window<T> extends Monad<Collection<EventTick<T>>> implements IWindo
 
     return expired;
   }
+
+  @Override
+  public long oldestTimeTick(IMonadex<? extends IMonad> context) {
+    return ((ArrayList<EventTick<T>>) _value).get(0).timeTick;
+  }
+
+  @Override
+  public T oldest(IMonadex<? extends IMonad> context) {
+    if (_value.isEmpty())
+      return null;
+    return ((ArrayList<EventTick<T>>) _value).get(0).event;
+  }
+
+  @Override
+  public T removeOldest(IMonadex<? extends IMonad> context) {
+    if (_value.isEmpty())
+      return null;
+    EventTick<T> tick = ((ArrayList<EventTick<T>>) _value).remove(0);
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.expired(tick.timeTick, tick.event, context);
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+    return tick.event;
+  }
+
+  @Override
+  public void addWindowObserver(IWindowObserver<T> observer) {
+    _windowObservers.add(observer);
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putInt(_value.size());
+    for (EventTick<T> tick : _value) {
+      out.putLong(tick.timeTick);
+      out.putObject(tick.event);
+    }
+    out.putInt(_windowObservers.size());
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.snapshot(out);
+  }
+
+  /**
+   * Put the saved events back, and each observer's saved state with them, without telling anyone.
+   */
+  @Override
+  public void restore(ISnapshotReader in, IMonadex<? extends IMonad> context) {
+    clear();
+    int size = in.getInt();
+    for (int i = 0; i < size; i++)
+      _value.add(new EventTick<T>(in.getLong(), (T) in.getObject()));
+    if (in.getInt() != _windowObservers.size())
+      throw new IllegalStateException("Window " + getName() + " was saved with different observers");
+    for (IWindowObserver<T> observer : _windowObservers)
+      observer.restore(in);
+  }
 }
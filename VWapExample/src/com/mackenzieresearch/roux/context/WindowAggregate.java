@@ -0,0 +1,131 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Base for running aggregates over an IWindow.  The aggregate observes the window and folds each appended
+ * and expired value into its state, so its value is always current without ever rescanning the window.  It's
+ * an IDoubleMonad, so rules read it with bindDouble() and react to it changing like any other variable.
+ *
+ * The base constructor runs before a subclass has initialized its fields, so it can't call _reset(): each
+ * concrete aggregate sets _doubleValue from _reset() at the end of its own constructor instead.
+ *
+ * An aggregate isn't snapshotted on its own: the window saves its value and fold state along with the events, so
+ * subclasses with state beyond _doubleValue extend snapshot() and restore().
+ *
+ * Bind an aggregate to the window instance that actually lives in the rule system's context: when several
+ * rules declare a window of the same name only one of the instances is kept.
+ *
+ * @author corwyn
+ */
+public abstract class WindowAggregate<T> extends Monad<Double> implements IDoubleMonad, IWindowObserver<T> {
+  protected IWindowValue<T> _valueOf = null;
+  protected double _doubleValue = 0;
+
+  public WindowAggregate(String name, IWindow<T> window, IWindowValue<T> valueOf) {
+    super(name);
+    assertNotNull(window);
+    assertNotNull(valueOf);
+    _valueOf = valueOf;
+    window.addWindowObserver(this);
+  }
+
+  @Override
+  public double bindDouble(IMonadex<? extends IReadOnlyMonad> context) {
+    return _doubleValue;
+  }
+
+  @Override
+  public void returnDouble(double value, IMonadex<? extends IMonad> context) {
+    _doubleValue = value;
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+  }
+
+  @Override
+  public Double bindValue(IMonadex<? extends IReadOnlyMonad> context) {
+    return _doubleValue;
+  }
+
+  @Override
+  public void returnValue(Double value, IMonadex<? extends IMonad> context) {
+    returnDouble(value, context);
+  }
+
+  @Override
+  public void returnObject(Object value, IMonadex<? extends IMonad> context) {
+    returnDouble(((Number) value).doubleValue(), context);
+  }
+
+  @Override
+  public void appended(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    returnDouble(_add(timeTick, _valueOf.valueOf(event)), context);
+  }
+
+  @Override
+  public void expired(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    returnDouble(_remove(timeTick, _valueOf.valueOf(event)), context);
+  }
+
+  @Override
+  public void cleared() {
+    _doubleValue = _reset();
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putDouble(_doubleValue);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in) {
+    _doubleValue = in.getDouble();
+  }
+
+  /**
+   * Fold a newly appended value in and return the aggregate's new value.
+   */
+  protected abstract double _add(long timeTick, double value);
+
+  /**
+   * Take the oldest value back out and return the aggregate's new value.
+   */
+  protected abstract double _remove(long timeTick, double value);
+
+  /**
+   * Forget everything and return the value of the aggregate over an empty window.
+   */
+  protected abstract double _reset();
+}
@@ -0,0 +1,84 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.IWindow;
+import com.mackenzieresearch.roux.kernel.IWindowValue;
+
+/**
+ * Number of events in the window.  Carried as a double so that it can be read alongside the other aggregates.
+ */
+public class WindowCount<T> extends WindowAggregate<T> {
+  protected long _count = 0;
+
+  public WindowCount(String name, IWindow<T> window) {
+    super(name, window, new IWindowValue<T>() {
+      @Override
+      public double valueOf(T event) {
+        return 1;
+      }
+    });
+
+    _doubleValue = _reset();
+  }
+
+  @Override
+  protected double _add(long timeTick, double value) {
+    _count = _count + 1;
+    return _count;
+  }
+
+  @Override
+  protected double _remove(long timeTick, double value) {
+    _count = _count - 1;
+    return _count;
+  }
+
+  @Override
+  protected double _reset() {
+    _count = 0;
+    return 0;
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    super.snapshot(out);
+    out.putLong(_count);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in) {
+    super.restore(in);
+    _count = in.getLong();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.IWindow;
+import com.mackenzieresearch.roux.kernel.IWindowValue;
+
+import static util.RuntimeAssertion.assertTrue;
+
+/**
+ * Exponential moving average of the values appended to the window, seeded with the first one.  The weights
+ * already decay, so values leaving the window don't change it; clearing the window restarts it.
+ */
+public class WindowEMA<T> extends WindowAggregate<T> {
+  protected double _alpha = 0;
+  protected double _ema = Double.NaN;
+
+  public WindowEMA(String name, IWindow<T> window, IWindowValue<T> valueOf, double alpha) {
+    super(name, window, valueOf);
+    assertTrue(alpha > 0 && alpha <= 1, "EMA smoothing factor must be in (0, 1]");
+    _alpha = alpha;
+    _doubleValue = _reset();
+  }
+
+  @Override
+  protected double _add(long timeTick, double value) {
+    if (Double.isNaN(_ema))
+      _ema = value;
+    else
+      _ema = _ema + (_alpha * (value - _ema));
+    return _ema;
+  }
+
+  @Override
+  protected double _remove(long timeTick, double value) {
+    return _ema;
+  }
+
+  @Override
+  protected double _reset() {
+    _ema = Double.NaN;
+    return _ema;
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    super.snapshot(out);
+    out.putDouble(_ema);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in) {
+    super.restore(in);
+    _ema = in.getDouble();
+  }
+}
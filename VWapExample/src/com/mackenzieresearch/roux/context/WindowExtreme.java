@@ -0,0 +1,177 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.IWindow;
+import com.mackenzieresearch.roux.kernel.IWindowValue;
+
+/**
+ * Running min or max of the window, kept in a monotonic deque ordered by time tick: each append pops the values
+ * it strictly dominates off the back, so the front is always the extreme and each value is pushed and popped at
+ * most once.  Windows expire oldest first, so an expiry only has to pop the front when the expiring event is
+ * the one sitting there, recognized by its time tick and value, compared bit for bit so that NaN expires too.  An event inserted out of order goes in at its
+ * place by time tick instead, at the cost of a shift.  NaN while the window is empty.
+ */
+public abstract class WindowExtreme<T> extends WindowAggregate<T> {
+  protected long[] _timeTicks = new long[16];
+  protected double[] _values = new double[16];
+  protected int _mask = 15;
+  protected int _head = 0;
+  protected int _size = 0;
+
+  public WindowExtreme(String name, IWindow<T> window, IWindowValue<T> valueOf) {
+    super(name, window, valueOf);
+
+    _doubleValue = _reset();
+  }
+
+  /**
+   * True if <candidate> makes <incumbent> irrelevant, e.g. candidate > incumbent for a max.  Must be strict:
+   * equal values are both kept so that the one expiring is always the one at the front.
+   */
+  protected abstract boolean _dominates(double candidate, double incumbent);
+
+  @Override
+  protected double _add(long timeTick, double value) {
+    if (_size > 0 && timeTick < _timeTicks[(_head + _size - 1) & _mask])
+      _insert(timeTick, value);
+    else {
+      while (_size > 0 && _dominates(value, _values[(_head + _size - 1) & _mask]))
+        _size = _size - 1;
+      _push(_size, timeTick, value);
+    }
+
+    return _values[_head];
+  }
+
+  @Override
+  protected double _remove(long timeTick, double value) {
+    if (_size > 0 && _timeTicks[_head] == timeTick
+            && Double.doubleToLongBits(_values[_head]) == Double.doubleToLongBits(value)) {
+      _head = (_head + 1) & _mask;
+      _size = _size - 1;
+    }
+
+    return _size == 0 ? Double.NaN : _values[_head];
+  }
+
+  @Override
+  protected double _reset() {
+    _head = 0;
+    _size = 0;
+    return Double.NaN;
+  }
+
+  /**
+   * The deque is saved front to back and restored starting at slot 0.
+   */
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    super.snapshot(out);
+    out.putInt(_size);
+    for (int i = 0; i < _size; i++) {
+      out.putLong(_timeTicks[(_head + i) & _mask]);
+      out.putDouble(_values[(_head + i) & _mask]);
+    }
+  }
+
+  @Override
+  public void restore(ISnapshotReader in) {
+    super.restore(in);
+    _head = 0;
+    _size = 0;
+    int size = in.getInt();
+    while (_values.length < size)
+      _grow();
+    for (int i = 0; i < size; i++) {
+      _timeTicks[i] = in.getLong();
+      _values[i] = in.getDouble();
+    }
+    _size = size;
+  }
+
+  /**
+   * Place a late value: it's irrelevant if anything newer dominates it, otherwise it knocks out whatever older
+   * values it dominates and goes in after the last of the older ones left.
+   */
+  protected void _insert(long timeTick, double value) {
+    int position = _size;
+    while (position > 0 && _timeTicks[(_head + position - 1) & _mask] > timeTick) {
+      if (_dominates(_values[(_head + position - 1) & _mask], value))
+        return;
+      position = position - 1;
+    }
+
+    int keep = position;
+    while (keep > 0 && _dominates(value, _values[(_head + keep - 1) & _mask]))
+      keep = keep - 1;
+
+    //  Close the gap left by the knocked-out values, then open one for the new value...
+    int removed = position - keep;
+    for (int i = position; i < _size; i++) {
+      _timeTicks[(_head + i - removed) & _mask] = _timeTicks[(_head + i) & _mask];
+      _values[(_head + i - removed) & _mask] = _values[(_head + i) & _mask];
+    }
+    _size = _size - removed;
+    _push(keep, timeTick, value);
+  }
+
+  /**
+   * Put a value at <position>, moving everything from there on back one.
+   */
+  protected void _push(int position, long timeTick, double value) {
+    if (_size == _values.length)
+      _grow();
+    for (int i = _size; i > position; i--) {
+      _timeTicks[(_head + i) & _mask] = _timeTicks[(_head + i - 1) & _mask];
+      _values[(_head + i) & _mask] = _values[(_head + i - 1) & _mask];
+    }
+    _timeTicks[(_head + position) & _mask] = timeTick;
+    _values[(_head + position) & _mask] = value;
+    _size = _size + 1;
+  }
+
+  protected void _grow() {
+    int capacity = _values.length * 2;
+    long[] timeTicks = new long[capacity];
+    double[] values = new double[capacity];
+    for (int i = 0; i < _size; i++) {
+      timeTicks[i] = _timeTicks[(_head + i) & _mask];
+      values[i] = _values[(_head + i) & _mask];
+    }
+    _timeTicks = timeTicks;
+    _values = values;
+    _mask = capacity - 1;
+    _head = 0;
+  }
+}
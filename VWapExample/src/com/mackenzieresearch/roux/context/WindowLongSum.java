@@ -0,0 +1,104 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.*;
+
+import static util.RuntimeAssertion.assertNotNull;
+
+/**
+ * Sum of a window in long arithmetic, for fixed-point quantities.  Unlike WindowSum it's exact: after any number
+ * of appends and expiries it equals the sum of what's in the window, with no drift to correct by rescanning.
+ */
+public class WindowLongSum<T> extends Monad<Long> implements ILongMonad, IWindowObserver<T> {
+  protected IWindowLongValue<T> _valueOf = null;
+  protected long _longValue = 0;
+
+  public WindowLongSum(String name, IWindow<T> window, IWindowLongValue<T> valueOf) {
+    super(name);
+    assertNotNull(window);
+    assertNotNull(valueOf);
+    _valueOf = valueOf;
+    window.addWindowObserver(this);
+  }
+
+  @Override
+  public long bindLong(IMonadex<? extends IReadOnlyMonad> context) {
+    return _longValue;
+  }
+
+  @Override
+  public void returnLong(long value, IMonadex<? extends IMonad> context) {
+    _longValue = value;
+    for (IListener listener : _changeListeners)
+      listener.changed(this, context);
+  }
+
+  @Override
+  public Long bindValue(IMonadex<? extends IReadOnlyMonad> context) {
+    return _longValue;
+  }
+
+  @Override
+  public void returnValue(Long value, IMonadex<? extends IMonad> context) {
+    returnLong(value, context);
+  }
+
+  @Override
+  public void returnObject(Object value, IMonadex<? extends IMonad> context) {
+    returnLong(((Number) value).longValue(), context);
+  }
+
+  @Override
+  public void appended(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    returnLong(_longValue + _valueOf.valueOf(event), context);
+  }
+
+  @Override
+  public void expired(long timeTick, T event, IMonadex<? extends IMonad> context) {
+    returnLong(_longValue - _valueOf.valueOf(event), context);
+  }
+
+  @Override
+  public void cleared() {
+    _longValue = 0;
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    out.putLong(_longValue);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in) {
+    _longValue = in.getLong();
+  }
+}
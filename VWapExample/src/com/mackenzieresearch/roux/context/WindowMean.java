@@ -0,0 +1,90 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.context;
+
+import com.mackenzieresearch.roux.kernel.ISnapshotReader;
+import com.mackenzieresearch.roux.kernel.ISnapshotWriter;
+import com.mackenzieresearch.roux.kernel.IWindow;
+import com.mackenzieresearch.roux.kernel.IWindowValue;
+
+/**
+ * Arithmetic mean of the window, NaN while the window is empty.
+ */
+public class WindowMean<T> extends WindowAggregate<T> {
+  protected long _count = 0;
+  protected double _sum = 0;
+
+  public WindowMean(String name, IWindow<T> window, IWindowValue<T> valueOf) {
+    super(name, window, valueOf);
+
+    _doubleValue = _reset();
+  }
+
+  @Override
+  protected double _add(long timeTick, double value) {
+    _count = _count + 1;
+    _sum = _sum + value;
+    return _sum / _count;
+  }
+
+  @Override
+  protected double _remove(long timeTick, double value) {
+    _count = _count - 1;
+    _sum = _sum - value;
+    if (_count == 0) {
+      //  Don't let rounding residue outlive the last value...
+      _sum = 0;
+      return Double.NaN;
+    }
+    return _sum / _count;
+  }
+
+  @Override
+  protected double _reset() {
+    _count = 0;
+    _sum = 0;
+    return Double.NaN;
+  }
+
+  @Override
+  public void snapshot(ISnapshotWriter out) {
+    super.snapshot(out);
+    out.putLong(_count);
+    out.putDouble(_sum);
+  }
+
+  @Override
+  public void restore(ISnapshotReader in) {
+    super.restore(in);
+    _count = in.getLong();
+    _sum = in.getDouble();
+  }
+}
@@ -39,7 +39,32 @@ public interface IWindow<T> extends IMonad<Collection<EventTick<T>>> {
 
   public void clear();
 
+  /**
+   * Add an event to the window, which is kept in time order: an event older than the newest one already in the
+   * window goes in where it belongs rather than at the end.
+   */
   public void append(long timeTick, T event, IMonadex<? extends IMonad> context);
 
   public Collection<EventTick<T>> expire(long timeTick, IMonadex<? extends IMonad> context);
+
+  /**
+   * Register an observer to be told about every event appended to and expired from this window.
+   */
+  public void addWindowObserver(IWindowObserver<T> observer);
+
+  /**
+   * Time tick of the oldest event in the window.  Only meaningful when the window isn't empty.
+   */
+  public long oldestTimeTick(IMonadex<? extends IMonad> context);
+
+  /**
+   * The oldest event in the window, or null if it's empty.
+   */
+  public T oldest(IMonadex<? extends IMonad> context);
+
+  /**
+   * Remove and return the oldest event in the window.  Unlike expire(), doesn't allocate, so expiring
+   * one event at a time with oldestTimeTick()/removeOldest() is the cheap way to slide a window.
+   */
+  public T removeOldest(IMonadex<? extends IMonad> context);
 }
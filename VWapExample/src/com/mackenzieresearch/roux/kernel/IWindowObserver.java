@@ -0,0 +1,58 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.kernel;
+
+/**
+ * Told about each event as it enters or leaves an IWindow, so that running aggregates can be maintained from
+ * the deltas instead of rescanning the window.  Windows always expire oldest first.  The event handed to
+ * expired() may be a flyweight and is only valid for the duration of the call.
+ *
+ * A window that's snapshotted saves its observers' state along with its events, and restores both without
+ * replaying anything: an observer's state needn't be something the window's contents can rebuild (an EMA
+ * remembers events long gone).
+ */
+public interface IWindowObserver<T> {
+  public void appended(long timeTick, T event, IMonadex<? extends IMonad> context);
+
+  public void expired(long timeTick, T event, IMonadex<? extends IMonad> context);
+
+  public void cleared();
+
+  /**
+   * Save whatever has been folded in from the window.
+   */
+  public void snapshot(ISnapshotWriter out);
+
+  /**
+   * Read back what snapshot() wrote, quietly, without telling any listeners.
+   */
+  public void restore(ISnapshotReader in);
+}
@@ -0,0 +1,51 @@
+/*
+   Example extensions of PACHINKO, A fast, embeddable micro-rule engine.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.roux.kernel;
+
+import java.util.List;
+
+/**
+ * Emitted by a closing window (tumbling, hopping, session) when one of its windows closes: the window's
+ * [start, end) span and the events that fell in it.  Windows that close on the same tick arrive as one
+ * emission chained thru <next>, oldest first, so rules never miss one to a later overwrite of the channel.
+ */
+public class WindowClose<T> {
+  public long start = 0;
+  public long end = 0;
+  public List<EventTick<T>> events = null;
+  public WindowClose<T> next = null;
+
+  public WindowClose(long start, long end, List<EventTick<T>> events) {
+    this.start = start;
+    this.end = end;
+    this.events = events;
+  }
+}
@@ -31,10 +31,47 @@
 package com.mackenzieresearch.examples.pachinko;
 
 import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.ICARule;
+import com.mackenzieresearch.pachinko.ICARuleFactory;
+import com.mackenzieresearch.pachinko.IClock;
+import com.mackenzieresearch.pachinko.IngestionRingBuffer;
+import com.mackenzieresearch.pachinko.IPartitionKey;
+import com.mackenzieresearch.pachinko.LongMonad;
+import com.mackenzieresearch.pachinko.RuleSystemSnapshot;
+import com.mackenzieresearch.pachinko.ShardedCARuleSystem;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.context.HoppingWindow;
+import com.mackenzieresearch.roux.context.Monadex;
+import com.mackenzieresearch.roux.context.NullMonadex;
+import com.mackenzieresearch.roux.context.RingWindow;
+import com.mackenzieresearch.roux.context.SessionWindow;
+import com.mackenzieresearch.roux.context.TumblingWindow;
+import com.mackenzieresearch.roux.context.WindowLongSum;
+import com.mackenzieresearch.roux.context.WindowCount;
+import com.mackenzieresearch.roux.context.WindowEMA;
+import com.mackenzieresearch.roux.context.WindowMax;
+import com.mackenzieresearch.roux.context.WindowMean;
+import com.mackenzieresearch.roux.context.WindowMin;
+import com.mackenzieresearch.roux.context.WindowSum;
+import com.mackenzieresearch.roux.context.WindowVariance;
+import com.mackenzieresearch.roux.kernel.EventTick;
+import com.mackenzieresearch.roux.kernel.IListenable;
+import com.mackenzieresearch.roux.kernel.IListener;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
 import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
 import com.mackenzieresearch.roux.kernel.IWindow;
+import com.mackenzieresearch.roux.kernel.IWindowLongValue;
+import com.mackenzieresearch.roux.kernel.IWindowValue;
+import com.mackenzieresearch.roux.kernel.WindowClose;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Random;
 
 import static util.RuntimeAssertion.assertTrue;
@@ -89,6 +126,316 @@ public class VWapExample {
     }
   }
 
+  /**
+   * Run well past the window size and check every step against a VWAP recomputed from scratch over the trades
+   * still inside the window.
+   */
+  @Test
+  public void slidingVWapTest() {
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 10));
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int vwapIndex = context.getIndex("MACK_vwap");
+    StockTradeEvent[] events = _preloadEventStream(1, "MACK", 200);
+
+    for (int tick = 0; tick < events.length; tick++) {
+      context.returnValue("MACK", events[tick]);
+      ruleSystem.executeActivations();
+
+      //  Window slides to keep the trades in (tick - 10, tick]...
+      int volume = 0;
+      double total = 0.0;
+      for (int i = Math.max(0, tick - 9); i <= tick; i++) {
+        volume = volume + events[i].getShares();
+        total = total + (events[i].getShares() * events[i].getSharePrice());
+      }
+      if (volume > 0)
+        assertTrue(Math.abs((total / volume) - context.bindDouble(vwapIndex)) < 0.0001);
+      assertTrue(((IWindow) context.getMonad("MACK_window")).size(context) == Math.min(tick + 1, 10));
+    }
+  }
+
+  /**
+   * In fixed point the running total is the exact notional of the trades in the window however long it slides,
+   * and an exact long sum over the same window agrees with it.
+   */
+  @Test
+  public void fixedPointVWapTest() {
+    final PriceScale scale = PriceScale.BASIS_POINTS;
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 10, scale));
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int eventIndex = context.getIndex("MACK");
+    int volumeIndex = context.getIndex("MACK_volume");
+    int totalIndex = context.getIndex("MACK_total");
+    int vwapIndex = context.getIndex("MACK_vwap");
+    WindowLongSum<StockTradeEvent> notional = new WindowLongSum<StockTradeEvent>("notional",
+            (IWindow<StockTradeEvent>) context.getMonad("MACK_window"), new IWindowLongValue<StockTradeEvent>() {
+      @Override
+      public long valueOf(StockTradeEvent event) {
+        return event.getShares() * event.getPriceTicks(scale);
+      }
+    });
+
+    StockTradeEvent[] events = new StockTradeEvent[100000];
+    for (int tick = 0; tick < events.length; tick++) {
+      events[tick] = new StockTradeEvent(tick, "MACK", 1 + _random.nextInt(1000), 1 + _random.nextInt(10000000), scale);
+      context.returnValue(eventIndex, events[tick]);
+      ruleSystem.executeActivations();
+
+      int volume = 0;
+      long total = 0;
+      for (int i = Math.max(0, tick - 9); i <= tick; i++) {
+        volume = volume + events[i].getShares();
+        total = total + (events[i].getShares() * events[i].getPriceTicks(scale));
+      }
+      assertTrue(context.bindInt(volumeIndex) == volume && context.bindLong(totalIndex) == total);
+      assertTrue(context.bindLong(vwapIndex) == PriceScale.divide(total, volume));
+      assertTrue(notional.bindLong(context) == total);
+    }
+  }
+
+  /**
+   * A VWapRule expiring on the clock decays with no further trades, as the ring buffer's consumer advances the
+   * timers on its idle passes.
+   */
+  @Test
+  public void vwapExpiryTest() {
+    IClock.Manual clock = new IClock.Manual(0);
+    VWapRule vwapRule = new VWapRule("MACK", 10, null, true);
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(vwapRule, vwapRule.expiryRule());
+    ruleSystem.setClock(clock);
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int eventIndex = context.getIndex("MACK");
+    int volumeIndex = context.getIndex("MACK_volume");
+    int totalIndex = context.getIndex("MACK_total");
+    int vwapIndex = context.getIndex("MACK_vwap");
+    IngestionRingBuffer<StockTradeEvent> ringBuffer = new IngestionRingBuffer<StockTradeEvent>(ruleSystem, 64);
+
+    ringBuffer.start();
+    try {
+      StockTradeEvent[] events = new StockTradeEvent[5];
+      for (int tick = 1; tick <= events.length; tick++) {
+        events[tick - 1] = new StockTradeEvent(tick, "MACK", 1 + _random.nextInt(100), 1 + _random.nextDouble());
+        clock.set(tick);
+        ringBuffer.publish(eventIndex, events[tick - 1]);
+      }
+      ringBuffer.flush();
+      assertTrue(((IWindow) context.getMonad("MACK_window")).size(context) == 5);
+
+      //  The clock passes the first two trades, and the vwap is recomputed over the other three...
+      _passClock(ringBuffer, eventIndex, clock, 12);
+      int volume = 0;
+      double total = 0.0;
+      for (int i = 2; i < events.length; i++) {
+        volume = volume + events[i].getShares();
+        total = total + (events[i].getShares() * events[i].getSharePrice());
+      }
+      assertTrue(((IWindow) context.getMonad("MACK_window")).size(context) == 3);
+      assertTrue(context.bindInt(volumeIndex) == volume);
+      assertTrue(Math.abs((total / volume) - context.bindDouble(vwapIndex)) < 0.0001);
+
+      //  ...then past them all, leaving nothing in the window and no timer pending.
+      _passClock(ringBuffer, eventIndex, clock, 15);
+      assertTrue(((IWindow) context.getMonad("MACK_window")).size(context) == 0);
+      assertTrue(context.bindInt(volumeIndex) == 0 && context.bindDouble(totalIndex) == 0.0);
+      assertTrue(ruleSystem.getTimerService().getPendingCount() == 0);
+    } finally {
+      ringBuffer.stop();
+    }
+  }
+
+  /**
+   * Trades written to a TradeFile and replayed thru the mapping drive VWapRules to the same answers as pushing the
+   * original events, whether routed by symbol or into a single channel, and paced replay honours the recorded ticks.
+   */
+  @Test
+  public void tradeFileReplayTest() throws IOException {
+    PriceScale scale = PriceScale.BASIS_POINTS;
+    String[] symbols = new String[] { "MACK", "GOTH", "DOG" };
+    Path path = Files.createTempFile("trades", ".bin");
+    try {
+      CARuleSystem<StockTradeEvent> direct = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 50, scale),
+              new VWapRule("GOTH", 50, scale), new VWapRule("DOG", 50, scale));
+      IReadWriteMonadex directContext = direct.freeVariables();
+      TradeFileWriter writer = new TradeFileWriter(path, scale);
+      for (int tick = 0; tick < 100000; tick++) {
+        StockTradeEvent event = new StockTradeEvent(tick, symbols[_random.nextInt(symbols.length)],
+                1 + _random.nextInt(1000), 1 + _random.nextInt(10000000), scale);
+        writer.write(event);
+        directContext.returnValue(directContext.getIndex(event.getSymbol()), event);
+        direct.executeActivations();
+      }
+      writer.close();
+      assertTrue(writer.getRecordCount() == 100000);
+
+      TradeFileReplay replay = new TradeFileReplay(path);
+      try {
+        assertTrue(replay.getRecordCount() == 100000 && replay.getPriceScale().equals(scale));
+        StockTradeEvent first = replay.read(0);
+        assertTrue(first.getTimeTick() == 0 && first.getPriceScale().equals(scale));
+
+        CARuleSystem<StockTradeEvent> replayed = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 50, scale),
+                new VWapRule("GOTH", 50, scale), new VWapRule("DOG", 50, scale));
+        IReadWriteMonadex context = replayed.freeVariables();
+        assertTrue(replay.replay(replayed, null) == 100000);
+        for (String symbol : symbols) {
+          int volumeIndex = context.getIndex(symbol + "_volume");
+          int totalIndex = context.getIndex(symbol + "_total");
+          int vwapIndex = context.getIndex(symbol + "_vwap");
+          assertTrue(context.bindInt(volumeIndex) == directContext.bindInt(volumeIndex));
+          assertTrue(context.bindLong(totalIndex) == directContext.bindLong(totalIndex));
+          assertTrue(context.bindLong(vwapIndex) == directContext.bindLong(vwapIndex));
+        }
+
+        //  Everything into one channel, while routing by symbol finds no channels here and pushes nothing...
+        CARuleSystem<StockTradeEvent> single = new CARuleSystem<StockTradeEvent>(new VWapRule("ALL", 50, scale));
+        assertTrue(replay.replay(single, "ALL") == 100000);
+        assertTrue(replay.replay(single, null) == 0);
+      } finally {
+        replay.close();
+      }
+
+      //  A hundred ticks a millisecond apart can't finish in under a tenth of a second...
+      writer = new TradeFileWriter(path, scale);
+      for (int tick = 0; tick < 100; tick++)
+        writer.write(tick, "MACK", 100, 10000);
+      writer.close();
+      replay = new TradeFileReplay(path);
+      try {
+        long start = System.nanoTime();
+        assertTrue(replay.replay(new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 10, scale)), "MACK", 1000000) == 100);
+        assertTrue(System.nanoTime() - start >= 99000000L);
+      } finally {
+        replay.close();
+      }
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void ringWindowTest() {
+    NullMonadex context = new NullMonadex();
+    RingWindow<String> window = new RingWindow<String>("window", 2, true);
+
+    //  Slide a few times so the head wraps before the buffer has to grow...
+    for (int tick = 1; tick <= 5; tick++) {
+      window.append(tick, "e" + tick, context);
+      if (window.size(context) > 1)
+        assertTrue(("e" + (tick - 1)).equals(window.removeOldest(context)));
+    }
+    assertTrue(window.capacity() == 2);
+
+    for (int tick = 6; tick <= 20; tick++)
+      window.append(tick, "e" + tick, context);
+    assertTrue(window.size(context) == 16 && window.capacity() == 16);
+    assertTrue(window.oldestTimeTick(context) == 5 && window.eventAt(15).equals("e20"));
+
+    assertTrue(window.expire(10, context).size() == 6);
+    assertTrue(window.oldestTimeTick(context) == 11 && "e11".equals(window.oldest(context)));
+
+    RingWindow<String> fixed = new RingWindow<String>("fixed", 2, false);
+    fixed.append(1, "a", context);
+    fixed.append(2, "b", context);
+    try {
+      fixed.append(3, "c", context);
+      assertTrue(false, "Fixed capacity window should refuse to grow");
+    } catch (IllegalStateException e) {
+      //  expected
+    }
+  }
+
+  @Test
+  public void tradeWindowTest() {
+    NullMonadex context = new NullMonadex();
+    TradeWindow window = new TradeWindow("window", "MACK", 4, true);
+
+    for (int tick = 1; tick <= 10; tick++)
+      window.append(tick, new StockTradeEvent(tick, "MACK", tick * 10, tick + 0.5), context);
+    window.dropOldest(context);
+    window.dropOldest(context);
+    window.append(11, 110, 11.5, context);
+    assertTrue(window.size(context) == 9 && window.capacity() == 16);
+    assertTrue(window.timeTickAt(0) == 3 && window.sharesAt(0) == 30 && window.priceAt(8) == 11.5);
+
+    //  The flyweight and the materialized events agree with the columns...
+    StockTradeEvent oldest = window.removeOldest(context);
+    assertTrue(oldest.getTimeTick() == 3 && oldest.getShares() == 30 && "MACK".equals(oldest.getSymbol()));
+    Collection<EventTick<StockTradeEvent>> expired = window.expire(6, context);
+    assertTrue(expired.size() == 3);
+    for (EventTick<StockTradeEvent> tick : expired)
+      assertTrue(tick.event.getShares() == tick.timeTick * 10 && tick.event.getSharePrice() == tick.timeTick + 0.5);
+    assertTrue(window.size(context) == 5 && window.oldestTimeTick(context) == 7);
+  }
+
+  /**
+   * Slide the incremental aggregates over both an object window and the columnar trade window, checking each step
+   * against the same statistics recomputed by scanning the trades still in the window.
+   */
+  @Test
+  public void windowAggregatesTest() {
+    _checkAggregates(new RingWindow<StockTradeEvent>("window", 4, true));
+    _checkAggregates(new TradeWindow("window", "MACK", 4, true));
+  }
+
+  private void _checkAggregates(IWindow<StockTradeEvent> window) {
+    NullMonadex context = new NullMonadex();
+    IWindowValue<StockTradeEvent> price = new IWindowValue<StockTradeEvent>() {
+      @Override
+      public double valueOf(StockTradeEvent event) {
+        return event.getSharePrice();
+      }
+    };
+    WindowSum<StockTradeEvent> sum = new WindowSum<StockTradeEvent>("sum", window, price);
+    WindowCount<StockTradeEvent> count = new WindowCount<StockTradeEvent>("count", window);
+    WindowMean<StockTradeEvent> mean = new WindowMean<StockTradeEvent>("mean", window, price);
+    WindowVariance<StockTradeEvent> variance = new WindowVariance<StockTradeEvent>("variance", window, price);
+    WindowMin<StockTradeEvent> min = new WindowMin<StockTradeEvent>("min", window, price);
+    WindowMax<StockTradeEvent> max = new WindowMax<StockTradeEvent>("max", window, price);
+    WindowEMA<StockTradeEvent> ema = new WindowEMA<StockTradeEvent>("ema", window, price, 0.25);
+
+    StockTradeEvent[] events = _preloadEventStream(1, "MACK", 500);
+    double expectedEma = Double.NaN;
+    for (int tick = 0; tick < events.length; tick++) {
+      //  Window keeps the trades in (tick - 25, tick]...
+      while (!window.isEmpty(context) && window.oldestTimeTick(context) <= events[tick].getTimeTick() - 25)
+        window.removeOldest(context);
+      window.append(events[tick].getTimeTick(), events[tick], context);
+      expectedEma = Double.isNaN(expectedEma) ? events[tick].getSharePrice()
+              : expectedEma + (0.25 * (events[tick].getSharePrice() - expectedEma));
+
+      int first = Math.max(0, tick - 24);
+      double expectedSum = 0;
+      double expectedMin = Double.MAX_VALUE;
+      double expectedMax = -Double.MAX_VALUE;
+      for (int i = first; i <= tick; i++) {
+        expectedSum = expectedSum + events[i].getSharePrice();
+        expectedMin = Math.min(expectedMin, events[i].getSharePrice());
+        expectedMax = Math.max(expectedMax, events[i].getSharePrice());
+      }
+      int n = tick - first + 1;
+      double expectedMean = expectedSum / n;
+      double squares = 0;
+      for (int i = first; i <= tick; i++)
+        squares = squares + ((events[i].getSharePrice() - expectedMean) * (events[i].getSharePrice() - expectedMean));
+
+      assertTrue(count.bindDouble(context) == n);
+      assertTrue(Math.abs(sum.bindDouble(context) - expectedSum) < 1e-9);
+      assertTrue(Math.abs(mean.bindDouble(context) - expectedMean) < 1e-9);
+      assertTrue(Math.abs(variance.bindDouble(context) - (squares / n)) < 1e-9);
+      assertTrue(min.bindDouble(context) == expectedMin && max.bindDouble(context) == expectedMax);
+      assertTrue(Math.abs(ema.bindDouble(context) - expectedEma) < 1e-9);
+    }
+
+    window.clear();
+    assertTrue(count.bindDouble(context) == 0 && Double.isNaN(min.bindDouble(context)));
+
+    //  A NaN price expires like any other...
+    window.append(1, new StockTradeEvent(1, "MACK", 10, Double.NaN), context);
+    window.append(2, new StockTradeEvent(2, "MACK", 10, 5.0), context);
+    window.removeOldest(context);
+    assertTrue(max.bindDouble(context) == 5.0 && min.bindDouble(context) == 5.0);
+  }
+
   /**
    * This is a quick-and-dirty performance test.  It isn't intended as an exhaustive benchmark bid for bragging
    * rights.  Rather it should give some reassurance that even single-threaded, this approach to rule and event processing
@@ -141,6 +488,467 @@ public class VWapExample {
     System.out.println("Size of window: " + ((IWindow)context.getMonad("MACK_window")).size(context));
   }
 
+  /**
+   * All symbols on one channel.  Each symbol's VWAP in the book must match one recomputed from that symbol's own
+   * trades still inside the window.
+   */
+  @Test
+  public void keyedVWapTest() {
+    String[] symbols = new String[]{"MACK", "ABCD", "WXYZ", "QRST", "LMNO"};
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(new KeyedVWapRule("TRADES", 10));
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int tradesIndex = context.getIndex("TRADES");
+    VWapBook book = (VWapBook) context.getMonad("TRADES_vwaps");
+
+    StockTradeEvent[] events = new StockTradeEvent[300];
+    for (int tick = 0; tick < events.length; tick++) {
+      events[tick] = _generateEvent(tick + 1, symbols[_random.nextInt(symbols.length)]);
+      context.returnValue(tradesIndex, events[tick]);
+      ruleSystem.executeActivations();
+
+      String symbol = events[tick].getSymbol();
+      int volume = 0;
+      double total = 0.0;
+      for (int i = Math.max(0, tick - 9); i <= tick; i++)
+        if (symbol.equals(events[i].getSymbol())) {
+          volume = volume + events[i].getShares();
+          total = total + (events[i].getShares() * events[i].getSharePrice());
+        }
+      int id = book.idOf(symbol);
+      assertTrue(book.getLastUpdated() == id && symbol.equals(book.symbolOf(id)));
+      assertTrue(book.getVolume(id) == volume);
+      if (volume > 0)
+        assertTrue(Math.abs((total / volume) - book.getVWap(id)) < 0.0001);
+    }
+    assertTrue(book.getSymbolCount() == symbols.length && book.idOf("NONE") == -1);
+  }
+
+  /**
+   * A rule system restored from a snapshot carries on exactly as the one it was taken from: windows, totals, the
+   * keyed book and an aggregate watching a window all come back, and the next trades give the same answers.
+   */
+  @Test
+  public void snapshotRestoreTest() throws IOException {
+    String[] symbols = new String[]{"MACK", "ABCD", "WXYZ"};
+    PriceScale scale = PriceScale.BASIS_POINTS;
+    RuleSystemSnapshot snapshot = new RuleSystemSnapshot().register(16, StockTradeEvent.class, StockTradeEvent.SNAPSHOT_CODEC);
+    Path path = Files.createTempFile("vwap", ".snapshot");
+    try {
+      CARuleSystem<StockTradeEvent> original = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 50, scale),
+              new KeyedVWapRule("TRADES", 50));
+      IReadWriteMonadex context = original.freeVariables();
+      WindowSum<StockTradeEvent> shares = _sharesIn((IWindow<StockTradeEvent>) context.getMonad("MACK_window"));
+      for (int tick = 0; tick < 1000; tick++) {
+        context.returnValue("MACK", new StockTradeEvent(tick, "MACK", 1 + _random.nextInt(1000), 1 + _random.nextInt(10000000), scale));
+        context.returnValue("TRADES", _generateEvent(tick, symbols[_random.nextInt(symbols.length)]));
+        original.executeActivations();
+      }
+      snapshot.save(original, path);
+
+      CARuleSystem<StockTradeEvent> restored = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 50, scale),
+              new KeyedVWapRule("TRADES", 50));
+      IReadWriteMonadex restoredContext = restored.freeVariables();
+      WindowSum<StockTradeEvent> restoredShares = _sharesIn((IWindow<StockTradeEvent>) restoredContext.getMonad("MACK_window"));
+      snapshot.restore(restored, path);
+      assertTrue(restoredShares.bindDouble(restoredContext) == shares.bindDouble(context));
+
+      VWapBook book = (VWapBook) context.getMonad("TRADES_vwaps");
+      VWapBook restoredBook = (VWapBook) restoredContext.getMonad("TRADES_vwaps");
+      for (int tick = 1000; tick < 2000; tick++) {
+        StockTradeEvent trade = new StockTradeEvent(tick, "MACK", 1 + _random.nextInt(1000), 1 + _random.nextInt(10000000), scale);
+        StockTradeEvent keyed = _generateEvent(tick, symbols[_random.nextInt(symbols.length)]);
+        context.returnValue("MACK", trade);
+        context.returnValue("TRADES", keyed);
+        original.executeActivations();
+        restoredContext.returnValue("MACK", trade);
+        restoredContext.returnValue("TRADES", keyed);
+        restored.executeActivations();
+
+        for (String name : new String[]{"MACK_volume", "MACK_total", "MACK_vwap"})
+          assertTrue(restoredContext.bindLong(restoredContext.getIndex(name)) == context.bindLong(context.getIndex(name)));
+        int id = book.idOf(keyed.getSymbol());
+        assertTrue(restoredBook.idOf(keyed.getSymbol()) == id);
+        assertTrue(restoredBook.getVolume(id) == book.getVolume(id) && restoredBook.getVWap(id) == book.getVWap(id));
+        assertTrue(restoredShares.bindDouble(restoredContext) == shares.bindDouble(context));
+      }
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  protected WindowSum<StockTradeEvent> _sharesIn(IWindow<StockTradeEvent> window) {
+    return new WindowSum<StockTradeEvent>("shares", window, new IWindowValue<StockTradeEvent>() {
+      @Override
+      public double valueOf(StockTradeEvent event) {
+        return event.getShares();
+      }
+    });
+  }
+
+  /**
+   * Aggregates that are alpha monads in their own right come back from a snapshot with their fold state, whichever
+   * side of their window they sit in alpha memory, and restoring them tells none of their listeners.  The EMA can't
+   * be rebuilt from the window's contents at all: it remembers prices that expired long ago.
+   */
+  @Test
+  public void aggregateSnapshotTest() throws IOException {
+    String[] aggregates = new String[]{"PRICE_ema", "PRICE_variance", "PRICE_max"};
+    Path path = Files.createTempFile("aggregates", ".snapshot");
+    try {
+      CARuleSystem<Double> original = new CARuleSystem<Double>(new PriceStatsRule());
+      IReadWriteMonadex context = original.freeVariables();
+      for (int i = 0; i < 500; i++) {
+        context.returnValue("PRICE", 100 * _random.nextDouble());
+        original.executeActivations();
+      }
+      new RuleSystemSnapshot().save(original, path);
+
+      CARuleSystem<Double> restored = new CARuleSystem<Double>(new PriceStatsRule());
+      IReadWriteMonadex restoredContext = restored.freeVariables();
+      final int[] changes = new int[1];
+      IListener listener = new IListener() {
+        @Override
+        public void changed(Object ref, IMonadex context) {
+          changes[0] = changes[0] + 1;
+        }
+
+        @Override
+        public void added(Object ref, IMonadex context) {
+        }
+
+        @Override
+        public void removed(Object ref, IMonadex context) {
+        }
+
+        @Override
+        public void reverted(Object ref, IMonadex context) {
+        }
+      };
+      ((IListenable) restoredContext.getMonad("PRICE_window")).addChangeListener(listener);
+      for (String name : aggregates)
+        ((IListenable) restoredContext.getMonad(name)).addChangeListener(listener);
+      new RuleSystemSnapshot().restore(restored, path);
+      assertTrue(changes[0] == 0);
+
+      for (int i = 0; i < 100; i++) {
+        for (String name : aggregates)
+          assertTrue(restoredContext.bindDouble(restoredContext.getIndex(name)) == context.bindDouble(context.getIndex(name)));
+        double price = 100 * _random.nextDouble();
+        context.returnValue("PRICE", price);
+        original.executeActivations();
+        restoredContext.returnValue("PRICE", price);
+        restored.executeActivations();
+      }
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  /**
+   * Slides a 20-tick window over PRICE with aggregates over it declared as optional variables: the EMA ahead of
+   * the window, the variance and max after it.
+   */
+  public class PriceStatsRule extends DefaultCARule<Double> {
+    int _price = -1;
+    int _tick = -1;
+    int _window = -1;
+
+    public PriceStatsRule() {
+      super();
+      _price = addVariable(new Variable<Double>("PRICE", null));
+      _tick = addOptionalVariable(new LongMonad("PRICE_tick", 0));
+
+      RingWindow<Double> window = new RingWindow<Double>("PRICE_window", 16, true);
+      IWindowValue<Double> price = new IWindowValue<Double>() {
+        @Override
+        public double valueOf(Double event) {
+          return event;
+        }
+      };
+      addOptionalVariable(new WindowEMA<Double>("PRICE_ema", window, price, 0.1));
+      _window = addOptionalVariable(window);
+      addOptionalVariable(new WindowVariance<Double>("PRICE_variance", window, price));
+      addOptionalVariable(new WindowMax<Double>("PRICE_max", window, price));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      long tick = context.bindLong(_tick) + 1;
+      IWindow<Double> window = (IWindow<Double>) context.getMonad(_window);
+      window.expire(tick - 20, context);
+      window.append(tick, (Double) context.bindValue(_price), context);
+      context.returnLong(_tick, tick);
+    }
+  }
+
+  /**
+   * Per-trade cost of the keyed rule with 8,000 symbols on the one channel.
+   */
+  @Test
+  public void keyedVWapPerfTest() {
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(new KeyedVWapRule("TRADES", 100));
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int tradesIndex = context.getIndex("TRADES");
+
+    String[] symbols = new String[8000];
+    for (int i = 0; i < symbols.length; i++)
+      symbols[i] = "S" + i;
+    StockTradeEvent[] events = new StockTradeEvent[200000];
+    for (int tick = 0; tick < events.length; tick++)
+      events[tick] = _generateEvent(tick, symbols[_random.nextInt(symbols.length)]);
+
+    //  Warm up on the first half of the stream, then time the second...
+    for (int i = 0; i < events.length / 2; i++) {
+      context.returnValue(tradesIndex, events[i]);
+      ruleSystem.executeActivations();
+    }
+    long startTime = System.nanoTime();
+    for (int i = events.length / 2; i < events.length; i++) {
+      context.returnValue(tradesIndex, events[i]);
+      ruleSystem.executeActivations();
+    }
+
+    long elapsed = System.nanoTime() - startTime;
+    System.out.println("Elapsed: " + elapsed + ".  Avg: " + (elapsed / (events.length / 2)));
+    System.out.println("Symbols: " + ((VWapBook) context.getMonad("TRADES_vwaps")).getSymbolCount());
+  }
+
+  @Test
+  public void closingWindowsTest() {
+    NullMonadex context = new NullMonadex();
+
+    //  Width 10 sliding by 5: the trade at 12 closes [-5, 5) and [0, 10) together, chained oldest first...
+    HoppingWindow<String> hopping = new HoppingWindow<String>("hopping", "closed", 10, 5);
+    hopping.append(1, "a", context);
+    hopping.append(3, "b", context);
+    hopping.append(12, "c", context);
+    WindowClose<String> closed = hopping.getLastClosed();
+    assertTrue(closed.start == -5 && closed.end == 5 && closed.events.size() == 2);
+    assertTrue(closed.next.start == 0 && closed.next.end == 10 && closed.next.next == null);
+    assertTrue(hopping.size(context) == 1);
+
+    //  ...and a long quiet stretch skips the empty windows rather than emitting them.
+    hopping.append(1000, "d", context);
+    closed = hopping.getLastClosed();
+    assertTrue(closed.start == 5 && closed.next.start == 10 && closed.next.next == null);
+    assertTrue(closed.next.events.get(0).event.equals("c"));
+
+    TumblingWindow<String> tumbling = new TumblingWindow<String>("tumbling", "closed", 10);
+    tumbling.append(10, "a", context);
+    tumbling.append(19, "b", context);
+    assertTrue(tumbling.getLastClosed() == null);
+    tumbling.advance(20, context);
+    closed = tumbling.getLastClosed();
+    assertTrue(closed.start == 10 && closed.end == 20 && closed.events.size() == 2 && tumbling.isEmpty(context));
+
+    SessionWindow<String> session = new SessionWindow<String>("session", "closed", 5);
+    session.append(1, "a", context);
+    session.append(6, "b", context);
+    session.append(11, "c", context);
+    assertTrue(session.getLastClosed() == null);
+    assertTrue(session.expire(20, context).size() == 3);
+    closed = session.getLastClosed();
+    assertTrue(closed.start == 1 && closed.end == 12 && closed.events.size() == 3);
+  }
+
+  /**
+   * Out-of-order events within the allowed lateness are inserted in time order; later than that they go to the
+   * side channel.  The watermark is returned into the context as it advances.  Ring, trade and closing windows
+   * all behave alike.
+   */
+  @Test
+  public void eventTimeWindowTest() {
+    Monadex context = new Monadex(new LongMonad("watermark", Long.MIN_VALUE), new Variable<Object>("late", null));
+    RingWindow<String> window = new RingWindow<String>("window", 4, true);
+    window.eventTime(5, "watermark", "late");
+    IWindowValue<String> length = new IWindowValue<String>() {
+      @Override
+      public double valueOf(String event) {
+        return event.length();
+      }
+    };
+    WindowMax<String> max = new WindowMax<String>("max", window, length);
+
+    window.append(10, "aa", context);
+    window.append(12, "b", context);
+    assertTrue(context.bindLong(0) == 7);
+    window.append(8, "cccc", context);
+    window.append(15, "ddd", context);
+    assertTrue(context.bindLong(0) == 10 && window.getWatermark() == 10);
+    window.append(9, "eeeee", context);
+    assertTrue(window.getLateCount() == 1 && ((EventTick) context.bindValue(1)).timeTick == 9);
+
+    assertTrue(window.timeTickAt(0) == 8 && window.timeTickAt(1) == 10 && window.eventAt(3).equals("ddd"));
+    assertTrue(max.bindDouble(context) == 4);
+    window.expire(8, context);
+    assertTrue(max.bindDouble(context) == 3 && window.size(context) == 3);
+
+    //  Shuffle a stream by no more than the lateness and check the window and its max stay right...
+    RingWindow<String> shuffled = new RingWindow<String>("shuffled").eventTime(8, null, null);
+    WindowMax<String> shuffledMax = new WindowMax<String>("max", shuffled, length);
+    long[] ticks = new long[504];
+    for (int i = 0; i < ticks.length; i++)
+      ticks[i] = i;
+    for (int i = 0; i < ticks.length; i++) {
+      //  Shuffle within blocks of 8 so nothing arrives more than 7 ticks late...
+      int j = (i & ~7) + _random.nextInt(8);
+      long swap = ticks[i];
+      ticks[i] = ticks[j];
+      ticks[j] = swap;
+    }
+    for (long tick : ticks) {
+      while (!shuffled.isEmpty(context) && shuffled.oldestTimeTick(context) <= shuffled.getWatermark() - 20)
+        shuffled.removeOldest(context);
+      shuffled.append(tick, "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx".substring(0, 1 + _random.nextInt(50)), context);
+
+      int expected = 0;
+      for (int i = 0; i < shuffled.size(context); i++) {
+        expected = Math.max(expected, shuffled.eventAt(i).length());
+        assertTrue(i == 0 || shuffled.timeTickAt(i - 1) <= shuffled.timeTickAt(i));
+      }
+      assertTrue(shuffledMax.bindDouble(context) == expected);
+    }
+    assertTrue(shuffled.getLateCount() == 0);
+
+    //  A TradeWindow does the same, whether trades arrive as events or as bare fields...
+    TradeWindow trades = new TradeWindow("trades", "MACK", 4, true).eventTime(5, "watermark", "late");
+    trades.append(10, new StockTradeEvent(10, "MACK", 100, 20.0), context);
+    trades.append(12, 200, 21.0, context);
+    assertTrue(context.bindLong(0) == 7);
+    trades.append(8, new StockTradeEvent(8, "MACK", 300, 19.0), context);
+    trades.append(15, 400, 22.0, context);
+    assertTrue(context.bindLong(0) == 10 && trades.getWatermark() == 10 && trades.isLate(9) && !trades.isLate(10));
+    trades.append(9, 500, 18.0, context);
+    EventTick<StockTradeEvent> late = (EventTick<StockTradeEvent>) context.bindValue(1);
+    assertTrue(trades.getLateCount() == 1 && late.timeTick == 9 && late.event.getShares() == 500);
+    assertTrue(late.event.getSharePrice() == 18.0 && "MACK".equals(late.event.getSymbol()));
+    trades.append(4, new StockTradeEvent(4, "MACK", 600, 17.0), context);
+    assertTrue(trades.getLateCount() == 2 && ((EventTick) context.bindValue(1)).timeTick == 4);
+    assertTrue(trades.size(context) == 4 && trades.timeTickAt(0) == 8 && trades.timeTickAt(1) == 10);
+    assertTrue(trades.sharesAt(2) == 200 && trades.priceAt(3) == 22.0);
+
+    //  ...and a VWapRule over one keeps the trades it turns away out of its totals.
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", 10));
+    IReadWriteMonadex vwapContext = ruleSystem.freeVariables();
+    TradeWindow vwapWindow = ((TradeWindow) vwapContext.getMonad("MACK_window")).eventTime(2, null, null);
+    for (long tick : new long[]{10, 12, 9, 11}) {
+      vwapContext.returnValue("MACK", new StockTradeEvent(tick, "MACK", 100, 20.0));
+      ruleSystem.executeActivations();
+    }
+    assertTrue(vwapWindow.getLateCount() == 1 && vwapWindow.size(vwapContext) == 3);
+    assertTrue(vwapContext.bindInt(vwapContext.getIndex("MACK_volume")) == 300);
+
+    //  Bars close once the watermark passes their end, so a trade up to 3 ticks late still makes its bar...
+    TumblingWindow<String> tumbling = new TumblingWindow<String>("tumbling", "closed", 10);
+    tumbling.eventTime(3, null, null);
+    tumbling.append(5, "a", context);
+    tumbling.append(11, "b", context);
+    tumbling.append(9, "c", context);
+    assertTrue(tumbling.getLastClosed() == null);
+    tumbling.append(13, "d", context);
+    WindowClose<String> closed = tumbling.getLastClosed();
+    assertTrue(closed.start == 0 && closed.events.size() == 2 && closed.events.get(1).event.equals("c"));
+    tumbling.append(8, "e", context);
+    assertTrue(tumbling.getLateCount() == 1);
+  }
+
+  /**
+   * Trades go into a tumbling window; each completed window comes back out as an OHLCV bar.
+   */
+  @Test
+  public void ohlcvBarTest() {
+    CARuleSystem<StockTradeEvent> ruleSystem = new CARuleSystem<StockTradeEvent>(new BarWindowRule("MACK", 10),
+            new OHLCVBarRule("MACK"));
+    IReadWriteMonadex context = ruleSystem.freeVariables();
+    int eventIndex = context.getIndex("MACK");
+    int barIndex = context.getIndex("MACK_bar");
+
+    StockTradeEvent[] events = _preloadEventStream(0, "MACK", 101);
+    for (int tick = 0; tick < events.length; tick++) {
+      context.returnValue(eventIndex, events[tick]);
+      ruleSystem.executeActivations();
+
+      Bar bar = (Bar) context.bindValue(barIndex);
+      if (tick < 10) {
+        assertTrue(bar == null);
+        continue;
+      }
+
+      //  The newest bar is the last complete ten ticks...
+      int start = (tick / 10) * 10 - 10;
+      double high = -Double.MAX_VALUE;
+      double low = Double.MAX_VALUE;
+      long volume = 0;
+      for (int i = start; i < start + 10; i++) {
+        high = Math.max(high, events[i].getSharePrice());
+        low = Math.min(low, events[i].getSharePrice());
+        volume = volume + events[i].getShares();
+      }
+      assertTrue(bar.getStart() == start && bar.getEnd() == start + 10);
+      assertTrue(bar.getOpen() == events[start].getSharePrice() && bar.getClose() == events[start + 9].getSharePrice());
+      assertTrue(bar.getHigh() == high && bar.getLow() == low && bar.getVolume() == volume);
+    }
+  }
+
+  /**
+   * Same VWAP rule, but spread over several shards keyed by stock symbol.  Each shard holds a full replica
+   * of the rules and only ever sees the trades for the symbols it owns.
+   */
+  @Test
+  public void shardedVWapTest() {
+    final String[] symbols = new String[]{"MACK", "ABCD", "WXYZ", "QRST", "LMNO"};
+    ShardedCARuleSystem<StockTradeEvent> ruleSystem = new ShardedCARuleSystem<StockTradeEvent>(3,
+            new IPartitionKey<StockTradeEvent>() {
+              @Override
+              public Object partitionKey(StockTradeEvent event) {
+                return event.getSymbol();
+              }
+            },
+            new ICARuleFactory<StockTradeEvent>() {
+              @Override
+              public ICARule<StockTradeEvent>[] createRules(int shard) {
+                ICARule<StockTradeEvent>[] rules = new ICARule[symbols.length];
+                for (int i = 0; i < symbols.length; i++)
+                  rules[i] = new VWapRule(symbols[i], 1000);
+                return rules;
+              }
+            });
+    ruleSystem.start();
+
+    int[] volumes = new int[symbols.length];
+    for (int tick = 1; tick <= 200; tick++)
+      for (int i = 0; i < symbols.length; i++) {
+        StockTradeEvent event = _generateEvent(tick, symbols[i]);
+        volumes[i] = volumes[i] + event.getShares();
+        ruleSystem.submit(symbols[i], event);
+      }
+
+    ruleSystem.flush();
+    ruleSystem.stop();
+
+    //  Every symbol's running volume lives in the shard that owns it, and adds up to what we sent...
+    for (int i = 0; i < symbols.length; i++) {
+      IReadWriteMonadex context = ruleSystem.getRuleSystem(ruleSystem.shardOfKey(symbols[i])).freeVariables();
+      assertTrue(volumes[i] == context.bindInt(context.getIndex(symbols[i] + "_volume")));
+    }
+  }
+
+  //  Set the clock and wait for the consumer to have seen it.  A trade for another symbol is ignored by the rule,
+  //  but flushing it marks a pass of the consumer loop, so once a second one has been flushed the loop has
+  //  advanced the timers at least once since the clock was set...
+  private void _passClock(IngestionRingBuffer<StockTradeEvent> ringBuffer, int eventIndex, IClock.Manual clock, long now) {
+    clock.set(now);
+    for (int pass = 0; pass < 2; pass++) {
+      ringBuffer.publish(eventIndex, new StockTradeEvent(now, "OTHER", 1, 1.0));
+      ringBuffer.flush();
+    }
+  }
+
   private StockTradeEvent _generateEvent(long timeTick, String symbol) {
     return new StockTradeEvent(timeTick, symbol, _random.nextInt(100), _random.nextDouble());
   }
@@ -0,0 +1,124 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.benchmarks;
+
+import com.mackenzieresearch.pachinko.DefaultCARule;
+import com.mackenzieresearch.pachinko.Variable;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IMonadex;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+
+/**
+ * Ports of the rules used by the ad-hoc perf tests, so that the benchmarks measure the same scenarios.
+ */
+public class BenchmarkRules {
+
+  //
+  //    if (EVENT == "StartEvent")
+  //      STATUS <- "STARTED"
+  //
+  public static class StartEventRule extends DefaultCARule<String> {
+    int _event = -1;
+    int _status = -1;
+
+    public StartEventRule() {
+      super();
+      _event = addPkVariable(new Variable<String>("EVENT", "StartEvent"), "StartEvent");
+      _status = addOptionalVariable(new Variable("STATUS", "NOT_STARTED"));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return context.bindValue(_event).equals("StartEvent");
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      context.returnValue(_status, "STARTED");
+    }
+  }
+
+  //
+  //    if (EVENT == <keyValue>)
+  //      STATUS <- <keyValue>
+  //
+  public static class PKSelectRule extends DefaultCARule<Integer> {
+    Integer _keyValue = 0;
+    int _event = -1;
+    int _status = -1;
+
+    public PKSelectRule(int keyValueForThisRule) {
+      super();
+      _event = addPkVariable(new Variable<Integer>("EVENT", 0), keyValueForThisRule);
+      _status = addOptionalVariable(new Variable<Integer>("STATUS", 0));
+      _keyValue = keyValueForThisRule;
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      context.returnValue(_status, _keyValue);
+    }
+  }
+
+  //
+  //    on change of any of Var0..Var<variableCount - 1>
+  //      firings <- firings + 1
+  //
+  public static class FanOutRule extends DefaultCARule<Object> {
+    int _firings = 0;
+
+    public FanOutRule(int variableCount) {
+      super();
+      for (int var = 0; var < variableCount; var++)
+        addVariable(new Variable<Object>("Var" + var, null));
+    }
+
+    @Override
+    public boolean evaluateCondition(IMonadex<? extends IReadOnlyMonad> context) {
+      return true;
+    }
+
+    @Override
+    public void doAction(IReadWriteMonadex<? extends IMonad> context) {
+      _firings = _firings + 1;
+    }
+
+    public int getFirings() {
+      return _firings;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.benchmarks;
+
+import com.mackenzieresearch.pachinko.CAExpressionRule;
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.roux.context.Monadex;
+import com.mackenzieresearch.roux.existential.Equals;
+import com.mackenzieresearch.roux.kernel.IMonad;
+import com.mackenzieresearch.roux.kernel.IReadOnlyMonad;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import com.mackenzieresearch.roux.kernel.ISideEffectFreeAction;
+import com.mackenzieresearch.roux.singleValued.reference.ContextRef;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Port of CAExpressionRulePerfTests: an Equals(ContextRef, constant) condition with a fifty percent duty
+ * cycle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CAExpressionRuleBenchmark {
+  CARuleSystem<Integer> _ruleSystem = null;
+  IReadWriteMonadex _context = null;
+  int _sampleData = -1;
+  int _tick = 0;
+
+  @Setup
+  public void setup(final Blackhole blackhole) {
+    CAExpressionRule<Integer> rule = new CAExpressionRule()
+            .whereCondition(new Equals()
+                    .leftParam(new ContextRef<Integer>("sampleData"))
+                    .rightParam(0))
+            .performAction(new ConsumeAction(blackhole));
+
+    _ruleSystem = new CARuleSystem<Integer>(rule);
+    _context = _ruleSystem.freeVariables();
+    _sampleData = _context.getIndex("sampleData");
+  }
+
+  @Benchmark
+  public void fiftyPercentDutyCycle() {
+    _tick = _tick + 1;
+    _context.returnValue(_sampleData, _tick & 1);
+    _ruleSystem.executeActivations();
+  }
+
+  static class ConsumeAction implements ISideEffectFreeAction<Object> {
+    private Blackhole _blackhole = null;
+
+    ConsumeAction(Blackhole blackhole) {
+      _blackhole = blackhole;
+    }
+
+    @Override
+    public void evaluate(IReadWriteMonadex<? extends IReadOnlyMonad<Object>> context) {
+      _blackhole.consume(context);
+    }
+
+    @Override
+    public IReadWriteMonadex freeVariables() {
+      return new Monadex(new IMonad[0]);
+    }
+
+    @Override
+    public String[] freeVarNames() {
+      return new String[0];
+    }
+
+    @Override
+    public void setFreeVariables(Map<String, IMonad> freeVars) {
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.benchmarks;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <fanOut> rules all bound to the same <variableCount> variables.  Each operation changes one variable,
+ * which has to activate every rule, so this isolates the cost of change propagation per listener.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+  @Param({"1", "10", "100"})
+  public int fanOut;
+
+  @Param({"1", "4", "16"})
+  public int variableCount;
+
+  @Param({"false", "true"})
+  public boolean compiled;
+
+  CARuleSystem<Object> _ruleSystem = null;
+  IReadWriteMonadex _context = null;
+  int[] _vars = null;
+  Object _value = new Object();
+  int _next = 0;
+
+  @Setup
+  public void setup() {
+    BenchmarkRules.FanOutRule[] rules = new BenchmarkRules.FanOutRule[fanOut];
+    for (int rule = 0; rule < fanOut; rule++)
+      rules[rule] = new BenchmarkRules.FanOutRule(variableCount);
+    _ruleSystem = new CARuleSystem<Object>(rules);
+    if (compiled)
+      _ruleSystem.compileActivations();
+    _context = _ruleSystem.freeVariables();
+
+    _vars = new int[variableCount];
+    for (int var = 0; var < variableCount; var++) {
+      _vars[var] = _context.getIndex("Var" + var);
+      //  Bind everything once so that all the rules are activatable before measuring...
+      _context.returnValue(_vars[var], _value);
+    }
+    _ruleSystem.executeActivations();
+  }
+
+  @Benchmark
+  public void changeOneVariable() {
+    _next = _next + 1;
+    if (_next >= _vars.length)
+      _next = 0;
+    _context.returnValue(_vars[_next], _value);
+    _ruleSystem.executeActivations();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.benchmarks;
+
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Port of PKScalingPerfTest: <ruleCount> keyed rules on one EVENT channel, each event selecting exactly one
+ * of them.  Per-event cost should stay flat as ruleCount grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PKScalingBenchmark {
+  @Param({"10", "100", "1000", "10000"})
+  public int ruleCount;
+
+  @Param({"false", "true"})
+  public boolean compiled;
+
+  CARuleSystem<Integer> _ruleSystem = null;
+  IReadWriteMonadex _context = null;
+  Integer[] _keys = null;
+  int _event = -1;
+  int _status = -1;
+  int _next = 0;
+
+  @Setup
+  public void setup() {
+    BenchmarkRules.PKSelectRule[] rules = new BenchmarkRules.PKSelectRule[ruleCount];
+    for (int x = 0; x < ruleCount; x++)
+      rules[x] = new BenchmarkRules.PKSelectRule(x + 1);
+    _ruleSystem = new CARuleSystem<Integer>(rules);
+    if (compiled)
+      _ruleSystem.compileActivations();
+    _context = _ruleSystem.freeVariables();
+    _event = _context.getIndex("EVENT");
+    _status = _context.getIndex("STATUS");
+
+    //  Box the keys up front so that the measurement doesn't include Integer allocation...
+    _keys = new Integer[ruleCount];
+    for (int x = 0; x < ruleCount; x++)
+      _keys[x] = x + 1;
+  }
+
+  @Benchmark
+  public Object sameKey() {
+    _context.returnValue(_event, _keys[_keys.length / 2]);
+    _ruleSystem.executeActivations();
+    return _context.bindValue(_status);
+  }
+
+  @Benchmark
+  public Object rotatingKey() {
+    _next = _next + 1;
+    if (_next >= _keys.length)
+      _next = 0;
+    _context.returnValue(_event, _keys[_next]);
+    _ruleSystem.executeActivations();
+    return _context.bindValue(_status);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+   PACHINKO, A fast, embeddable micro-rule engine runtime.
+   Version 0.2
+
+   Copyright 2011 Kenneth R. Mackenzie (www.mackenzieresearch.com)
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of Version 3 of the GNU Affero General Public
+   License as published by the Free Software Foundation.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Affero General Public License for more details.
+
+   You should have received a copy of the GNU Affero General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+   If you require a version of this software which can be used as
+   part of a commercial for-profit program, please contact Mackenzie
+   Research for a commercial license.
+
+   Unless required by applicable law or agreed to in writing, this
+   software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+   CONDITIONS OF ANY KIND, either express or implied.
+
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.mackenzieresearch.pachinko.benchmarks;
+
+import com.mackenzieresearch.examples.pachinko.PriceScale;
+import com.mackenzieresearch.examples.pachinko.StockTradeEvent;
+import com.mackenzieresearch.examples.pachinko.VWapRule;
+import com.mackenzieresearch.pachinko.CARuleSystem;
+import com.mackenzieresearch.roux.kernel.IReadWriteMonadex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Port of VWapExample.singleThreadedVWapPerfTest: one trade per operation into a VWapRule with a sliding
+ * window of <windowSize> ticks.  Trades are generated up front so that only the engine is measured.  With
+ * <fixedPoint> set the rule runs on basis-point ticks instead of doubles.
+ *
+ * An iteration can run through the trades more than once.  Rather than rebuilding anything inside the measured
+ * method, each lap moves every trade's time tick on by EVENT_COUNT, so ticks keep increasing and the window
+ * carries on sliding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class VWapBenchmark {
+  private static final int EVENT_COUNT = 1 << 20;
+
+  @Param({"10", "1000", "100000"})
+  public long windowSize;
+
+  @Param({"false", "true"})
+  public boolean fixedPoint;
+
+  CARuleSystem<StockTradeEvent> _ruleSystem = null;
+  IReadWriteMonadex _context = null;
+  StockTradeEvent[] _events = null;
+  int _event = -1;
+  int _vwap = -1;
+  int _next = 0;
+  long _lap = 0;
+
+  @Setup(Level.Trial)
+  public void generateTrades() {
+    Random random = new Random(42);
+    _events = new StockTradeEvent[EVENT_COUNT];
+    for (int tick = 0; tick < EVENT_COUNT; tick++)
+      _events[tick] = new LappedTrade(tick, "MACK", random.nextInt(100), 1 + random.nextInt(1000000),
+              PriceScale.BASIS_POINTS);
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    _ruleSystem = new CARuleSystem<StockTradeEvent>(new VWapRule("MACK", windowSize,
+            fixedPoint ? PriceScale.BASIS_POINTS : null));
+    _context = _ruleSystem.freeVariables();
+    _event = _context.getIndex("MACK");
+    _vwap = _context.getIndex("MACK_vwap");
+    _next = 0;
+    _lap = 0;
+  }
+
+  @Benchmark
+  public double trade() {
+    if (_next == EVENT_COUNT) {
+      _next = 0;
+      _lap = _lap + EVENT_COUNT;
+    }
+    _context.returnValue(_event, _events[_next]);
+    _next = _next + 1;
+    _ruleSystem.executeActivations();
+    return fixedPoint ? _context.bindLong(_vwap) : _context.bindDouble(_vwap);
+  }
+
+  /**
+   * Trade whose time tick is offset by the current lap.  TradeWindow copies the tick when a trade arrives, so
+   * moving the lap on doesn't disturb trades already in the window.
+   */
+  class LappedTrade extends StockTradeEvent {
+    LappedTrade(long timeTick, String symbol, int shares, long priceTicks, PriceScale priceScale) {
+      super(timeTick, symbol, shares, priceTicks, priceScale);
+    }
+
+    @Override
+    public long getTimeTick() {
+      return super.getTimeTick() + _lap;
+    }
+  }
+}